@@ -0,0 +1,108 @@
+package com.grunka.httpclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests against a server in the same process, so what is measured is mostly the client and the loopback interface.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ClientBenchmark {
+    private static final String JSON = "{\"id\":12345,\"name\":\"benchmark\",\"tags\":[\"a\",\"b\",\"c\"],\"active\":true}";
+
+    @Param({"url", "nio"})
+    public String transport;
+
+    @Param({"1048576"})
+    public int largeSize;
+
+    private StubServer server;
+    private HttpClient client;
+    private HttpRequest small;
+    private HttpRequest large;
+    private HttpRequest json;
+    private HttpRequest form;
+    private RequestTemplate item;
+
+    @Setup
+    public void setUp() throws IOException {
+        // Text, so that reading it as a string measures decoding rather than replacing malformed input
+        byte[] largeBody = new byte[largeSize];
+        Random random = new Random(1);
+        for (int i = 0; i < largeBody.length; i++) {
+            largeBody[i] = (byte) ('a' + random.nextInt(26));
+        }
+        StubServer.Response smallResponse = StubServer.Response.ok("ok");
+        StubServer.Response largeResponse = new StubServer.Response(200, largeBody);
+        server = new StubServer(request -> request.path.equals("/large") ? largeResponse : smallResponse);
+        HttpClient.Builder builder = HttpClient.builder();
+        if (transport.equals("nio")) {
+            builder.nioTransport(1);
+        }
+        client = builder.build();
+        small = HttpRequest.GET(server.url("/small"));
+        large = HttpRequest.GET(server.url("/large"));
+        json = HttpRequest.POST(server.url("/json")).json(JSON);
+        form = HttpRequest.POST(server.url("/form")).form(new Parameters().add("name", "benchmark").add("query", "a b&c").add("page", "1"));
+        item = RequestTemplate.of(HttpRequest.GET(server.url("/items/{id}")).header("Authorization", "Bearer benchmark"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public String smallGet() {
+        return client.send(small).join().getBody();
+    }
+
+    @Benchmark
+    public int largeGetCode() {
+        return client.send(large).join().getCode();
+    }
+
+    @Benchmark
+    public String itemGet() {
+        return client.send(HttpRequest.GET(server.url("/items/" + 12345)).header("Authorization", "Bearer benchmark")).join().getBody();
+    }
+
+    @Benchmark
+    public String templatedItemGet() {
+        return client.send(item.request("12345")).join().getBody();
+    }
+
+    @Benchmark
+    public String postJson() {
+        return client.send(json).join().getBody();
+    }
+
+    @Benchmark
+    public String postForm() {
+        return client.send(form).join().getBody();
+    }
+
+    @Benchmark
+    public String largeGetString() {
+        return client.send(large).join().getBody();
+    }
+
+    @Benchmark
+    public byte[] largeGetBytes() {
+        return client.send(large, BodyHandlers.ofByteArray()).join().getBody();
+    }
+}
@@ -0,0 +1,53 @@
+package com.grunka.httpclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building requests without sending them, run with -prof gc to see what they allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestBenchmark {
+    private Parameters parameters;
+
+    @Setup
+    public void setUp() {
+        parameters = new Parameters();
+        for (int i = 0; i < 10; i++) {
+            parameters.add("key" + i, "value " + i + " & more/" + i);
+        }
+    }
+
+    @Benchmark
+    public String parametersToString() {
+        return parameters.toString();
+    }
+
+    @Benchmark
+    public HttpRequest getBuilderChain() {
+        return HttpRequest.GET("http://localhost:8080/items?page=1")
+                .accept(HttpClient.APPLICATION_JSON)
+                .userAgent("benchmark")
+                .connectTimeout(1000)
+                .readTimeout(2000)
+                .header("X-Request-Id", "abc123");
+    }
+
+    @Benchmark
+    public HttpRequest postBuilderChain() {
+        return HttpRequest.POST("http://localhost:8080/items")
+                .form(parameters)
+                .charset(StandardCharsets.UTF_8)
+                .readTimeout(2000);
+    }
+}
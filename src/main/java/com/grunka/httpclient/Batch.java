@@ -0,0 +1,343 @@
+package com.grunka.httpclient;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Runs many requests with a limit on how many are in flight in total and per host. Requests are taken from the source
+ * only when there is room for them, so a slow server or a slow consumer of the results holds back the submitter
+ * instead of piling up requests in memory.
+ * <p>
+ * Requests for a host that is at its limit wait without counting against the total limit, and while they do requests
+ * for other hosts further along in the source are taken and started. At most as many requests as the total limit
+ * wait for their hosts at a time. Results waiting to be handed over to a consumer count against taking more requests
+ * from the source, which bounds them the same way.
+ */
+public class Batch {
+    private final HttpClient client;
+    private int maxInFlight = 64;
+    private int maxInFlightPerHost = 8;
+    private boolean ordered;
+
+    Batch(HttpClient client) {
+        this.client = client;
+    }
+
+    public Batch maxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Need to allow at least one request in flight");
+        }
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    public Batch maxInFlightPerHost(int maxInFlightPerHost) {
+        if (maxInFlightPerHost < 1) {
+            throw new IllegalArgumentException("Need to allow at least one request in flight per host");
+        }
+        this.maxInFlightPerHost = maxInFlightPerHost;
+        return this;
+    }
+
+    /**
+     * Gives results from {@link #stream(Iterator)} in the order of the requests instead of in the order they complete.
+     */
+    public Batch ordered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    /**
+     * Runs all requests without blocking, the results are in the order of the requests.
+     */
+    public CompletableFuture<List<Result>> executeAll(Collection<HttpRequest> requests) {
+        Objects.requireNonNull(requests, "Requests cannot be null");
+        Result[] results = new Result[requests.size()];
+        CompletableFuture<List<Result>> done = new CompletableFuture<>();
+        if (results.length == 0) {
+            done.complete(List.of());
+            return done;
+        }
+        Scheduler scheduler = new Scheduler(requests.iterator()) {
+            private int completed;
+
+            @Override
+            void completed(Result result) {
+                results[result.index] = result;
+                release();
+                fill();
+                if (++completed == results.length) {
+                    // Not completing while holding the lock on the scheduler, it could be the caller's code that runs
+                    client.executor.execute(() -> done.complete(Arrays.asList(results)));
+                }
+            }
+        };
+        synchronized (scheduler) {
+            scheduler.fill();
+        }
+        scheduler.drain();
+        return done;
+    }
+
+    /**
+     * Runs the requests as the results are consumed. The source iterator is only advanced from the thread calling the
+     * returned iterator and only when there is room for another request. Iterating blocks until the next result is
+     * in.
+     */
+    public Iterator<Result> stream(Iterator<HttpRequest> requests) {
+        Objects.requireNonNull(requests, "Requests cannot be null");
+        StreamScheduler scheduler = new StreamScheduler(requests);
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return scheduler.awaitNext();
+            }
+
+            @Override
+            public Result next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return scheduler.take();
+            }
+        };
+    }
+
+    public static class Result {
+        private final int index;
+        private final HttpRequest request;
+        private final HttpResponse response;
+        private final Throwable failure;
+
+        private Result(int index, HttpRequest request, HttpResponse response, Throwable failure) {
+            this.index = index;
+            this.request = request;
+            this.response = response;
+            this.failure = failure;
+        }
+
+        /**
+         * @return the position of the request in the source
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public HttpRequest getRequest() {
+            return request;
+        }
+
+        /**
+         * @return the response, or null if the request failed
+         */
+        public HttpResponse getResponse() {
+            return response;
+        }
+
+        /**
+         * @return why the request failed, or null if it got a response
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        public boolean isSuccess() {
+            return failure == null;
+        }
+    }
+
+    /**
+     * Keeps track of the limits, all methods but {@link #drain()} are called holding the lock on the scheduler.
+     * Requests are only queued up as ready while holding the lock and started by {@link #drain()} after letting go of
+     * it.
+     */
+    private abstract class Scheduler {
+        private final Iterator<HttpRequest> source;
+        private final Map<String, Integer> activePerHost = new HashMap<>();
+        private final Map<String, Deque<Runnable>> waitingPerHost = new HashMap<>();
+        // Requests that have been handed a slot of their host and wait for room in total
+        private final Deque<Runnable> unblocked = new ArrayDeque<>();
+        private final Deque<Runnable> ready = new ArrayDeque<>();
+        private boolean draining;
+        private int started;
+        private int waiting;
+        private int held;
+        private int taken;
+
+        Scheduler(Iterator<HttpRequest> source) {
+            this.source = source;
+        }
+
+        /**
+         * Starts the requests that wait for room in total and then takes requests from the source while there is room
+         * for them.
+         */
+        void fill() {
+            startUnblocked();
+            while (started + held < maxInFlight && waiting < maxInFlight && source.hasNext()) {
+                HttpRequest request = source.next();
+                dispatch(taken++, request);
+            }
+        }
+
+        private void startUnblocked() {
+            while (started < maxInFlight && !unblocked.isEmpty()) {
+                waiting--;
+                started++;
+                ready.addLast(unblocked.pollFirst());
+            }
+        }
+
+        boolean exhausted() {
+            return started == 0 && waiting == 0 && held == 0 && !source.hasNext();
+        }
+
+        /**
+         * Frees the room taken by a result once it has been handed over.
+         */
+        void release() {
+            held--;
+        }
+
+        abstract void completed(Result result);
+
+        /**
+         * Starts the requests that are ready, on the calling thread and without holding the lock. Requests that fail
+         * right away make more requests ready while this runs, they are started by this loop instead of one call
+         * deeper. If another thread is already starting requests it picks up the ones made ready here too.
+         */
+        void drain() {
+            synchronized (this) {
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            while (true) {
+                Runnable start;
+                synchronized (this) {
+                    start = ready.pollFirst();
+                    if (start == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                start.run();
+            }
+        }
+
+        private void dispatch(int index, HttpRequest request) {
+            String host = CircuitBreaker.host(request);
+            Runnable start = () -> start(index, request, host);
+            int active = activePerHost.getOrDefault(host, 0);
+            if (active < maxInFlightPerHost) {
+                activePerHost.put(host, active + 1);
+                started++;
+                ready.addLast(start);
+            } else {
+                waiting++;
+                waitingPerHost.computeIfAbsent(host, h -> new ArrayDeque<>()).addLast(start);
+            }
+        }
+
+        private void start(int index, HttpRequest request, String host) {
+            CompletableFuture<HttpResponse> response;
+            try {
+                response = client.send(request);
+            } catch (RuntimeException e) {
+                response = CompletableFuture.failedFuture(e);
+            }
+            response.whenComplete((r, e) -> {
+                synchronized (Scheduler.this) {
+                    started--;
+                    held++;
+                    Deque<Runnable> queued = waitingPerHost.get(host);
+                    if (queued != null && !queued.isEmpty()) {
+                        // Hand the host slot straight to the next request for the same host
+                        unblocked.addLast(queued.pollFirst());
+                        if (queued.isEmpty()) {
+                            waitingPerHost.remove(host);
+                        }
+                    } else {
+                        int active = activePerHost.get(host) - 1;
+                        if (active == 0) {
+                            activePerHost.remove(host);
+                        } else {
+                            activePerHost.put(host, active);
+                        }
+                    }
+                    startUnblocked();
+                    Throwable failure = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    completed(new Result(index, request, r, failure));
+                }
+                drain();
+            });
+        }
+    }
+
+    private class StreamScheduler extends Scheduler {
+        private final Deque<Result> completed = new ArrayDeque<>();
+        private final Map<Integer, Result> completedByIndex = new HashMap<>();
+        private int nextIndex;
+
+        StreamScheduler(Iterator<HttpRequest> source) {
+            super(source);
+        }
+
+        @Override
+        void completed(Result result) {
+            if (ordered) {
+                completedByIndex.put(result.index, result);
+            } else {
+                completed.addLast(result);
+            }
+            notifyAll();
+        }
+
+        boolean awaitNext() {
+            synchronized (this) {
+                fill();
+            }
+            drain();
+            synchronized (this) {
+                while (!hasResult()) {
+                    if (exhausted()) {
+                        return false;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CompletionException(e);
+                    }
+                }
+                return true;
+            }
+        }
+
+        Result take() {
+            Result result;
+            synchronized (this) {
+                result = ordered ? completedByIndex.remove(nextIndex++) : completed.pollFirst();
+                release();
+                fill();
+            }
+            drain();
+            return result;
+        }
+
+        private boolean hasResult() {
+            return ordered ? completedByIndex.containsKey(nextIndex) : !completed.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.grunka.httpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Turns a response body into a value. The handler owns the body stream and is responsible for closing it, which is
+ * what gives the connection back to the client.
+ *
+ * @see BodyHandlers
+ */
+@FunctionalInterface
+public interface BodyHandler<T> {
+    /**
+     * @param body    the response body, for error responses this is the error body
+     * @param charset the charset from the response Content-Type, or the charset of the request if none was given
+     */
+    T handle(InputStream body, Charset charset) throws IOException;
+}
@@ -0,0 +1,250 @@
+package com.grunka.httpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+@SuppressWarnings("WeakerAccess")
+public final class BodyHandlers {
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    // Content-Length is only trusted this far up front, beyond it the buffer grows as the body actually arrives
+    private static final int MAX_PRESIZE = 4 * 1024 * 1024;
+
+    private BodyHandlers() {
+    }
+
+    public static BodyHandler<String> ofString() {
+        return (body, charset) -> {
+            try (body) {
+                return readAll(body, (buffer, length) -> new String(buffer, 0, length, charset));
+            }
+        };
+    }
+
+    public static BodyHandler<byte[]> ofByteArray() {
+        return (body, charset) -> {
+            try (body) {
+                return readAll(body, (buffer, length) -> {
+                    if (length == buffer.length && length > BufferPool.MAX_SIZE) {
+                        // Presized from Content-Length and too large to be pooled, so it can be handed out as is
+                        return buffer;
+                    }
+                    return Arrays.copyOf(buffer, length);
+                });
+            }
+        };
+    }
+
+    /**
+     * Gives the body as soon as the headers have arrived, the caller has to close the stream. The total timeout of the
+     * request has ended by then, reading the stream is only bounded by the read timeout.
+     */
+    public static BodyHandler<InputStream> ofInputStream() {
+        return (body, charset) -> body;
+    }
+
+    /**
+     * Publishes the body in chunks as the subscriber requests them. Reading is done on the thread that requests more
+     * data. The body is closed on completion, error or cancellation.
+     */
+    public static BodyHandler<Flow.Publisher<ByteBuffer>> ofPublisher() {
+        return (body, charset) -> new InputStreamPublisher(body);
+    }
+
+    /**
+     * Writes the body to the file, replacing any existing content, and gives back the path.
+     */
+    public static BodyHandler<Path> ofFile(Path path) {
+        Objects.requireNonNull(path, "Path cannot be null");
+        return (body, charset) -> {
+            try (body; FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ReadableByteChannel source = Channels.newChannel(body);
+                long position = 0;
+                long transferred;
+                while ((transferred = file.transferFrom(source, position, CHUNK_SIZE * 4)) > 0) {
+                    position += transferred;
+                }
+                return path;
+            }
+        };
+    }
+
+    /**
+     * Writes the body to the channel, which is left open, and gives back the number of bytes written.
+     */
+    public static BodyHandler<Long> ofChannel(WritableByteChannel channel) {
+        Objects.requireNonNull(channel, "Channel cannot be null");
+        return (body, charset) -> {
+            try (body) {
+                byte[] chunk = new byte[CHUNK_SIZE];
+                long total = 0;
+                int read;
+                while ((read = body.read(chunk)) != -1) {
+                    ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, read);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    total += read;
+                }
+                return total;
+            }
+        };
+    }
+
+    private interface BufferDecoder<T> {
+        T decode(byte[] buffer, int length);
+    }
+
+    /**
+     * Reads the whole body into a pooled buffer, presized from the Content-Length when known, and decodes it straight
+     * from there. The buffer goes back to the pool afterwards so the decoder must not keep it. A server claiming a huge
+     * Content-Length only gets a buffer of {@link #MAX_PRESIZE} until it sends the bytes to fill it.
+     */
+    private static <T> T readAll(InputStream body, BufferDecoder<T> decoder) throws IOException {
+        long contentLength = body instanceof KnownLength ? ((KnownLength) body).contentLength() : -1;
+        byte[] buffer = BufferPool.acquire(contentLength >= 0 ? (int) Math.min(contentLength, MAX_PRESIZE) : BufferPool.MIN_SIZE);
+        int length = 0;
+        try {
+            while (true) {
+                if (length == buffer.length) {
+                    // Check for the end before growing, a presized buffer is usually exactly full at this point
+                    int next = body.read();
+                    if (next == -1) {
+                        break;
+                    }
+                    if (length == MAX_ARRAY_SIZE) {
+                        throw new IOException("Body is too large to fit in an array");
+                    }
+                    long size = 2L * length;
+                    if (contentLength > length && contentLength < size) {
+                        // Grow to exactly the Content-Length so that a large body fills the buffer it ends up in
+                        size = contentLength;
+                    }
+                    byte[] larger = BufferPool.acquire((int) Math.min(size, MAX_ARRAY_SIZE));
+                    System.arraycopy(buffer, 0, larger, 0, length);
+                    BufferPool.release(buffer);
+                    buffer = larger;
+                    buffer[length++] = (byte) next;
+                }
+                int read = body.read(buffer, length, buffer.length - length);
+                if (read == -1) {
+                    break;
+                }
+                length += read;
+            }
+            return decoder.decode(buffer, length);
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    private static class InputStreamPublisher implements Flow.Publisher<ByteBuffer> {
+        private final InputStream body;
+        private final AtomicBoolean subscribed = new AtomicBoolean();
+
+        private InputStreamPublisher(InputStream body) {
+            this.body = body;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            Objects.requireNonNull(subscriber, "Subscriber cannot be null");
+            if (!subscribed.compareAndSet(false, true)) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("The body can only be subscribed to once"));
+                return;
+            }
+            subscriber.onSubscribe(new InputStreamSubscription(body, subscriber));
+        }
+    }
+
+    private static class InputStreamSubscription implements Flow.Subscription {
+        private final InputStream body;
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger work = new AtomicInteger();
+        private volatile boolean cancelled;
+        private boolean done;
+
+        private InputStreamSubscription(InputStream body, Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.body = body;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Requested " + n + " items, must be positive"));
+                return;
+            }
+            demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            closeQuietly();
+        }
+
+        private void drain() {
+            // Only one thread reads at a time, requests made from onNext are picked up by the loop instead of recursing
+            if (work.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                while (!done && !cancelled && demand.get() > 0) {
+                    byte[] chunk = new byte[CHUNK_SIZE];
+                    int read;
+                    try {
+                        read = body.read(chunk);
+                    } catch (IOException e) {
+                        done = true;
+                        closeQuietly();
+                        if (!cancelled) {
+                            subscriber.onError(e);
+                        }
+                        return;
+                    }
+                    if (read == -1) {
+                        done = true;
+                        closeQuietly();
+                        subscriber.onComplete();
+                    } else if (read > 0) {
+                        demand.decrementAndGet();
+                        subscriber.onNext(ByteBuffer.wrap(chunk, 0, read));
+                    }
+                }
+            } while (work.decrementAndGet() != 0);
+        }
+
+        private void closeQuietly() {
+            try {
+                body.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
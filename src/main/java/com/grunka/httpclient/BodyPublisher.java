@@ -0,0 +1,30 @@
+package com.grunka.httpclient;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Supplies the body of a request.
+ *
+ * @see BodyPublishers
+ */
+public interface BodyPublisher {
+    /**
+     * @return the length of the body in bytes, or -1 if it is not known up front in which case the body is sent with
+     * chunked transfer encoding
+     */
+    long contentLength();
+
+    /**
+     * Opens the body for sending. This is called again when a request has to be resent, for instance on a redirect
+     * that keeps the method. The transport closes the channel when it is done with it.
+     */
+    ReadableByteChannel open() throws IOException;
+
+    /**
+     * @return the Content-Encoding of the body, or null if the body is not encoded
+     */
+    default String contentEncoding() {
+        return null;
+    }
+}
@@ -0,0 +1,177 @@
+package com.grunka.httpclient;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+@SuppressWarnings("WeakerAccess")
+public final class BodyPublishers {
+    private BodyPublishers() {
+    }
+
+    public static BodyPublisher ofString(String content, Charset charset) {
+        Objects.requireNonNull(content, "Content cannot be null");
+        Objects.requireNonNull(charset, "Charset cannot be null");
+        return new ByteBufferPublisher(ByteBuffer.wrap(content.getBytes(charset)));
+    }
+
+    /**
+     * The array is not copied and must not be modified until the request is done.
+     */
+    public static BodyPublisher ofByteArray(byte[] content) {
+        Objects.requireNonNull(content, "Content cannot be null");
+        return new ByteBufferPublisher(ByteBuffer.wrap(content));
+    }
+
+    /**
+     * Sends the remaining bytes of the buffer without changing its position. The buffer is not copied and must not be
+     * modified until the request is done.
+     */
+    public static BodyPublisher ofByteBuffer(ByteBuffer content) {
+        Objects.requireNonNull(content, "Content cannot be null");
+        return new ByteBufferPublisher(content.slice());
+    }
+
+    /**
+     * Streams the body with chunked transfer encoding. The supplier is called for every time the body is sent and the
+     * stream is closed when it has been sent.
+     */
+    public static BodyPublisher ofInputStream(Supplier<? extends InputStream> content) {
+        Objects.requireNonNull(content, "Content supplier cannot be null");
+        return new BodyPublisher() {
+            @Override
+            public long contentLength() {
+                return -1;
+            }
+
+            @Override
+            public ReadableByteChannel open() throws IOException {
+                InputStream inputStream = content.get();
+                if (inputStream == null) {
+                    throw new IOException("Content supplier gave no stream");
+                }
+                return Channels.newChannel(inputStream);
+            }
+        };
+    }
+
+    /**
+     * Sends the file, the length is taken when the publisher is created and the file must not change size after that.
+     * Where the transport allows it the file is transferred to the socket without copying it through the heap.
+     */
+    public static BodyPublisher ofFile(Path path) throws FileNotFoundException {
+        Objects.requireNonNull(path, "Path cannot be null");
+        try {
+            if (!Files.isRegularFile(path)) {
+                throw new FileNotFoundException(path + " is not a file");
+            }
+            return new FilePublisher(path, Files.size(path));
+        } catch (IOException e) {
+            if (e instanceof FileNotFoundException) {
+                throw (FileNotFoundException) e;
+            }
+            FileNotFoundException notFound = new FileNotFoundException("Could not read size of " + path);
+            notFound.initCause(e);
+            throw notFound;
+        }
+    }
+
+    static final class ByteBufferPublisher implements BodyPublisher {
+        private final ByteBuffer content;
+        private final String contentEncoding;
+
+        private ByteBufferPublisher(ByteBuffer content) {
+            this(content, null);
+        }
+
+        private ByteBufferPublisher(ByteBuffer content, String contentEncoding) {
+            this.content = content;
+            this.contentEncoding = contentEncoding;
+        }
+
+        ByteBufferPublisher gzip() {
+            return new ByteBufferPublisher(ContentEncoding.gzip(content), "gzip");
+        }
+
+        @Override
+        public String contentEncoding() {
+            return contentEncoding;
+        }
+
+        ByteBuffer content() {
+            return content.duplicate();
+        }
+
+        @Override
+        public long contentLength() {
+            return content.remaining();
+        }
+
+        @Override
+        public ReadableByteChannel open() {
+            return new ReadableByteChannel() {
+                private final ByteBuffer remaining = content();
+                private boolean open = true;
+
+                @Override
+                public int read(ByteBuffer destination) {
+                    if (!remaining.hasRemaining()) {
+                        return -1;
+                    }
+                    int length = Math.min(remaining.remaining(), destination.remaining());
+                    ByteBuffer slice = remaining.slice();
+                    slice.limit(length);
+                    destination.put(slice);
+                    remaining.position(remaining.position() + length);
+                    return length;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return open;
+                }
+
+                @Override
+                public void close() {
+                    open = false;
+                }
+            };
+        }
+    }
+
+    static final class FilePublisher implements BodyPublisher {
+        private final Path path;
+        private final long length;
+
+        private FilePublisher(Path path, long length) {
+            this.path = path;
+            this.length = length;
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public FileChannel open() throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            long size = channel.size();
+            if (size != length) {
+                channel.close();
+                throw new IOException("Size of " + path + " changed from " + length + " to " + size + " bytes");
+            }
+            return channel;
+        }
+    }
+}
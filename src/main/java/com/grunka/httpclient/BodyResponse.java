@@ -0,0 +1,33 @@
+package com.grunka.httpclient;
+
+public class BodyResponse<T> {
+    private final int code;
+    private final T body;
+    private final HttpHeaders headers;
+
+    public BodyResponse(int code, T body) {
+        this(code, body, HttpHeaders.EMPTY);
+    }
+
+    BodyResponse(int code, T body, HttpHeaders headers) {
+        this.code = code;
+        this.body = body;
+        this.headers = headers;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public T getBody() {
+        return body;
+    }
+
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    public boolean isOk() {
+        return code == 200;
+    }
+}
@@ -0,0 +1,64 @@
+package com.grunka.httpclient;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Shared pool of byte arrays for reading response bodies. Arrays come in power of two sizes from {@link #MIN_SIZE} to
+ * {@link #MAX_SIZE}, anything larger is allocated and left to the garbage collector. Taking and giving back arrays does
+ * not allocate and does not block, when a size class is empty or full the pool simply allocates or drops the array.
+ */
+final class BufferPool {
+    static final int MIN_SIZE = 4 * 1024;
+    static final int MAX_SIZE = 256 * 1024;
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+    private static final int SLOTS_PER_CLASS = 16;
+
+    private static final AtomicReferenceArray<byte[]> SLOTS = new AtomicReferenceArray<>(SIZE_CLASSES * SLOTS_PER_CLASS);
+
+    private BufferPool() {
+    }
+
+    /**
+     * @return an array of at least the given size
+     */
+    static byte[] acquire(int size) {
+        if (size > MAX_SIZE) {
+            return new byte[size];
+        }
+        int sizeClass = sizeClass(size);
+        int first = sizeClass * SLOTS_PER_CLASS;
+        for (int i = first; i < first + SLOTS_PER_CLASS; i++) {
+            if (SLOTS.get(i) != null) {
+                byte[] buffer = SLOTS.getAndSet(i, null);
+                if (buffer != null) {
+                    return buffer;
+                }
+            }
+        }
+        return new byte[MIN_SIZE << sizeClass];
+    }
+
+    /**
+     * Gives back an array from {@link #acquire(int)}, the caller must not touch it afterwards.
+     */
+    static void release(byte[] buffer) {
+        int length = buffer.length;
+        if (length < MIN_SIZE || length > MAX_SIZE || Integer.bitCount(length) != 1) {
+            return;
+        }
+        int first = sizeClass(length) * SLOTS_PER_CLASS;
+        for (int i = first; i < first + SLOTS_PER_CLASS; i++) {
+            if (SLOTS.get(i) == null && SLOTS.compareAndSet(i, null, buffer)) {
+                return;
+            }
+        }
+    }
+
+    private static int sizeClass(int size) {
+        if (size <= MIN_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+}
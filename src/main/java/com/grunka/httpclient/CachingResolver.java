@@ -0,0 +1,75 @@
+package com.grunka.httpclient;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps resolved addresses for a fixed time. Failed lookups are not kept, the next request looks the host up again.
+ * Expired addresses are dropped when found, and when the cache is full the expired ones are swept out before adding
+ * more. Hosts that do not fit in a cache full of live entries are looked up every time.
+ */
+class CachingResolver implements Resolver {
+    static final int MAX_ENTRIES = 1024;
+
+    private final Resolver resolver;
+    private final long ttl;
+    private final LongSupplier clock;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param ttl   how long to keep addresses, in milliseconds
+     * @param clock time in nanoseconds
+     */
+    CachingResolver(Resolver resolver, long ttl, LongSupplier clock) {
+        this.resolver = resolver;
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.clock = clock;
+    }
+
+    @Override
+    public List<InetAddress> resolve(String host) throws UnknownHostException {
+        String key = host.toLowerCase();
+        Entry entry = entries.get(key);
+        long now = clock.getAsLong();
+        if (entry != null) {
+            if (!entry.expiredAt(now)) {
+                return entry.addresses;
+            }
+            entries.remove(key, entry);
+        }
+        List<InetAddress> addresses = List.copyOf(resolver.resolve(host));
+        if (addresses.isEmpty()) {
+            throw new UnknownHostException(host);
+        }
+        if (entries.size() >= MAX_ENTRIES) {
+            entries.values().removeIf(e -> e.expiredAt(now));
+        }
+        if (entries.size() < MAX_ENTRIES) {
+            entries.put(key, new Entry(addresses, now + ttl));
+        }
+        return addresses;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        private final List<InetAddress> addresses;
+        private final long expires;
+
+        private Entry(List<InetAddress> addresses, long expires) {
+            this.addresses = addresses;
+            this.expires = expires;
+        }
+
+        private boolean expiredAt(long now) {
+            return now - expires >= 0;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.grunka.httpclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * One request sent by the client, including all its attempts. Transports register how to abort what they have in
+ * flight for the request, which is used when the caller cancels or the request runs out of time.
+ */
+class Call {
+    final EventListener listener;
+    // Shared with the forks of the call, so that their attempts report events one at a time
+    private final Object events;
+    private List<Consumer<Throwable>> aborts = new ArrayList<>();
+    private Throwable cause;
+    private boolean finished;
+
+    /**
+     * @param listener the listener for the request, or null to skip the events
+     */
+    Call(EventListener listener) {
+        this(listener, new Object());
+    }
+
+    private Call(EventListener listener, Object events) {
+        this.listener = listener;
+        this.events = events;
+    }
+
+    /**
+     * @return a call for one of several attempts in flight at the same time, which can be aborted on its own and is
+     * aborted along with this call
+     */
+    Call fork() {
+        return fork(listener);
+    }
+
+    /**
+     * @return a call like {@link #fork()} for a hedge, which reports its events to the listener for the hedge
+     */
+    Call forkHedge() {
+        EventListener hedge = null;
+        if (listener != null) {
+            synchronized (events) {
+                hedge = listener.hedge();
+            }
+        }
+        return fork(hedge);
+    }
+
+    private Call fork(EventListener listener) {
+        Call attempt = new Call(listener, events);
+        onAbort(attempt::abort);
+        return attempt;
+    }
+
+    void connectionAcquired(boolean reused) {
+        if (listener != null) {
+            synchronized (events) {
+                listener.connectionAcquired(reused, System.nanoTime());
+            }
+        }
+    }
+
+    void connected() {
+        if (listener != null) {
+            synchronized (events) {
+                listener.connected(System.nanoTime());
+            }
+        }
+    }
+
+    void requestSent() {
+        if (listener != null) {
+            synchronized (events) {
+                listener.requestSent(System.nanoTime());
+            }
+        }
+    }
+
+    void firstByte() {
+        if (listener != null) {
+            synchronized (events) {
+                listener.firstByte(System.nanoTime());
+            }
+        }
+    }
+
+    void bodyComplete(int code) {
+        if (listener != null && finish()) {
+            synchronized (events) {
+                listener.bodyComplete(code, System.nanoTime());
+            }
+        }
+    }
+
+    void failed(Throwable failure) {
+        if (listener != null && finish()) {
+            synchronized (events) {
+                listener.failed(failure, System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * @return true the first time, a request ends only once even though both the body and the response can fail
+     */
+    private synchronized boolean finish() {
+        if (finished) {
+            return false;
+        }
+        finished = true;
+        return true;
+    }
+
+    /**
+     * Runs the action when the call is aborted, right away if it already has been.
+     */
+    void onAbort(Consumer<Throwable> abort) {
+        Throwable cause;
+        synchronized (this) {
+            cause = this.cause;
+            if (cause == null) {
+                aborts.add(abort);
+                return;
+            }
+        }
+        abort.accept(cause);
+    }
+
+    void abort(Throwable cause) {
+        List<Consumer<Throwable>> aborts;
+        synchronized (this) {
+            if (this.cause != null) {
+                return;
+            }
+            this.cause = cause;
+            aborts = this.aborts;
+            this.aborts = null;
+        }
+        for (Consumer<Throwable> abort : aborts) {
+            abort.accept(cause);
+        }
+    }
+
+    /**
+     * @return why the call was aborted, or null if it has not been
+     */
+    synchronized Throwable abortCause() {
+        return cause;
+    }
+}
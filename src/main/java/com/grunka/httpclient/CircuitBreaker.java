@@ -0,0 +1,381 @@
+package com.grunka.httpclient;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Stops sending requests to a host that keeps failing or answering slowly, so that callers fail at once with a
+ * {@link CircuitBreakerOpenException} instead of waiting for timeouts. Every host and port has a circuit of its own.
+ * <p>
+ * A closed circuit keeps the outcome of the latest calls in a sliding window and opens when the share of failed or
+ * slow calls reaches its threshold. A failure is an exception or one of the failure status codes, by default 500 and
+ * up, and a call is slow when its response headers take longer than the slow call duration. After the open duration
+ * the circuit is half open and lets a few probe calls through, it closes if they do well and opens again otherwise.
+ * <p>
+ * Every attempt made by retries and hedging counts as a call of its own, responses served from the cache do not count.
+ */
+public final class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Called while the circuit of the host is locked, so that changes arrive in order, which means it must be
+         * quick.
+         *
+         * @param host the host and port of the circuit
+         */
+        void stateChanged(String host, State from, State to);
+    }
+
+    private static final byte SUCCESS = 0;
+    private static final byte FAILURE = 1;
+    private static final byte SLOW = 2;
+    private static final byte IGNORED = 3;
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long slowCallDuration;
+    private final double slowCallRateThreshold;
+    private final long openDuration;
+    private final int halfOpenCalls;
+    private final Set<Integer> failureCodes;
+    private final Listener listener;
+    private final LongSupplier nanoClock;
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+
+    private CircuitBreaker(Builder builder) {
+        windowSize = builder.windowSize;
+        minimumCalls = Math.min(builder.minimumCalls, builder.windowSize);
+        failureRateThreshold = builder.failureRateThreshold;
+        slowCallDuration = TimeUnit.MILLISECONDS.toNanos(builder.slowCallDuration);
+        slowCallRateThreshold = builder.slowCallRateThreshold;
+        openDuration = TimeUnit.MILLISECONDS.toNanos(builder.openDuration);
+        halfOpenCalls = builder.halfOpenCalls;
+        failureCodes = builder.failureCodes;
+        listener = builder.listener;
+        nanoClock = builder.nanoClock;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    CompletableFuture<Exchange> execute(HttpRequest request, Supplier<CompletableFuture<Exchange>> attempt) {
+        String host = host(request);
+        Circuit circuit = circuits.computeIfAbsent(host, Circuit::new);
+        long generation = circuit.acquire();
+        if (generation < 0) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(new CircuitBreakerOpenException("Circuit breaker is open for " + host));
+        }
+        long started = nanoClock.getAsLong();
+        CompletableFuture<Exchange> response;
+        try {
+            response = attempt.get();
+        } catch (RuntimeException e) {
+            circuit.record(generation, FAILURE);
+            throw e;
+        }
+        return response.whenComplete((exchange, throwable) -> circuit.record(generation, outcome(exchange, throwable, nanoClock.getAsLong() - started)));
+    }
+
+    private byte outcome(Exchange exchange, Throwable throwable, long elapsed) {
+        if (throwable != null) {
+            Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+            // Given up on by the caller, which says nothing about the host
+            return cause instanceof CancellationException ? IGNORED : FAILURE;
+        }
+        if (failureCodes.contains(exchange.code())) {
+            return FAILURE;
+        }
+        return slowCallDuration > 0 && elapsed >= slowCallDuration ? SLOW : SUCCESS;
+    }
+
+    /**
+     * @return the state of the circuit of the host and port, hosts that have not been called are closed
+     */
+    public State getState(String host) {
+        Circuit circuit = circuits.get(host);
+        return circuit == null ? State.CLOSED : circuit.state();
+    }
+
+    /**
+     * @return the states of the circuits of all hosts that have been called
+     */
+    public Map<String, State> getStates() {
+        Map<String, State> states = new TreeMap<>();
+        circuits.forEach((host, circuit) -> states.put(host, circuit.state()));
+        return states;
+    }
+
+    /**
+     * @return the number of calls that failed at once because their circuit was open
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    static String host(HttpRequest request) {
+        if (request.template != null) {
+            return request.template.poolKey;
+        }
+        String url = request.url;
+        int schemeEnd = url.indexOf("://");
+        int start = schemeEnd < 0 ? 0 : schemeEnd + 3;
+        int end = start;
+        while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        int userInfo = url.lastIndexOf('@', end - 1);
+        if (userInfo >= start) {
+            start = userInfo + 1;
+        }
+        String authority = url.substring(start, end).toLowerCase();
+        int portSeparator = authority.lastIndexOf(':');
+        if (portSeparator > authority.lastIndexOf(']')) {
+            return authority;
+        }
+        boolean https = schemeEnd == 5 && url.regionMatches(true, 0, "https", 0, 5);
+        return authority + (https ? ":443" : ":80");
+    }
+
+    private class Circuit {
+        private final String host;
+        private final byte[] window = new byte[windowSize];
+        private State state = State.CLOSED;
+        private long generation;
+        private int next;
+        private int calls;
+        private int failures;
+        private int slowCalls;
+        private long openedAt;
+        private int probesStarted;
+        private int probesDone;
+        private int probeFailures;
+        private int probeSlowCalls;
+
+        private Circuit(String host) {
+            this.host = host;
+        }
+
+        synchronized State state() {
+            return state;
+        }
+
+        /**
+         * @return the generation of the state the call was let through in, or -1 if it may not be made
+         */
+        synchronized long acquire() {
+            if (state == State.OPEN) {
+                if (nanoClock.getAsLong() - openedAt < openDuration) {
+                    return -1;
+                }
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (probesStarted == halfOpenCalls) {
+                    return -1;
+                }
+                probesStarted++;
+            }
+            return generation;
+        }
+
+        synchronized void record(long generation, byte outcome) {
+            if (generation != this.generation) {
+                // Started before the state changed, it was counted against the earlier state already or never will be
+                return;
+            }
+            if (state == State.HALF_OPEN) {
+                if (outcome == IGNORED) {
+                    probesStarted--;
+                    return;
+                }
+                probesDone++;
+                probeFailures += outcome == FAILURE ? 1 : 0;
+                probeSlowCalls += outcome == SLOW ? 1 : 0;
+                if (probesDone == halfOpenCalls) {
+                    transition(exceeded(probeFailures, probeSlowCalls, probesDone) ? State.OPEN : State.CLOSED);
+                }
+                return;
+            }
+            if (state != State.CLOSED || outcome == IGNORED) {
+                return;
+            }
+            if (calls == windowSize) {
+                byte evicted = window[next];
+                failures -= evicted == FAILURE ? 1 : 0;
+                slowCalls -= evicted == SLOW ? 1 : 0;
+            } else {
+                calls++;
+            }
+            window[next] = outcome;
+            next = (next + 1) % windowSize;
+            failures += outcome == FAILURE ? 1 : 0;
+            slowCalls += outcome == SLOW ? 1 : 0;
+            if (calls >= minimumCalls && exceeded(failures, slowCalls, calls)) {
+                transition(State.OPEN);
+            }
+        }
+
+        private boolean exceeded(int failures, int slowCalls, int calls) {
+            return failures * 100.0 / calls >= failureRateThreshold || slowCalls * 100.0 / calls >= slowCallRateThreshold;
+        }
+
+        private void transition(State to) {
+            State from = state;
+            state = to;
+            generation++;
+            if (to == State.OPEN) {
+                openedAt = nanoClock.getAsLong();
+            } else if (to == State.HALF_OPEN) {
+                probesStarted = 0;
+                probesDone = 0;
+                probeFailures = 0;
+                probeSlowCalls = 0;
+            } else {
+                next = 0;
+                calls = 0;
+                failures = 0;
+                slowCalls = 0;
+            }
+            if (listener != null) {
+                listener.stateChanged(host, from, to);
+            }
+        }
+    }
+
+    public static class Builder {
+        private int windowSize = 100;
+        private int minimumCalls = 20;
+        private double failureRateThreshold = 50;
+        private long slowCallDuration;
+        private double slowCallRateThreshold = 100;
+        private long openDuration = 30_000;
+        private int halfOpenCalls = 5;
+        private Set<Integer> failureCodes = defaultFailureCodes();
+        private Listener listener;
+        private LongSupplier nanoClock = System::nanoTime;
+
+        private Builder() {
+        }
+
+        private static Set<Integer> defaultFailureCodes() {
+            Integer[] codes = new Integer[100];
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = 500 + i;
+            }
+            return Set.of(codes);
+        }
+
+        /**
+         * The number of latest calls to a host that the failure and slow call rates are calculated from, 100 by
+         * default.
+         */
+        public Builder windowSize(int windowSize) {
+            if (windowSize < 1) {
+                throw new IllegalArgumentException("Window size has to be at least 1");
+            }
+            this.windowSize = windowSize;
+            return this;
+        }
+
+        /**
+         * The number of calls that have to be in the window before the circuit can open, 20 by default.
+         */
+        public Builder minimumCalls(int minimumCalls) {
+            if (minimumCalls < 1) {
+                throw new IllegalArgumentException("Minimum calls has to be at least 1");
+            }
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        /**
+         * Opens the circuit when at least this percentage of the calls fail, 50 by default.
+         */
+        public Builder failureRateThreshold(double percentage) {
+            if (percentage <= 0 || percentage > 100) {
+                throw new IllegalArgumentException("Failure rate threshold has to be above 0 and at most 100");
+            }
+            this.failureRateThreshold = percentage;
+            return this;
+        }
+
+        /**
+         * Opens the circuit when at least the percentage of the calls take at least the duration in milliseconds to
+         * get response headers. Slow calls do not open the circuit by default.
+         */
+        public Builder slowCalls(long duration, double percentage) {
+            if (duration <= 0) {
+                throw new IllegalArgumentException("Slow call duration has to be positive");
+            }
+            if (percentage <= 0 || percentage > 100) {
+                throw new IllegalArgumentException("Slow call rate threshold has to be above 0 and at most 100");
+            }
+            this.slowCallDuration = duration;
+            this.slowCallRateThreshold = percentage;
+            return this;
+        }
+
+        /**
+         * How long in milliseconds an open circuit fails calls before it lets probes through, 30 seconds by default.
+         */
+        public Builder openDuration(long openDuration) {
+            if (openDuration < 0) {
+                throw new IllegalArgumentException("Open duration cannot be negative");
+            }
+            this.openDuration = openDuration;
+            return this;
+        }
+
+        /**
+         * The number of probe calls a half open circuit lets through, 5 by default. The circuit closes or opens
+         * again once all of them are done, depending on how many of them failed or were slow.
+         */
+        public Builder halfOpenCalls(int halfOpenCalls) {
+            if (halfOpenCalls < 1) {
+                throw new IllegalArgumentException("Half open calls has to be at least 1");
+            }
+            this.halfOpenCalls = halfOpenCalls;
+            return this;
+        }
+
+        /**
+         * The response codes that count as failures, 500 and up by default.
+         */
+        public Builder failureCodes(Set<Integer> failureCodes) {
+            this.failureCodes = Set.copyOf(Objects.requireNonNull(failureCodes, "Failure codes cannot be null"));
+            return this;
+        }
+
+        public Builder listener(Listener listener) {
+            this.listener = Objects.requireNonNull(listener, "Listener cannot be null");
+            return this;
+        }
+
+        Builder nanoClock(LongSupplier nanoClock) {
+            this.nanoClock = nanoClock;
+            return this;
+        }
+
+        public CircuitBreaker build() {
+            return new CircuitBreaker(this);
+        }
+    }
+}
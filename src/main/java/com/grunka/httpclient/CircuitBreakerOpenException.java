@@ -0,0 +1,16 @@
+package com.grunka.httpclient;
+
+import java.io.IOException;
+
+/**
+ * A request failed without being sent because the circuit of its host is open.
+ *
+ * @see CircuitBreaker
+ */
+public class CircuitBreakerOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public CircuitBreakerOpenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,82 @@
+package com.grunka.httpclient;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class ClientMetrics {
+    private final LongAdder started = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+
+    ClientMetrics() {
+    }
+
+    void started() {
+        started.increment();
+    }
+
+    void completed(Object response, Throwable throwable) {
+        if (throwable == null) {
+            succeeded.increment();
+        } else {
+            failed.increment();
+        }
+    }
+
+    void coalesced() {
+        coalesced.increment();
+    }
+
+    void retried() {
+        retries.increment();
+    }
+
+    void hedged() {
+        hedges.increment();
+    }
+
+    void hedgeWon() {
+        hedgesWon.increment();
+    }
+
+    public long getStarted() {
+        return started.sum();
+    }
+
+    public long getSucceeded() {
+        return succeeded.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return requests that were answered by sharing an identical request already in flight
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /**
+     * @return hedges that were answered before the request they were hedging
+     */
+    public long getHedgesWon() {
+        return hedgesWon.sum();
+    }
+
+    public long getInFlight() {
+        return Math.max(0, started.sum() - succeeded.sum() - failed.sum());
+    }
+}
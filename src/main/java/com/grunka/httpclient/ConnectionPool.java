@@ -0,0 +1,177 @@
+package com.grunka.httpclient;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per host connection limits and keep-alive connections owned by a client.
+ * <p>
+ * The NIO transport keeps idle connections here for reuse. HttpURLConnection manages its own sockets, so with that
+ * transport the pool only limits and counts the connections in use.
+ */
+public class ConnectionPool {
+    private final int maxConnectionsPerHost;
+    private final long maxIdleTime;
+    private final boolean validateOnBorrow;
+    private final Map<String, HostPool> hosts = new ConcurrentHashMap<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger idle = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ScheduledFuture<?> eviction;
+
+    ConnectionPool(int maxConnectionsPerHost, long maxIdleTime, boolean validateOnBorrow, ScheduledExecutorService scheduler) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.maxIdleTime = TimeUnit.MILLISECONDS.toNanos(maxIdleTime);
+        this.validateOnBorrow = validateOnBorrow;
+        long evictionInterval = Math.max(10, Math.min(maxIdleTime, 1000));
+        eviction = scheduler.scheduleWithFixedDelay(this::evictExpired, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Completes with an idle connection to reuse, or with null when the caller may open a new connection. Either way
+     * the caller holds one of the host's connection slots until {@link #release(String, PooledConnection)}.
+     */
+    CompletableFuture<PooledConnection> acquire(String host) {
+        long now = System.nanoTime();
+        List<PooledConnection> discarded = new ArrayList<>();
+        CompletableFuture<PooledConnection> result;
+        while (true) {
+            HostPool hostPool = hosts.computeIfAbsent(host, h -> new HostPool());
+            synchronized (hostPool) {
+                if (hostPool.removed) {
+                    // Removed as unused between looking it up and locking it
+                    continue;
+                }
+                result = acquire(hostPool, now, discarded);
+                break;
+            }
+        }
+        discarded.forEach(PooledConnection::close);
+        return result;
+    }
+
+    private CompletableFuture<PooledConnection> acquire(HostPool hostPool, long now, List<PooledConnection> discarded) {
+        PooledConnection connection = null;
+        while (connection == null && !hostPool.idle.isEmpty()) {
+            PooledConnection candidate = hostPool.idle.pollFirst();
+            idle.decrementAndGet();
+            if (candidate.idleLongerThan(maxIdleTime, now) || (validateOnBorrow && !candidate.isUsable())) {
+                discarded.add(candidate);
+            } else {
+                connection = candidate;
+            }
+        }
+        if (connection != null || hostPool.active < maxConnectionsPerHost) {
+            hostPool.active++;
+            active.incrementAndGet();
+            return CompletableFuture.completedFuture(connection);
+        }
+        CompletableFuture<PooledConnection> waiter = new CompletableFuture<>();
+        hostPool.waiters.addLast(waiter);
+        pending.incrementAndGet();
+        return waiter;
+    }
+
+    /**
+     * Gives back a connection slot, with the connection if it can be kept alive or null if it was closed.
+     */
+    void release(String host, PooledConnection connection) {
+        HostPool hostPool = hosts.get(host);
+        CompletableFuture<PooledConnection> waiter = null;
+        synchronized (hostPool) {
+            if (!hostPool.waiters.isEmpty()) {
+                waiter = hostPool.waiters.pollFirst();
+                pending.decrementAndGet();
+            } else {
+                hostPool.active--;
+                active.decrementAndGet();
+                if (connection != null) {
+                    connection.idle(System.nanoTime());
+                    hostPool.idle.addFirst(connection);
+                    idle.incrementAndGet();
+                }
+                removeIfUnused(host, hostPool);
+            }
+        }
+        if (waiter != null) {
+            waiter.complete(connection);
+        }
+    }
+
+    void evictExpired() {
+        long now = System.nanoTime();
+        List<PooledConnection> expired = new ArrayList<>();
+        hosts.forEach((host, hostPool) -> {
+            synchronized (hostPool) {
+                Iterator<PooledConnection> iterator = hostPool.idle.descendingIterator();
+                while (iterator.hasNext()) {
+                    PooledConnection connection = iterator.next();
+                    if (connection.idleLongerThan(maxIdleTime, now) || !connection.channel.isOpen()) {
+                        iterator.remove();
+                        idle.decrementAndGet();
+                        expired.add(connection);
+                    }
+                }
+                removeIfUnused(host, hostPool);
+            }
+        });
+        expired.forEach(PooledConnection::close);
+    }
+
+    /**
+     * Lets go of hosts without connections or anyone waiting for one, so that calling many hosts over time does not
+     * keep an entry for each of them. Called holding the lock on the host pool.
+     */
+    private void removeIfUnused(String host, HostPool hostPool) {
+        if (hostPool.active == 0 && hostPool.idle.isEmpty() && hostPool.waiters.isEmpty()) {
+            hostPool.removed = true;
+            hosts.remove(host, hostPool);
+        }
+    }
+
+    int getHosts() {
+        return hosts.size();
+    }
+
+    void close() {
+        eviction.cancel(false);
+        List<PooledConnection> closing = new ArrayList<>();
+        for (HostPool hostPool : hosts.values()) {
+            synchronized (hostPool) {
+                idle.addAndGet(-hostPool.idle.size());
+                closing.addAll(hostPool.idle);
+                hostPool.idle.clear();
+            }
+        }
+        closing.forEach(PooledConnection::close);
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public int getIdle() {
+        return idle.get();
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    private static class HostPool {
+        private final Deque<PooledConnection> idle = new ArrayDeque<>();
+        private final Deque<CompletableFuture<PooledConnection>> waiters = new ArrayDeque<>();
+        private int active;
+        private boolean removed;
+    }
+}
@@ -0,0 +1,143 @@
+package com.grunka.httpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Gzip and deflate content codings for response and request bodies.
+ */
+final class ContentEncoding {
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * Wraps the body in decoders for the codings in the Content-Encoding header, unknown codings are left as they are.
+     * The decoders are created on the first read so this never blocks waiting for the body.
+     */
+    static InputStream decode(String contentEncoding, InputStream body) {
+        if (contentEncoding == null) {
+            return body;
+        }
+        String[] codings = contentEncoding.split(",");
+        InputStream decoded = body;
+        // Codings are listed in the order they were applied, so they are undone from the last one
+        for (int i = codings.length - 1; i >= 0; i--) {
+            String coding = codings[i].trim().toLowerCase();
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                decoded = new DecodingInputStream(decoded, false);
+            } else if (coding.equals("deflate")) {
+                decoded = new DecodingInputStream(decoded, true);
+            } else if (!coding.equals("identity") && !coding.isEmpty()) {
+                return decoded;
+            }
+        }
+        return decoded;
+    }
+
+    static ByteBuffer gzip(ByteBuffer content) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, content.remaining() / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, BUFFER_SIZE)) {
+            if (content.hasArray()) {
+                gzip.write(content.array(), content.arrayOffset() + content.position(), content.remaining());
+            } else {
+                byte[] chunk = new byte[BUFFER_SIZE];
+                ByteBuffer remaining = content.duplicate();
+                while (remaining.hasRemaining()) {
+                    int length = Math.min(chunk.length, remaining.remaining());
+                    remaining.get(chunk, 0, length);
+                    gzip.write(chunk, 0, length);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not compress in memory", e);
+        }
+        return ByteBuffer.wrap(compressed.toByteArray());
+    }
+
+    private static class DecodingInputStream extends InputStream {
+        private final PushbackInputStream source;
+        private final boolean deflate;
+        private InputStream decoder;
+        private Inflater inflater;
+        private boolean closed;
+
+        private DecodingInputStream(InputStream source, boolean deflate) {
+            this.source = new PushbackInputStream(source, 2);
+            this.deflate = deflate;
+        }
+
+        private InputStream decoder() throws IOException {
+            if (decoder == null) {
+                int first = source.read();
+                if (first == -1) {
+                    // An empty body, as for HEAD requests and some error responses, has nothing to decode
+                    decoder = InputStream.nullInputStream();
+                } else {
+                    source.unread(first);
+                    if (deflate) {
+                        inflater = new Inflater(!isZlibHeader(first));
+                        decoder = new InflaterInputStream(source, inflater, BUFFER_SIZE);
+                    } else {
+                        decoder = new GZIPInputStream(source, BUFFER_SIZE);
+                    }
+                }
+            }
+            return decoder;
+        }
+
+        private boolean isZlibHeader(int first) throws IOException {
+            // Deflate is meant to be zlib wrapped but some servers send raw deflate data
+            source.read();
+            int second = source.read();
+            if (second != -1) {
+                source.unread(second);
+            }
+            source.unread(first);
+            return (first & 0x0f) == 8 && second != -1 && ((first << 8) | second) % 31 == 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return decoder().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return decoder().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return decoder == null ? 0 : decoder.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (decoder != null) {
+                    decoder.close();
+                }
+                source.close();
+            } finally {
+                if (inflater != null) {
+                    // An inflater handed to InflaterInputStream is not ended by it
+                    inflater.end();
+                }
+            }
+        }
+    }
+}
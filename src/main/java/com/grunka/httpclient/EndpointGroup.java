@@ -0,0 +1,352 @@
+package com.grunka.httpclient;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Replicas of a service that requests are spread over, requests target a group with URLs like
+ * <code>group://name/path?query</code> where the name is the name of the group. Every attempt picks an endpoint and
+ * the path and query are appended to its base URL.
+ * <p>
+ * Endpoints that fail a number of times in a row, with an exception or a status code of 500 or up, are ejected and
+ * get no requests for a while. When they come back a single failure ejects them again. If all endpoints are ejected
+ * they are all used, since failing every request is not better.
+ */
+public final class EndpointGroup {
+    static final String SCHEME = "group://";
+
+    public enum Selection {
+        /**
+         * The endpoint with the fewest requests in flight, taking turns among the ones with equally few.
+         */
+        LEAST_OUTSTANDING,
+        /**
+         * The better of two random endpoints, where lower average latency times requests in flight is better.
+         */
+        POWER_OF_TWO_CHOICES
+    }
+
+    private final String name;
+    private final Endpoint[] endpoints;
+    private final Selection selection;
+    private final int ejectAfterFailures;
+    private final long ejectionTime;
+    private final LongSupplier nanoClock;
+    private final AtomicInteger nextStart = new AtomicInteger();
+
+    private EndpointGroup(Builder builder) {
+        name = builder.name;
+        endpoints = builder.endpoints.stream().map(Endpoint::new).toArray(Endpoint[]::new);
+        selection = builder.selection;
+        ejectAfterFailures = builder.ejectAfterFailures;
+        ejectionTime = TimeUnit.MILLISECONDS.toNanos(builder.ejectionTime);
+        nanoClock = builder.nanoClock;
+    }
+
+    /**
+     * @param name the name requests use as the host of their URLs
+     */
+    public static Builder builder(String name) {
+        return new Builder(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getEndpoints() {
+        List<String> urls = new ArrayList<>(endpoints.length);
+        for (Endpoint endpoint : endpoints) {
+            urls.add(endpoint.url);
+        }
+        return urls;
+    }
+
+    /**
+     * @return the number of requests to the endpoint that have not been read to the end yet
+     */
+    public int getOutstanding(String url) {
+        return endpoint(url).outstanding.get();
+    }
+
+    /**
+     * @return the number of requests that have been sent to the endpoint
+     */
+    public long getRequests(String url) {
+        return endpoint(url).requests.sum();
+    }
+
+    public boolean isEjected(String url) {
+        return endpoint(url).isEjected(nanoClock.getAsLong());
+    }
+
+    private Endpoint endpoint(String url) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.url.equals(url)) {
+                return endpoint;
+            }
+        }
+        throw new IllegalArgumentException("No endpoint " + url + " in group " + name);
+    }
+
+    /**
+     * @return the group name of a URL of the form group://name/path, or null if it does not target a group
+     */
+    static String groupName(String url) {
+        if (!url.regionMatches(true, 0, SCHEME, 0, SCHEME.length())) {
+            return null;
+        }
+        return url.substring(SCHEME.length(), pathStart(url));
+    }
+
+    private static int pathStart(String url) {
+        int end = SCHEME.length();
+        while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        return end;
+    }
+
+    CompletableFuture<Exchange> execute(HttpRequest request, Function<HttpRequest, CompletableFuture<Exchange>> send) {
+        Endpoint endpoint = select();
+        HttpRequest target = request.withUrl(endpoint.url + request.url.substring(pathStart(request.url)));
+        endpoint.outstanding.incrementAndGet();
+        endpoint.requests.increment();
+        long started = nanoClock.getAsLong();
+        CompletableFuture<Exchange> response;
+        try {
+            response = send.apply(target);
+        } catch (RuntimeException e) {
+            endpoint.outstanding.decrementAndGet();
+            endpoint.failed();
+            throw e;
+        }
+        return response.handle((exchange, throwable) -> {
+            if (throwable != null) {
+                endpoint.outstanding.decrementAndGet();
+                Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                if (!(cause instanceof CancellationException)) {
+                    endpoint.failed();
+                }
+                throw throwable instanceof CompletionException ? (CompletionException) throwable : new CompletionException(throwable);
+            }
+            endpoint.responded(exchange.code(), nanoClock.getAsLong() - started);
+            return new Exchange(exchange.code(), exchange.headers(), new OutstandingInputStream(exchange.body(), endpoint));
+        });
+    }
+
+    private Endpoint select() {
+        long now = nanoClock.getAsLong();
+        int ejected = 0;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isEjected(now)) {
+                ejected++;
+            }
+        }
+        Endpoint[] available = endpoints;
+        if (ejected > 0 && ejected < endpoints.length) {
+            available = new Endpoint[endpoints.length - ejected];
+            int count = 0;
+            for (Endpoint endpoint : endpoints) {
+                if (!endpoint.isEjected(now) && count < available.length) {
+                    available[count++] = endpoint;
+                }
+            }
+            if (count == 0) {
+                // All of them were ejected in between
+                available = endpoints;
+            } else if (count < available.length) {
+                available = Arrays.copyOf(available, count);
+            }
+        }
+        if (selection == Selection.POWER_OF_TWO_CHOICES) {
+            return powerOfTwoChoices(available);
+        }
+        return leastOutstanding(available);
+    }
+
+    private Endpoint leastOutstanding(Endpoint[] available) {
+        int start = Math.floorMod(nextStart.getAndIncrement(), available.length);
+        Endpoint best = null;
+        int bestOutstanding = Integer.MAX_VALUE;
+        for (int i = 0; i < available.length; i++) {
+            Endpoint endpoint = available[(start + i) % available.length];
+            int outstanding = endpoint.outstanding.get();
+            if (outstanding < bestOutstanding) {
+                best = endpoint;
+                bestOutstanding = outstanding;
+            }
+        }
+        return best;
+    }
+
+    private Endpoint powerOfTwoChoices(Endpoint[] available) {
+        if (available.length == 1) {
+            return available[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(available.length);
+        int second = random.nextInt(available.length - 1);
+        if (second >= first) {
+            second++;
+        }
+        return available[first].cost() <= available[second].cost() ? available[first] : available[second];
+    }
+
+    private class Endpoint {
+        // Weight of the latest response in the average latency
+        private static final double DECAY = 0.3;
+
+        private final String url;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final LongAdder requests = new LongAdder();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile double averageLatency;
+        private volatile long ejectedUntil;
+        private volatile boolean ejected;
+
+        private Endpoint(String url) {
+            this.url = url;
+        }
+
+        /**
+         * Endpoints without responses yet cost nothing so that they are tried early.
+         */
+        double cost() {
+            return averageLatency * (outstanding.get() + 1);
+        }
+
+        boolean isEjected(long now) {
+            return ejected && now - ejectedUntil < 0;
+        }
+
+        void responded(int code, long latency) {
+            synchronized (this) {
+                averageLatency = averageLatency == 0 ? latency : averageLatency + DECAY * (latency - averageLatency);
+            }
+            if (code >= 500) {
+                failed();
+            } else {
+                consecutiveFailures.set(0);
+            }
+        }
+
+        void failed() {
+            int failures = consecutiveFailures.incrementAndGet();
+            if (failures >= ejectAfterFailures) {
+                synchronized (this) {
+                    ejectedUntil = nanoClock.getAsLong() + ejectionTime;
+                    ejected = true;
+                }
+                // Back on probation when the ejection ends, the next failure ejects it again
+                consecutiveFailures.set(ejectAfterFailures - 1);
+            }
+        }
+    }
+
+    /**
+     * Counts the request as outstanding until its body has been closed.
+     */
+    private static class OutstandingInputStream extends FilterInputStream implements KnownLength {
+        private final Endpoint endpoint;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private OutstandingInputStream(InputStream body, Endpoint endpoint) {
+            super(body);
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public long contentLength() {
+            return in instanceof KnownLength ? ((KnownLength) in).contentLength() : -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed.compareAndSet(false, true)) {
+                endpoint.outstanding.decrementAndGet();
+            }
+            super.close();
+        }
+    }
+
+    public static class Builder {
+        private final String name;
+        private final List<String> endpoints = new ArrayList<>();
+        private Selection selection = Selection.LEAST_OUTSTANDING;
+        private int ejectAfterFailures = 5;
+        private long ejectionTime = 10_000;
+        private LongSupplier nanoClock = System::nanoTime;
+
+        private Builder(String name) {
+            Objects.requireNonNull(name, "Name cannot be null");
+            if (name.isEmpty() || name.chars().anyMatch(c -> "/?#:@".indexOf(c) >= 0)) {
+                throw new IllegalArgumentException("Invalid group name " + name);
+            }
+            this.name = name;
+        }
+
+        /**
+         * @param url the base URL of the endpoint, like http://10.0.0.1:8080 or http://10.0.0.1:8080/prefix
+         */
+        public Builder endpoint(String url) {
+            Objects.requireNonNull(url, "Endpoint URL cannot be null");
+            if (!url.contains("://") || url.indexOf('?') >= 0 || url.indexOf('#') >= 0) {
+                throw new IllegalArgumentException("Endpoint has to be an absolute URL without query, got " + url);
+            }
+            endpoints.add(url.endsWith("/") ? url.substring(0, url.length() - 1) : url);
+            return this;
+        }
+
+        /**
+         * How to pick the endpoint for a request, {@link Selection#LEAST_OUTSTANDING} by default.
+         */
+        public Builder selection(Selection selection) {
+            this.selection = Objects.requireNonNull(selection, "Selection cannot be null");
+            return this;
+        }
+
+        /**
+         * Ejects endpoints that fail this many times in a row for the time in milliseconds, 5 failures and 10 seconds
+         * by default.
+         */
+        public Builder ejection(int consecutiveFailures, long ejectionTime) {
+            if (consecutiveFailures < 1) {
+                throw new IllegalArgumentException("Consecutive failures has to be at least 1");
+            }
+            if (ejectionTime < 0) {
+                throw new IllegalArgumentException("Ejection time cannot be negative");
+            }
+            this.ejectAfterFailures = consecutiveFailures;
+            this.ejectionTime = ejectionTime;
+            return this;
+        }
+
+        Builder nanoClock(LongSupplier nanoClock) {
+            this.nanoClock = nanoClock;
+            return this;
+        }
+
+        public EndpointGroup build() {
+            if (endpoints.isEmpty()) {
+                throw new IllegalStateException("Group " + name + " has no endpoints");
+            }
+            return new EndpointGroup(this);
+        }
+    }
+}
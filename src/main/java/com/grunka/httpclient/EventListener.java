@@ -0,0 +1,73 @@
+package com.grunka.httpclient;
+
+/**
+ * Follows a request through its phases. Every event carries the {@link System#nanoTime()} at which it happened, so the
+ * time spent in a phase is the difference between two events. All methods do nothing by default.
+ * <p>
+ * A listener is created for every request by its {@link Factory}, which lets it keep state for the request in fields.
+ * Events come from the threads of the client and the transport, one at a time for a request, and must not block.
+ * Retried and hedged requests report the phases of every attempt. The two attempts of a hedged request are in flight
+ * at the same time, so the phases of the hedge go to a listener of its own from {@link #hedge()}.
+ * <p>
+ * HttpURLConnection does not tell when it connects, so with that transport there are no connected events, a connection
+ * is always reported as not reused and for GET requests the request is reported as sent when the first byte arrives.
+ */
+public interface EventListener {
+    default void requestStarted(HttpRequest request, long nanoTime) {
+    }
+
+    /**
+     * A connection was taken from the pool or, if none was idle, the pool allowed a new one.
+     *
+     * @param reused whether the connection had been used for an earlier request
+     */
+    default void connectionAcquired(boolean reused, long nanoTime) {
+    }
+
+    /**
+     * A new connection was opened.
+     */
+    default void connected(long nanoTime) {
+    }
+
+    /**
+     * The request, including any body, has been written.
+     */
+    default void requestSent(long nanoTime) {
+    }
+
+    /**
+     * The first byte of the response arrived.
+     */
+    default void firstByte(long nanoTime) {
+    }
+
+    /**
+     * The whole body has been read, only reported if the body is read to the end.
+     */
+    default void bodyComplete(int code, long nanoTime) {
+    }
+
+    /**
+     * The request failed, timed out or was cancelled, either before the response or while reading the body.
+     */
+    default void failed(Throwable failure, long nanoTime) {
+    }
+
+    /**
+     * Called when a hedge is sent for the request. The hedge reports its phases from acquiring a connection to the
+     * first byte to the returned listener, while the attempt it hedges keeps reporting to this one. The events of the
+     * request as a whole, including the end of it, still go to this listener. By default the hedge reports to this
+     * listener too, with the events of both attempts mixed.
+     */
+    default EventListener hedge() {
+        return this;
+    }
+
+    interface Factory {
+        /**
+         * Called for every request before it is started.
+         */
+        EventListener create(HttpRequest request);
+    }
+}
@@ -0,0 +1,34 @@
+package com.grunka.httpclient;
+
+import java.io.InputStream;
+
+/**
+ * A response whose headers have arrived, the body is read from the stream and closing it releases the connection.
+ */
+class Exchange {
+    private final int code;
+    private final HttpHeaders headers;
+    private final InputStream body;
+
+    Exchange(int code, HttpHeaders headers, InputStream body) {
+        this.code = code;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    int code() {
+        return code;
+    }
+
+    String header(String name) {
+        return headers.firstValue(name);
+    }
+
+    HttpHeaders headers() {
+        return headers;
+    }
+
+    InputStream body() {
+        return body;
+    }
+}
@@ -0,0 +1,254 @@
+package com.grunka.httpclient;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Sends a second identical GET when the first one has not been answered within a delay and uses whichever response
+ * arrives first, the other one is aborted as soon as that happens and its connection closed. The delay is either fixed
+ * or follows a percentile of the observed time to response headers, so that only the slowest requests are hedged.
+ * <p>
+ * Hedges are paid for from a budget like the one for retries, every request adds a fraction of a hedge and every hedge
+ * takes a whole one, which caps hedges at that fraction of the traffic. The budget holds at most what a hundred
+ * requests add, but never less than one hedge.
+ */
+public final class HedgingPolicy {
+    private static final int WINDOW = 1000;
+
+    private final long delay;
+    private final double percentile;
+    private final long minDelay;
+    private final int minSamples;
+    private final double budgetRatio;
+    private final double budgetMax;
+    private final Object lock = new Object();
+    private double budget;
+    private Histogram latencies = new Histogram();
+    private Histogram previousLatencies;
+
+    private HedgingPolicy(Builder builder) {
+        delay = builder.delay;
+        percentile = builder.percentile;
+        minDelay = builder.minDelay;
+        minSamples = builder.minSamples;
+        budgetRatio = builder.budgetRatio;
+        budgetMax = Math.max(1, budgetRatio * 100);
+        budget = 1;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    CompletableFuture<Exchange> execute(HttpRequest request, Call call, Function<Call, CompletableFuture<Exchange>> attempt, ScheduledExecutorService scheduler, ClientMetrics metrics) {
+        if (request.type != HttpRequest.HttpRequestType.GET) {
+            return attempt.apply(call);
+        }
+        deposit();
+        Hedge hedge = new Hedge(call, metrics);
+        hedge.primary = attempt.apply(hedge.primaryCall);
+        try {
+            hedge.timer = scheduler.schedule(() -> hedge.send(attempt), currentDelay(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return hedge.primary;
+        }
+        hedge.primary.whenComplete((exchange, throwable) -> hedge.completed(false, exchange, throwable));
+        return hedge.result;
+    }
+
+    /**
+     * @return the delay in milliseconds before a hedge is sent
+     */
+    long currentDelay() {
+        if (percentile == 0) {
+            return delay;
+        }
+        Histogram samples;
+        synchronized (lock) {
+            samples = latencies.getCount() < minSamples && previousLatencies != null ? previousLatencies : latencies;
+        }
+        if (samples.getCount() < minSamples) {
+            return delay;
+        }
+        return Math.max(minDelay, TimeUnit.NANOSECONDS.toMillis(samples.getValueAtPercentile(percentile)));
+    }
+
+    private void record(long nanos) {
+        Histogram current;
+        synchronized (lock) {
+            current = latencies;
+            if (current.getCount() >= WINDOW) {
+                // Keep the distribution recent by starting over, the previous window answers until the new one fills up
+                previousLatencies = current;
+                latencies = current = new Histogram();
+            }
+        }
+        current.record(nanos);
+    }
+
+    private void deposit() {
+        synchronized (lock) {
+            budget = Math.min(budget + budgetRatio, budgetMax);
+        }
+    }
+
+    private boolean withdraw() {
+        synchronized (lock) {
+            if (budget < 1) {
+                return false;
+            }
+            budget -= 1;
+            return true;
+        }
+    }
+
+    private class Hedge {
+        private final CompletableFuture<Exchange> result = new CompletableFuture<>();
+        private final long started = System.nanoTime();
+        private final AtomicBoolean won = new AtomicBoolean();
+        private final ClientMetrics metrics;
+        // Each attempt has a call of its own so that the loser can be aborted without the winner
+        private final Call call;
+        private final Call primaryCall;
+        private volatile Call secondaryCall;
+        private CompletableFuture<Exchange> primary;
+        private CompletableFuture<Exchange> secondary;
+        private volatile ScheduledFuture<?> timer;
+        private Throwable failure;
+
+        private Hedge(Call call, ClientMetrics metrics) {
+            this.call = call;
+            this.metrics = metrics;
+            primaryCall = call.fork();
+        }
+
+        private void send(Function<Call, CompletableFuture<Exchange>> attempt) {
+            synchronized (this) {
+                if (result.isDone() || failure != null || !withdraw()) {
+                    return;
+                }
+                metrics.hedged();
+                secondaryCall = call.forkHedge();
+                try {
+                    secondary = attempt.apply(secondaryCall);
+                } catch (RuntimeException e) {
+                    secondary = CompletableFuture.failedFuture(e);
+                }
+            }
+            secondary.whenComplete((exchange, throwable) -> completed(true, exchange, throwable));
+        }
+
+        private void cancelTimer() {
+            ScheduledFuture<?> timer = this.timer;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+        }
+
+        private void completed(boolean isSecondary, Exchange exchange, Throwable throwable) {
+            if (throwable == null) {
+                if (!won.compareAndSet(false, true)) {
+                    // The loser, its connection is closed rather than read to the end
+                    closeQuietly(exchange);
+                    return;
+                }
+                // Bookkeeping first so it is done by the time anyone sees the response
+                cancelTimer();
+                // The loser gives up its connection now rather than when its response would have arrived
+                Call loser = isSecondary ? primaryCall : secondaryCall;
+                if (loser != null) {
+                    loser.abort(new CancellationException("Lost to a hedged request"));
+                }
+                record(System.nanoTime() - started);
+                if (isSecondary) {
+                    metrics.hedgeWon();
+                }
+                result.complete(exchange);
+                return;
+            }
+            synchronized (this) {
+                boolean otherInFlight = isSecondary || secondary != null;
+                if (failure == null && otherInFlight) {
+                    failure = throwable;
+                    return;
+                }
+            }
+            cancelTimer();
+            result.completeExceptionally(throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable);
+        }
+    }
+
+    private static void closeQuietly(Exchange exchange) {
+        try {
+            exchange.body().close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    public static class Builder {
+        private long delay = 100;
+        private double percentile;
+        private long minDelay;
+        private int minSamples = 100;
+        private double budgetRatio = 0.05;
+
+        private Builder() {
+        }
+
+        /**
+         * Sends the hedge after a fixed delay, 100 ms by default. With a percentile set this is the delay used until
+         * enough responses have been seen.
+         */
+        public Builder delay(long delay) {
+            if (delay < 0) {
+                throw new IllegalArgumentException("Delay cannot be negative");
+            }
+            this.delay = delay;
+            return this;
+        }
+
+        /**
+         * Sends the hedge when a request has taken longer than the given percentile of recent responses, 95 hedges
+         * the slowest twentieth. Recent is about the last thousand responses.
+         *
+         * @param percentile between 0 and 100, where 0 turns it off
+         * @param minDelay   never hedge sooner than this many milliseconds
+         * @param minSamples responses needed before the percentile is used instead of the fixed delay
+         */
+        public Builder percentile(double percentile, long minDelay, int minSamples) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 100");
+            }
+            if (minDelay < 0 || minSamples < 1) {
+                throw new IllegalArgumentException("Min delay cannot be negative and at least one sample is needed");
+            }
+            this.percentile = percentile;
+            this.minDelay = minDelay;
+            this.minSamples = minSamples;
+            return this;
+        }
+
+        /**
+         * @param ratio hedges allowed per request, the default 0.05 allows one hedge for every twenty requests
+         */
+        public Builder maxHedgeRatio(double ratio) {
+            if (ratio < 0) {
+                throw new IllegalArgumentException("Ratio cannot be negative");
+            }
+            this.budgetRatio = ratio;
+            return this;
+        }
+
+        public HedgingPolicy build() {
+            return new HedgingPolicy(this);
+        }
+    }
+}
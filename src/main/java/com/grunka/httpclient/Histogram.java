@@ -0,0 +1,121 @@
+package com.grunka.httpclient;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values with log linear buckets, in the style of HdrHistogram. Every power of two is split
+ * into 64 buckets, so a value read back is within about 1.5% of the recorded value over the whole range of longs.
+ * Recording is lock free and does not allocate, reading while recording gives a view that may be slightly behind.
+ */
+public final class Histogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    public void record(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Cannot record negative value " + value);
+        }
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        if (value < min.get()) {
+            min.accumulateAndGet(value, Math::min);
+        }
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the smallest value recorded, or 0 if nothing has been recorded
+     */
+    public long getMin() {
+        long value = min.get();
+        return value == Long.MAX_VALUE ? 0 : value;
+    }
+
+    /**
+     * @return the largest value recorded, or 0 if nothing has been recorded
+     */
+    public long getMax() {
+        long value = max.get();
+        return value == Long.MIN_VALUE ? 0 : value;
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the largest value in the bucket that holds the percentile, capped by the largest value recorded, or 0 if
+     * nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100, was " + percentile);
+        }
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestEquivalentValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    static int index(long value) {
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude < SUB_BUCKET_BITS) {
+            return (int) value;
+        }
+        int shift = magnitude - SUB_BUCKET_BITS + 1;
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    static long lowestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF_SUB_BUCKETS - 1;
+        return (long) (index - shift * HALF_SUB_BUCKETS) << shift;
+    }
+
+    static long highestEquivalentValue(int index) {
+        return index + 1 < BUCKETS ? lowestEquivalentValue(index + 1) - 1 : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,375 @@
+package com.grunka.httpclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * In memory cache for GET responses, bounded by the total size of the cached bodies and evicting the least recently
+ * used response first. Responses are stored when they can be reused, either because Cache-Control or Expires says
+ * they are fresh for a while or because they have an ETag or Last-Modified to revalidate with. Stale responses are
+ * revalidated with If-None-Match or If-Modified-Since and a 304 gives back the stored body.
+ * <p>
+ * Responses with Vary on anything but Accept and Accept-Encoding are not cached, and neither are requests with headers
+ * of their own, since those are not part of the cache key.
+ */
+public class HttpCache {
+    private static final String[] STORED_HEADERS = {"Content-Type", "Content-Encoding", "Content-Language", "Cache-Control", "Expires", "Date", "Age", "ETag", "Last-Modified", "Vary"};
+    private static final String[] REVALIDATED_HEADERS = {"Cache-Control", "Expires", "Date", "Age", "ETag", "Last-Modified"};
+    // Rough cost of an entry apart from its body, so that many small responses also count against the bound
+    private static final int ENTRY_OVERHEAD = 512;
+
+    private final long maxBytes;
+    private final LongSupplier clock;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    HttpCache(long maxBytes, LongSupplier clock) {
+        this.maxBytes = maxBytes;
+        this.clock = clock;
+    }
+
+    CompletableFuture<Exchange> execute(HttpRequest request, Function<HttpRequest, CompletableFuture<Exchange>> transport) {
+        if (request.type != HttpRequest.HttpRequestType.GET || !request.headers.isEmpty()) {
+            return transport.apply(request);
+        }
+        String key = request.url + " " + request.accept;
+        Entry entry = get(key);
+        long requestTime = clock.getAsLong();
+        if (entry != null && entry.freshUntil > requestTime) {
+            hits.increment();
+            return CompletableFuture.completedFuture(entry.exchange());
+        }
+        misses.increment();
+        if (entry == null || (entry.header("ETag") == null && entry.header("Last-Modified") == null)) {
+            return transport.apply(request).thenApply(exchange -> store(key, exchange, requestTime));
+        }
+        HttpRequest conditional = request;
+        if (entry.header("ETag") != null) {
+            conditional = conditional.header("If-None-Match", entry.header("ETag"));
+        }
+        if (entry.header("Last-Modified") != null) {
+            conditional = conditional.header("If-Modified-Since", entry.header("Last-Modified"));
+        }
+        return transport.apply(conditional).thenApply(exchange -> {
+            if (exchange.code() != 304) {
+                return store(key, exchange, requestTime);
+            }
+            try {
+                exchange.body().close();
+            } catch (IOException ignore) {
+            }
+            revalidations.increment();
+            Entry revalidated = entry.revalidated(exchange, requestTime);
+            put(key, revalidated);
+            return revalidated.exchange();
+        });
+    }
+
+    private Exchange store(String key, Exchange exchange, long requestTime) {
+        if (exchange.code() != 200) {
+            return exchange;
+        }
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String name : STORED_HEADERS) {
+            String value = exchange.header(name);
+            if (value != null) {
+                headers.put(name, value);
+            }
+        }
+        if (!isCacheable(headers)) {
+            remove(key);
+            return exchange;
+        }
+        long freshUntil = freshUntil(headers, requestTime);
+        if (freshUntil <= requestTime && !headers.containsKey("ETag") && !headers.containsKey("Last-Modified")) {
+            remove(key);
+            return exchange;
+        }
+        InputStream body = exchange.body();
+        long contentLength = body instanceof KnownLength ? ((KnownLength) body).contentLength() : -1;
+        if (contentLength > maxBytes) {
+            return exchange;
+        }
+        return new Exchange(exchange.code(), exchange.headers(), new CachingInputStream(body, contentLength, content -> put(key, new Entry(headers, content, freshUntil))));
+    }
+
+    private static boolean isCacheable(Map<String, String> headers) {
+        String cacheControl = headers.get("Cache-Control");
+        if (cacheControl != null && directive(cacheControl, "no-store") != null) {
+            return false;
+        }
+        String vary = headers.get("Vary");
+        if (vary != null) {
+            for (String header : vary.split(",")) {
+                String name = header.trim();
+                if (!name.equalsIgnoreCase("Accept") && !name.equalsIgnoreCase("Accept-Encoding") && !name.isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static long freshUntil(Map<String, String> headers, long responseTime) {
+        String cacheControl = headers.get("Cache-Control");
+        long lifetime = 0;
+        if (cacheControl != null && directive(cacheControl, "no-cache") != null) {
+            return 0;
+        }
+        String maxAge = cacheControl == null ? null : directive(cacheControl, "max-age");
+        if (maxAge != null) {
+            lifetime = seconds(maxAge) * 1000;
+        } else if (headers.containsKey("Expires")) {
+            long expires = parseDate(headers.get("Expires"));
+            long date = headers.containsKey("Date") ? parseDate(headers.get("Date")) : responseTime;
+            if (expires != -1 && date != -1) {
+                lifetime = expires - date;
+            }
+        }
+        long age = headers.containsKey("Age") ? seconds(headers.get("Age")) * 1000 : 0;
+        return lifetime - age > 0 ? responseTime + lifetime - age : 0;
+    }
+
+    /**
+     * @return the value of the directive, empty for directives without a value, or null if the directive is not there
+     */
+    private static String directive(String cacheControl, String name) {
+        for (String directive : cacheControl.split(",")) {
+            String trimmed = directive.trim();
+            int equals = trimmed.indexOf('=');
+            String directiveName = equals == -1 ? trimmed : trimmed.substring(0, equals).trim();
+            if (directiveName.equalsIgnoreCase(name)) {
+                return equals == -1 ? "" : trimmed.substring(equals + 1).trim().replace("\"", "");
+            }
+        }
+        return null;
+    }
+
+    private static long seconds(String value) {
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long parseDate(String value) {
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        if (entry.size() > maxBytes) {
+            remove(key);
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            size -= previous.size();
+        }
+        size += entry.size();
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (size > maxBytes && eldest.hasNext()) {
+            size -= eldest.next().size();
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private synchronized void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            size -= removed.size();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * @return requests answered from the cache without going to the server
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return requests that went to the server, including revalidations
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return requests where the server answered 304 and the cached body was used
+     */
+    public long getRevalidations() {
+        return revalidations.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+    /**
+     * @return the approximate number of bytes used by the cached responses
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    private static class Entry {
+        private final Map<String, String> headers;
+        private final byte[] body;
+        private final long freshUntil;
+
+        private Entry(Map<String, String> headers, byte[] body, long freshUntil) {
+            this.headers = headers;
+            this.body = body;
+            this.freshUntil = freshUntil;
+        }
+
+        String header(String name) {
+            return headers.get(name);
+        }
+
+        long size() {
+            return body.length + ENTRY_OVERHEAD;
+        }
+
+        Exchange exchange() {
+            return new Exchange(200, HttpHeaders.of(headers), new CachedBody(body));
+        }
+
+        Entry revalidated(Exchange notModified, long requestTime) {
+            Map<String, String> updated = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            updated.putAll(headers);
+            for (String name : REVALIDATED_HEADERS) {
+                String value = notModified.header(name);
+                if (value != null) {
+                    updated.put(name, value);
+                }
+            }
+            if (notModified.header("Age") == null) {
+                updated.remove("Age");
+            }
+            return new Entry(updated, body, freshUntil(updated, requestTime));
+        }
+    }
+
+    private static class CachedBody extends ByteArrayInputStream implements KnownLength {
+        private CachedBody(byte[] body) {
+            super(body);
+        }
+
+        @Override
+        public long contentLength() {
+            return count;
+        }
+    }
+
+    private interface ContentConsumer {
+        void accept(byte[] content);
+    }
+
+    /**
+     * Copies the body as it is read and hands it over when the reader gets to the end of it. Bodies that are not read
+     * to the end or turn out to be too large are not cached.
+     */
+    private class CachingInputStream extends FilterInputStream implements KnownLength {
+        private final long contentLength;
+        private final ContentConsumer consumer;
+        private ByteArrayOutputStream copy;
+
+        private CachingInputStream(InputStream body, long contentLength, ContentConsumer consumer) {
+            super(body);
+            this.contentLength = contentLength;
+            this.consumer = consumer;
+            copy = new ByteArrayOutputStream(contentLength >= 0 ? (int) Math.min(contentLength, Integer.MAX_VALUE - 8) : 1024);
+        }
+
+        @Override
+        public long contentLength() {
+            return contentLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value == -1) {
+                complete();
+            } else if (copy != null) {
+                copy.write(value);
+                checkSize();
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read == -1) {
+                complete();
+            } else if (copy != null) {
+                copy.write(b, off, read);
+                checkSize();
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            copy = null;
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void checkSize() {
+            if (copy.size() > maxBytes) {
+                copy = null;
+            }
+        }
+
+        private void complete() {
+            if (copy != null) {
+                consumer.accept(copy.toByteArray());
+                copy = null;
+            }
+        }
+    }
+}
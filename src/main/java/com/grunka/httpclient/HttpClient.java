@@ -1,177 +1,436 @@
 package com.grunka.httpclient;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.ConnectException;
-import java.net.CookieHandler;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.ProtocolException;
-import java.net.SocketTimeoutException;
-import java.net.URI;
-import java.net.URL;
-import java.net.URLConnection;
+import java.net.UnknownHostException;
 import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.nio.charset.UnsupportedCharsetException;
-import java.time.Duration;
-import java.time.Instant;
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 @SuppressWarnings("WeakerAccess")
-public class HttpClient {
+public class HttpClient implements AutoCloseable {
     public static final String TEXT_PLAIN = "text/plain";
     public static final String ANY = "*/*";
     public static final String FORM_URL_ENCODED = "application/x-www-form-urlencoded";
     public static final String APPLICATION_JSON = "application/json";
+    private static final int MAX_CACHED_CONTENT_TYPES = 64;
+    private static final Map<String, Optional<Charset>> CONTENT_TYPE_CHARSETS = new ConcurrentHashMap<>();
+    private static final BodyHandler<HttpResponse> UNDECODED_BODY = (body, charset) -> new HttpResponse(0, BodyHandlers.ofByteArray().handle(body, charset), charset, HttpHeaders.EMPTY);
 
-    private HttpClient() {
+    private static class DefaultClient {
+        private static final HttpClient INSTANCE = builder().build();
+    }
+
+    final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final long connectTimeout;
+    private final long readTimeout;
+    private final long timeout;
+    private final String userAgent;
+    final Map<String, String> headers;
+    private final String acceptEncoding;
+    private final int requestCompressionThreshold;
+    private final ClientMetrics metrics = new ClientMetrics();
+    final ScheduledExecutorService scheduler;
+    final ConnectionPool connectionPool;
+    private final Transport transport;
+    private final HttpCache cache;
+    private final SingleFlight<HttpResponse> singleFlight;
+    private final RetryPolicy retryPolicy;
+    private final HedgingPolicy hedgingPolicy;
+    private final RateLimiter rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final Map<String, EndpointGroup> endpointGroups;
+    private final EventListener.Factory eventListenerFactory;
+    final Resolver resolver;
+    final long connectAttemptDelay;
+
+    private HttpClient(Builder builder) {
+        if (builder.executor == null) {
+            ownedExecutor = HttpExecutors.defaultExecutor();
+            executor = ownedExecutor;
+        } else {
+            ownedExecutor = null;
+            executor = builder.executor;
+        }
+        connectTimeout = builder.connectTimeout;
+        readTimeout = builder.readTimeout;
+        timeout = builder.timeout;
+        userAgent = builder.userAgent;
+        headers = Map.copyOf(builder.headers);
+        boolean acceptEncodingSet = headers.keySet().stream().anyMatch("Accept-Encoding"::equalsIgnoreCase);
+        // When the caller asks for encodings themselves they also get to decode the response themselves
+        acceptEncoding = builder.decompression && !acceptEncodingSet ? ContentEncoding.ACCEPT_ENCODING : null;
+        requestCompressionThreshold = builder.requestCompressionThreshold;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new HttpExecutors.DaemonThreadFactory("httpclient-scheduler-"));
+        connectionPool = new ConnectionPool(builder.maxConnectionsPerHost, builder.maxIdleTime, builder.validateOnBorrow, scheduler);
+        retryPolicy = builder.retryPolicy;
+        hedgingPolicy = builder.hedgingPolicy;
+        rateLimiter = builder.rateLimiter;
+        circuitBreaker = builder.circuitBreaker;
+        endpointGroups = Map.copyOf(builder.endpointGroups);
+        eventListenerFactory = builder.eventListenerFactory;
+        resolver = builder.dnsCacheTtl > 0 ? new CachingResolver(builder.resolver, builder.dnsCacheTtl, System::nanoTime) : builder.resolver;
+        connectAttemptDelay = builder.connectAttemptDelay;
+        singleFlight = builder.coalesceGets ? new SingleFlight<>(metrics::coalesced) : null;
+        cache = builder.cacheSize > 0 ? new HttpCache(builder.cacheSize, System::currentTimeMillis) : null;
+        if (builder.eventLoopThreads > 0) {
+            transport = new NioTransport(this, builder.eventLoopThreads);
+        } else {
+            transport = new UrlConnectionTransport(this);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
     }
 
     public static CompletableFuture<HttpResponse> execute(HttpRequest request) {
-        switch (request.type) {
-            case GET:
-                return openConnection(request).thenCompose(connection -> readResponse(connection, request));
-            case POST:
-                return postContent(request);
-            default:
-                throw new IllegalArgumentException("Can only handle GET and POST");
+        return DefaultClient.INSTANCE.send(request);
+    }
+
+    public CompletableFuture<HttpResponse> send(HttpRequest request) {
+        if (singleFlight != null && request.type == HttpRequest.HttpRequestType.GET) {
+            return singleFlight.execute(coalescingKey(request), () -> sendForString(request));
         }
+        return sendForString(request);
     }
 
-    private static CompletableFuture<HttpResponse> postContent(HttpRequest request) {
-        byte[] contentBytes = request.postContent.getBytes(request.charset);
-        return openConnection(request).thenCompose(connection -> {
-            try {
-                connection.setRequestMethod("POST");
-            } catch (ProtocolException e) {
-                return CompletableFuture.failedFuture(new Error("POST method not supported", e));
-            }
-            connection.setDoOutput(true);
-            connection.setRequestProperty("Content-Type", request.contentType + "; charset=" + request.charset.name());
-            connection.setRequestProperty("Content-Length", String.valueOf(contentBytes.length));
-            return writeRequest(connection::getOutputStream, new ByteArrayInputStream(contentBytes))
-                    .thenCompose(x -> readResponse(connection, request))
-                    .<CompletableFuture<HttpResponse>>handle((r, e) -> {
-                        if (r != null) {
-                            return CompletableFuture.completedFuture(r);
-                        }
-                        e = e.getClass() == CompletionException.class ? e.getCause() : e;
-                        if (e.getClass() == ConnectException.class || e.getClass() == SocketTimeoutException.class) {
-                            return CompletableFuture.failedFuture(e);
-                        } else {
-                            return readResponse(connection, request);
-                        }
-                    }).thenCompose(x -> x);
-        });
+    /**
+     * @return a batch for running many requests with limits on how many are in flight
+     */
+    public Batch batch() {
+        return new Batch(this);
     }
 
-    private interface OutputStreamSupplier {
-        OutputStream get() throws IOException;
+    /**
+     * Runs the requests with the default limits of {@link Batch}, at most 64 in flight and 8 per host.
+     */
+    public CompletableFuture<List<Batch.Result>> executeAll(Collection<HttpRequest> requests) {
+        return batch().executeAll(requests);
     }
 
-    private static CompletableFuture<Void> writeRequest(OutputStreamSupplier outputStreamSupplier, InputStream contentBytes) {
-        CompletableFuture<Void> result = new CompletableFuture<>();
-        ForkJoinPool.commonPool().execute(() -> {
-            try (OutputStream outputStream = outputStreamSupplier.get()) {
-                contentBytes.transferTo(outputStream);
-            } catch (IOException e) {
-                result.completeExceptionally(e);
-                return;
+    private CompletableFuture<HttpResponse> sendForString(HttpRequest request) {
+        CompletableFuture<BodyResponse<HttpResponse>> sent = send(request, UNDECODED_BODY);
+        CompletableFuture<HttpResponse> result = sent.thenApply(response -> response.getBody().withStatus(response.getCode(), response.getHeaders()));
+        result.whenComplete((r, e) -> {
+            if (e instanceof CancellationException) {
+                sent.cancel(true);
             }
-            result.complete(null);
         });
         return result;
     }
 
-    private static CompletableFuture<HttpResponse> readResponse(HttpURLConnection connection, HttpRequest request) {
-        return readAll(connection::getContentType, connection::getInputStream, request)
-                .thenApply(body -> new HttpResponse(200, body))
-                .<CompletableFuture<HttpResponse>>handle((response, e0) -> {
-                    if (response != null) {
-                        return CompletableFuture.completedFuture(response);
-                    }
-                    e0 = e0.getClass() == CompletionException.class ? e0.getCause() : e0;
-                    Class<? extends Throwable> exceptionClass = e0.getClass();
-                    if (exceptionClass == ConnectException.class || exceptionClass == SocketTimeoutException.class) {
-                        return CompletableFuture.failedFuture(e0);
-                    }
-                    int responseCode;
-                    try {
-                        responseCode = connection.getResponseCode();
-                    } catch (IOException ioException) {
-                        return CompletableFuture.failedFuture(ioException);
-                    }
-                    return readAll(connection::getContentEncoding, connection::getErrorStream, request)
-                            .thenApply(body -> new HttpResponse(responseCode, body))
-                            .<CompletableFuture<HttpResponse>>handle((r, e1) -> {
-                                if (r != null) {
-                                    return CompletableFuture.completedFuture(r);
-                                }
-                                e1 = e1.getClass() == CompletionException.class ? e1.getCause() : e1;
-                                return CompletableFuture.failedFuture(e1);
-                            }).thenCompose(x -> x);
-                })
-                .thenCompose(x -> x)
-                .whenComplete((r, t) -> {
-                    if (request.disconnect) {
-                        connection.disconnect();
+    private String coalescingKey(HttpRequest request) {
+        StringBuilder key = new StringBuilder(request.url.length() + 64)
+                .append(request.url).append('\n')
+                .append(request.accept).append('\n')
+                .append(userAgent(request));
+        request.headers.forEach((name, value) -> key.append('\n').append(name.toLowerCase()).append(':').append(value));
+        return key.toString();
+    }
+
+    public <T> CompletableFuture<BodyResponse<T>> send(HttpRequest request, BodyHandler<T> bodyHandler) {
+        Objects.requireNonNull(bodyHandler, "Body handler cannot be null");
+        metrics.started();
+        EventListener listener = eventListenerFactory != null ? eventListenerFactory.create(request) : null;
+        if (listener != null) {
+            listener.requestStarted(request, System.nanoTime());
+        }
+        Call call = new Call(listener);
+        Function<Call, CompletableFuture<Exchange>> single = c -> {
+            Throwable abortCause = c.abortCause();
+            if (abortCause != null) {
+                return CompletableFuture.failedFuture(abortCause);
+            }
+            return cache != null ? cache.execute(request, r -> network(r, c)) : network(request, c);
+        };
+        Supplier<CompletableFuture<Exchange>> attempt = hedgingPolicy != null ? () -> hedgingPolicy.execute(request, call, single, scheduler, metrics) : () -> single.apply(call);
+        RetryPolicy retryPolicy = request.retryPolicy != null ? request.retryPolicy : this.retryPolicy;
+        CompletableFuture<Exchange> response = retryPolicy != null ? retryPolicy.execute(request, attempt, scheduler, metrics) : attempt.get();
+        // Cancelling or timing out closes the connection instead of leaving it busy with a response nobody wants
+        CompletableFuture<BodyResponse<T>> result = new ResponseFuture<>((r, e) -> {
+            if (e != null) {
+                call.abort(e);
+                call.failed(e);
+            }
+            metrics.completed(r, e);
+        });
+        long timeout = timeout(request);
+        if (timeout > 0) {
+            try {
+                ScheduledFuture<?> timer = scheduler.schedule(() -> executor.execute(() -> result.completeExceptionally(new TimeoutException("Request did not complete within " + timeout + " ms"))), timeout, TimeUnit.MILLISECONDS);
+                result.whenComplete((r, e) -> timer.cancel(false));
+            } catch (RejectedExecutionException ignore) {
+                // The client is closed and the request will fail without any help
+            }
+        }
+        response.thenApplyAsync(exchange -> handleBody(exchange, request, bodyHandler, call), executor)
+                .whenComplete((r, e) -> {
+                    if (e != null) {
+                        result.completeExceptionally(e);
+                    } else if (!result.complete(r) && r.getBody() instanceof AutoCloseable) {
+                        closeQuietly((AutoCloseable) r.getBody());
                     }
                 });
+        return result;
     }
 
-    private interface ContentTypeSupplier {
-        String get();
+    /**
+     * Sends an attempt over the network, to an endpoint of its group if it targets one, paced by the rate limiter and
+     * through the circuit breaker of the host it ends up at.
+     */
+    private CompletableFuture<Exchange> network(HttpRequest request, Call call) {
+        String groupName = endpointGroups.isEmpty() ? null : EndpointGroup.groupName(request.url);
+        if (groupName != null) {
+            EndpointGroup group = endpointGroups.get(groupName);
+            if (group == null) {
+                return CompletableFuture.failedFuture(new UnknownHostException("No endpoint group named " + groupName));
+            }
+            return group.execute(request, r -> send(r, call));
+        }
+        return send(request, call);
     }
 
-    private interface InputStreamSupplier {
-        InputStream get() throws IOException;
+    private CompletableFuture<Exchange> send(HttpRequest request, Call call) {
+        if (rateLimiter != null) {
+            // Waiting for a permit is not part of the call as the circuit breaker sees it
+            return rateLimiter.execute(request, call, () -> breaker(request, call), scheduler);
+        }
+        return breaker(request, call);
     }
 
-    public static void main(String[] args) {
-        Instant start = Instant.now();
-        List<CompletableFuture<String>> bodies = new ArrayList<>();
-        for (int i = 0; i < 1; i++) {
-            bodies.add(HttpClient.execute(HttpRequest.POST("http://www.example.com").json("{}").charset(StandardCharsets.ISO_8859_1).disconnect()).thenApply(HttpResponse::getBody));
+    private CompletableFuture<Exchange> breaker(HttpRequest request, Call call) {
+        if (circuitBreaker != null) {
+            return circuitBreaker.execute(request, () -> transport.execute(request, call));
         }
-        bodies.forEach(CompletableFuture::join);
-        Duration duration = Duration.between(start, Instant.now());
-        System.out.println("duration.toMillis() = " + duration.toMillis());
+        return transport.execute(request, call);
     }
 
-    private static CompletableFuture<String> readAll(ContentTypeSupplier contentTypeSupplier, InputStreamSupplier inputStreamSupplier, HttpRequest request) {
-        CompletableFuture<String> result = new CompletableFuture<>();
-        ForkJoinPool.commonPool().execute(() -> {
-            String contentType = contentTypeSupplier.get();
-            Charset charset = parseCharsetFromContentType(contentType, request.charset);
-            try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-                try (InputStream inputStream = inputStreamSupplier.get()) {
-                    if (inputStream == null) {
-                        result.complete(null);
-                        return;
-                    }
-                    inputStream.transferTo(outputStream);
+    /**
+     * Runs its completion action once before it completes, however it completes, so that anyone waiting for it sees
+     * the effects of the action.
+     */
+    private static class ResponseFuture<T> extends CompletableFuture<T> {
+        private final AtomicBoolean completing = new AtomicBoolean();
+        private final BiConsumer<T, Throwable> onCompletion;
+
+        private ResponseFuture(BiConsumer<T, Throwable> onCompletion) {
+            this.onCompletion = onCompletion;
+        }
+
+        @Override
+        public boolean complete(T value) {
+            if (!completing.compareAndSet(false, true)) {
+                return false;
+            }
+            onCompletion.accept(value, null);
+            return super.complete(value);
+        }
+
+        @Override
+        public boolean completeExceptionally(Throwable throwable) {
+            if (!completing.compareAndSet(false, true)) {
+                return false;
+            }
+            onCompletion.accept(null, throwable);
+            return super.completeExceptionally(throwable);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!completing.compareAndSet(false, true)) {
+                return false;
+            }
+            onCompletion.accept(null, new CancellationException());
+            return super.cancel(mayInterruptIfRunning);
+        }
+    }
+
+    /**
+     * Tells the listener of the call when the body has been read to the end or fails to be read.
+     */
+    private static class ListeningInputStream extends FilterInputStream implements KnownLength {
+        private final int code;
+        private final Call call;
+
+        private ListeningInputStream(InputStream body, int code, Call call) {
+            super(body);
+            this.code = code;
+            this.call = call;
+        }
+
+        @Override
+        public long contentLength() {
+            return in instanceof KnownLength ? ((KnownLength) in).contentLength() : -1;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int value = super.read();
+                if (value == -1) {
+                    call.bodyComplete(code);
                 }
-                result.complete(outputStream.toString(charset));
+                return value;
             } catch (IOException e) {
-                result.completeExceptionally(e);
+                call.failed(e);
+                throw e;
             }
-        });
-        return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                int read = super.read(b, off, len);
+                if (read == -1) {
+                    call.bodyComplete(code);
+                }
+                return read;
+            } catch (IOException e) {
+                call.failed(e);
+                throw e;
+            }
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception ignore) {
+        }
+    }
+
+    private <T> BodyResponse<T> handleBody(Exchange exchange, HttpRequest request, BodyHandler<T> bodyHandler, Call call) {
+        Charset charset = parseCharsetFromContentType(exchange.header("Content-Type"), request.charset);
+        InputStream body = exchange.body();
+        if (call.listener != null) {
+            body = new ListeningInputStream(body, exchange.code(), call);
+        }
+        if (acceptEncoding(request) != null) {
+            body = ContentEncoding.decode(exchange.header("Content-Encoding"), body);
+        }
+        try {
+            return new BodyResponse<>(exchange.code(), bodyHandler.handle(body, charset), exchange.headers());
+        } catch (IOException | RuntimeException e) {
+            try {
+                body.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e instanceof IOException ? new CompletionException(e) : (RuntimeException) e;
+        }
+    }
+
+    /**
+     * The body to send for a POST, gzipped if it is in memory and at least as large as the compression threshold.
+     */
+    BodyPublisher requestBody(HttpRequest request) {
+        BodyPublisher body = request.bodyPublisher();
+        if (requestCompressionThreshold >= 0 && body instanceof BodyPublishers.ByteBufferPublisher && body.contentEncoding() == null && body.contentLength() >= requestCompressionThreshold) {
+            return ((BodyPublishers.ByteBufferPublisher) body).gzip();
+        }
+        return body;
+    }
+
+    long connectTimeout(HttpRequest request) {
+        return request.connectTimeout >= 0 ? request.connectTimeout : connectTimeout;
+    }
+
+    long readTimeout(HttpRequest request) {
+        return request.readTimeout >= 0 ? request.readTimeout : readTimeout;
+    }
+
+    long timeout(HttpRequest request) {
+        return request.timeout >= 0 ? request.timeout : timeout;
     }
 
-    private static Charset parseCharsetFromContentType(String contentType, Charset defaultCharset) {
+    String userAgent(HttpRequest request) {
+        return request.userAgent != null ? request.userAgent : userAgent;
+    }
+
+    /**
+     * @return the Accept-Encoding to send, or null if the client sends none and leaves the response as it is, which is
+     * also the case when the request sets the header itself
+     */
+    String acceptEncoding(HttpRequest request) {
+        return request.headers.containsKey("Accept-Encoding") ? null : acceptEncoding;
+    }
+
+    public ClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * @return the response cache, or null if the client was built without one
+     */
+    public HttpCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public void close() {
+        transport.close();
+        connectionPool.close();
+        scheduler.shutdownNow();
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Runs the {@link LoadGenerator}.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        LoadGenerator.main(args);
+    }
+
+    /**
+     * Resolving is cached per Content-Type, there are usually only a handful of different ones. The cache is dropped
+     * if a server sends too many distinct values.
+     */
+    static Charset parseCharsetFromContentType(String contentType, Charset defaultCharset) {
         if (contentType == null) {
             return defaultCharset;
         }
+        Optional<Charset> charset = CONTENT_TYPE_CHARSETS.get(contentType);
+        if (charset == null) {
+            charset = Optional.ofNullable(parseCharset(contentType));
+            if (CONTENT_TYPE_CHARSETS.size() >= MAX_CACHED_CONTENT_TYPES) {
+                CONTENT_TYPE_CHARSETS.clear();
+            }
+            CONTENT_TYPE_CHARSETS.put(contentType, charset);
+        }
+        return charset.orElse(defaultCharset);
+    }
+
+    private static Charset parseCharset(String contentType) {
         String charsetString = contentType.toUpperCase();
         int index = charsetString.indexOf("CHARSET=");
         if (index != -1) {
@@ -183,59 +442,268 @@ public class HttpClient {
             charsetString = charsetString.trim();
             try {
                 return Charset.forName(charsetString);
-            } catch (UnsupportedCharsetException ignore) {
+            } catch (IllegalArgumentException ignore) {
+                // Unsupported or illegal charset names
             }
         }
-        return defaultCharset;
+        return null;
     }
 
-    private static CompletableFuture<HttpURLConnection> openConnection(HttpRequest request) {
-        URL url;
-        try {
-            url = new URL(request.url);
-        } catch (MalformedURLException e) {
-            return CompletableFuture.failedFuture(e);
-        }
-        return openConnection(url).thenApply(connection -> {
-            connection.setRequestProperty("User-Agent", request.userAgent);
-            connection.setRequestProperty("Accept", request.accept);
-            connection.setUseCaches(false);
-            connection.setInstanceFollowRedirects(true);
-            connection.setConnectTimeout((int) request.connectTimeout);
-            connection.setReadTimeout((int) request.readTimeout);
-            return connection;
-        });
-    }
+    public static class Builder {
+        private Executor executor;
+        private long connectTimeout = 5000;
+        private long readTimeout = 10_000;
+        private long timeout;
+        private String userAgent = "com.grunka.httpclient/1.0";
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        private int eventLoopThreads;
+        private int maxConnectionsPerHost = Integer.MAX_VALUE;
+        private long maxIdleTime = 30_000;
+        private boolean validateOnBorrow = true;
+        private boolean decompression = true;
+        private int requestCompressionThreshold = -1;
+        private long cacheSize;
+        private boolean coalesceGets;
+        private RetryPolicy retryPolicy;
+        private HedgingPolicy hedgingPolicy;
+        private RateLimiter rateLimiter;
+        private CircuitBreaker circuitBreaker;
+        private final Map<String, EndpointGroup> endpointGroups = new HashMap<>();
+        private EventListener.Factory eventListenerFactory;
+        private Resolver resolver = Resolver.system();
+        private long dnsCacheTtl = 30_000;
+        private long connectAttemptDelay = 250;
 
-    private static CompletableFuture<HttpURLConnection> openConnection(URL url) {
-        CompletableFuture<HttpURLConnection> result = new CompletableFuture<>();
-        ForkJoinPool.commonPool().execute(() -> {
-            try {
-                CookieHandler.setDefault(NullCookieHandler.INSTANCE);
-                URLConnection connection = url.openConnection();
-                if (!(connection instanceof HttpURLConnection)) {
-                    result.completeExceptionally(new MalformedURLException("Expected HttpURLConnection, got " + connection.getClass().getName()));
-                } else {
-                    result.complete((HttpURLConnection) connection);
-                }
-            } catch (IOException e) {
-                result.completeExceptionally(e);
+        private Builder() {
+        }
+
+        public Builder executor(Executor executor) {
+            this.executor = Objects.requireNonNull(executor, "Executor cannot be null");
+            return this;
+        }
+
+        public Builder connectTimeout(long connectTimeout) {
+            if (connectTimeout < 0) {
+                throw new IllegalArgumentException("Connect timeout cannot be negative");
             }
-        });
-        return result;
-    }
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
 
-    private static class NullCookieHandler extends CookieHandler {
-        public static final NullCookieHandler INSTANCE = new NullCookieHandler();
+        public Builder readTimeout(long readTimeout) {
+            if (readTimeout < 0) {
+                throw new IllegalArgumentException("Read timeout cannot be negative");
+            }
+            this.readTimeout = readTimeout;
+            return this;
+        }
 
-        @Override
-        public Map<String, List<String>> get(URI uri, Map<String, List<String>> requestHeaders) {
-            return Map.of();
+        /**
+         * Limits the total time of a request in milliseconds, from sending it to having handled the body, including
+         * any retries. A request that runs out of time fails with a {@link TimeoutException} and its connection is
+         * closed. Without it, which is the default or 0, a server trickling out a response can hold a request forever.
+         * The limit ends when the body handler returns, so a body read as a stream is only bounded by the read timeout
+         * once it has been handed over.
+         */
+        public Builder timeout(long timeout) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("Timeout cannot be negative");
+            }
+            this.timeout = timeout;
+            return this;
         }
 
-        @Override
-        public void put(URI uri, Map<String, List<String>> responseHeaders) {
+        public Builder userAgent(String userAgent) {
+            this.userAgent = Objects.requireNonNull(userAgent, "User agent is not allowed to be null");
+            return this;
+        }
+
+        public Builder header(String name, String value) {
+            Objects.requireNonNull(name, "Header name cannot be null");
+            Objects.requireNonNull(value, "Header value cannot be null");
+            headers.put(name, value);
+            return this;
+        }
+
+        public Builder nioTransport(int eventLoopThreads) {
+            if (eventLoopThreads < 1) {
+                throw new IllegalArgumentException("Need at least one event loop thread");
+            }
+            this.eventLoopThreads = eventLoopThreads;
+            return this;
+        }
+
+        public Builder maxConnectionsPerHost(int maxConnectionsPerHost) {
+            if (maxConnectionsPerHost < 1) {
+                throw new IllegalArgumentException("Need to allow at least one connection per host");
+            }
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        /**
+         * Closes pooled connections that have been idle for this many milliseconds, 30 seconds by default. Only applies
+         * with {@link #nioTransport(int)}, the default transport leaves idle connections to the keep-alive cache of the
+         * JVM.
+         */
+        public Builder maxIdleTime(long maxIdleTime) {
+            if (maxIdleTime < 0) {
+                throw new IllegalArgumentException("Max idle time cannot be negative");
+            }
+            this.maxIdleTime = maxIdleTime;
+            return this;
+        }
+
+        /**
+         * Checks that a pooled connection has not been closed by the server before reusing it, on by default. Only
+         * applies with {@link #nioTransport(int)}, like {@link #maxIdleTime(long)}.
+         */
+        public Builder validateOnBorrow(boolean validateOnBorrow) {
+            this.validateOnBorrow = validateOnBorrow;
+            return this;
+        }
+
+        /**
+         * Sends Accept-Encoding: gzip, deflate and decodes compressed responses, on by default. If Accept-Encoding is
+         * set as a client header the response is left as it is.
+         */
+        public Builder decompression(boolean decompression) {
+            this.decompression = decompression;
+            return this;
+        }
+
+        /**
+         * Gzips string and byte array request bodies of at least the given size. Only use this against servers known
+         * to accept Content-Encoding: gzip on requests.
+         */
+        public Builder requestCompression(int thresholdBytes) {
+            if (thresholdBytes < 0) {
+                throw new IllegalArgumentException("Compression threshold cannot be negative");
+            }
+            this.requestCompressionThreshold = thresholdBytes;
+            return this;
+        }
+
+        /**
+         * Caches GET responses in memory, up to roughly the given number of bytes.
+         *
+         * @see HttpCache
+         */
+        public Builder cache(long maxBytes) {
+            if (maxBytes < 1) {
+                throw new IllegalArgumentException("Cache size must be positive");
+            }
+            this.cacheSize = maxBytes;
+            return this;
+        }
+
+        /**
+         * Lets concurrent identical GET requests through {@link HttpClient#send(HttpRequest)} share a single request
+         * to the server. Requests are identical when they have the same URL, Accept, User-Agent and request headers,
+         * timeouts and other settings are taken from the request that went first.
+         */
+        public Builder coalesceGets(boolean coalesceGets) {
+            this.coalesceGets = coalesceGets;
+            return this;
+        }
+
+        /**
+         * Retries requests according to the policy unless the request has a policy of its own, requests are not retried
+         * by default.
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = Objects.requireNonNull(retryPolicy, "Retry policy cannot be null");
+            return this;
+        }
+
+        /**
+         * Hedges GET requests that are slow to answer by sending the same request again, every attempt made by the
+         * retry policy is hedged on its own. Requests are not hedged by default.
+         */
+        public Builder hedgingPolicy(HedgingPolicy hedgingPolicy) {
+            this.hedgingPolicy = Objects.requireNonNull(hedgingPolicy, "Hedging policy cannot be null");
+            return this;
+        }
+
+        /**
+         * Fails requests at once while the host they are for keeps failing, every attempt made by the retry and hedging
+         * policies goes through the circuit breaker. There is no circuit breaker by default.
+         */
+        public Builder circuitBreaker(CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = Objects.requireNonNull(circuitBreaker, "Circuit breaker cannot be null");
+            return this;
+        }
+
+        /**
+         * Paces requests to stay within the rates allowed per host or per tag, every attempt made by the retry and
+         * hedging policies takes a permit. There is no rate limiter by default.
+         */
+        public Builder rateLimiter(RateLimiter rateLimiter) {
+            this.rateLimiter = Objects.requireNonNull(rateLimiter, "Rate limiter cannot be null");
+            return this;
+        }
+
+        /**
+         * Adds a group of endpoints that requests to URLs like <code>group://name/path</code> are spread over.
+         */
+        public Builder endpointGroup(EndpointGroup endpointGroup) {
+            Objects.requireNonNull(endpointGroup, "Endpoint group cannot be null");
+            if (endpointGroups.putIfAbsent(endpointGroup.getName(), endpointGroup) != null) {
+                throw new IllegalArgumentException("There already is an endpoint group named " + endpointGroup.getName());
+            }
+            return this;
+        }
+
+        /**
+         * Creates a listener for every request that is told about the phases of the request as they happen. Use
+         * {@code request -> listener} to have one listener for all requests. Without a factory, which is the default,
+         * no events are created at all.
+         *
+         * @see LatencyMetrics
+         */
+        public Builder eventListener(EventListener.Factory eventListenerFactory) {
+            this.eventListenerFactory = Objects.requireNonNull(eventListenerFactory, "Event listener factory cannot be null");
+            return this;
+        }
+
+        /**
+         * Looks up host names for the NIO transport, by default the resolver of the JVM. Only applies with
+         * {@link #nioTransport(int)}, the default transport always uses the resolver of the JVM.
+         */
+        public Builder resolver(Resolver resolver) {
+            this.resolver = Objects.requireNonNull(resolver, "Resolver cannot be null");
+            return this;
+        }
+
+        /**
+         * How long the NIO transport keeps the addresses of a host, 30 seconds by default and 0 to look the host up
+         * with the resolver for every new connection. Only applies with {@link #nioTransport(int)}, the default
+         * transport leaves caching to the JVM.
+         */
+        public Builder dnsCacheTtl(long dnsCacheTtl) {
+            if (dnsCacheTtl < 0) {
+                throw new IllegalArgumentException("DNS cache TTL cannot be negative");
+            }
+            this.dnsCacheTtl = dnsCacheTtl;
+            return this;
+        }
+
+        /**
+         * When a host has several addresses the NIO transport starts connecting to the next one if the current attempt
+         * has not succeeded within this many milliseconds, 250 by default. The first attempt to connect wins. With 0
+         * the next address is only tried once the current attempt fails. Attempts are started with a granularity of
+         * about 100 ms. Only applies with {@link #nioTransport(int)}.
+         */
+        public Builder connectAttemptDelay(long connectAttemptDelay) {
+            if (connectAttemptDelay < 0) {
+                throw new IllegalArgumentException("Connect attempt delay cannot be negative");
+            }
+            this.connectAttemptDelay = connectAttemptDelay;
+            return this;
+        }
 
+        public HttpClient build() {
+            return new HttpClient(this);
         }
     }
 }
@@ -0,0 +1,95 @@
+package com.grunka.httpclient;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors suitable for running the blocking I/O of requests, so that it never ends up on
+ * {@link java.util.concurrent.ForkJoinPool#commonPool()}.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class HttpExecutors {
+    public static final int DEFAULT_PLATFORM_THREADS = 64;
+    private static final MethodHandle NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findVirtualThreadPerTaskExecutor();
+
+    private HttpExecutors() {
+    }
+
+    /**
+     * @return true if the running JVM supports virtual threads (Java 21 or later)
+     */
+    public static boolean virtualThreadsAvailable() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task.
+     *
+     * @throws UnsupportedOperationException if virtual threads are not available in this JVM
+     */
+    public static ExecutorService virtualThreadPerTask() {
+        if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invokeExact();
+        } catch (Throwable t) {
+            throw new IllegalStateException("Could not create virtual thread executor", t);
+        }
+    }
+
+    /**
+     * Creates a pool of at most {@code threads} daemon platform threads, idle threads are allowed to time out.
+     */
+    public static ExecutorService boundedPlatform(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread");
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new DaemonThreadFactory("httpclient-io-"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Virtual thread per task when available, otherwise a bounded pool of {@link #DEFAULT_PLATFORM_THREADS} platform
+     * threads.
+     */
+    public static ExecutorService defaultExecutor() {
+        if (virtualThreadsAvailable()) {
+            return virtualThreadPerTask();
+        }
+        return boundedPlatform(DEFAULT_PLATFORM_THREADS);
+    }
+
+    private static MethodHandle findVirtualThreadPerTaskExecutor() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+        private final String prefix;
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.grunka.httpclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+
+/**
+ * Read only, case insensitive view of the headers of a response. Lookups scan the headers as they were received,
+ * nothing is copied into a map unless {@link #map()} is called.
+ */
+public final class HttpHeaders {
+    static final HttpHeaders EMPTY = of(Map.of());
+
+    /**
+     * Headers in the order they were received.
+     */
+    interface Source {
+        int size();
+
+        String name(int index);
+
+        String value(int index);
+
+        default boolean hasName(int index, String name) {
+            return name(index).equalsIgnoreCase(name);
+        }
+    }
+
+    private final Source source;
+    private volatile Map<String, List<String>> map;
+
+    HttpHeaders(Source source) {
+        this.source = source;
+    }
+
+    static HttpHeaders of(Map<String, String> headers) {
+        String[] names = headers.keySet().toArray(new String[0]);
+        String[] values = headers.values().toArray(new String[0]);
+        return of(names, values);
+    }
+
+    static HttpHeaders of(String[] names, String[] values) {
+        return new HttpHeaders(new Source() {
+            @Override
+            public int size() {
+                return names.length;
+            }
+
+            @Override
+            public String name(int index) {
+                return names[index];
+            }
+
+            @Override
+            public String value(int index) {
+                return values[index];
+            }
+        });
+    }
+
+    /**
+     * @return the first value of the header, or null if it is not present
+     */
+    public String firstValue(String name) {
+        for (int i = 0; i < source.size(); i++) {
+            if (source.hasName(i, name)) {
+                return source.value(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the first value of the header as a number, empty if it is not present or not a number
+     */
+    public OptionalLong firstValueAsLong(String name) {
+        String value = firstValue(name);
+        if (value != null) {
+            try {
+                return OptionalLong.of(Long.parseLong(value));
+            } catch (NumberFormatException ignore) {
+            }
+        }
+        return OptionalLong.empty();
+    }
+
+    public List<String> allValues(String name) {
+        List<String> values = null;
+        for (int i = 0; i < source.size(); i++) {
+            if (source.hasName(i, name)) {
+                if (values == null) {
+                    values = new ArrayList<>(1);
+                }
+                values.add(source.value(i));
+            }
+        }
+        return values == null ? List.of() : Collections.unmodifiableList(values);
+    }
+
+    public boolean contains(String name) {
+        for (int i = 0; i < source.size(); i++) {
+            if (source.hasName(i, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return all headers keyed case insensitively, built on the first call
+     */
+    public Map<String, List<String>> map() {
+        Map<String, List<String>> map = this.map;
+        if (map == null) {
+            Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 0; i < source.size(); i++) {
+                headers.computeIfAbsent(source.name(i), name -> new ArrayList<>(1)).add(source.value(i));
+            }
+            headers.replaceAll((name, values) -> Collections.unmodifiableList(values));
+            map = Collections.unmodifiableMap(headers);
+            this.map = map;
+        }
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return map().toString();
+    }
+}
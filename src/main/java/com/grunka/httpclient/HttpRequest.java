@@ -2,7 +2,10 @@ package com.grunka.httpclient;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
 
 @SuppressWarnings("unused")
 public class HttpRequest {
@@ -10,32 +13,46 @@ public class HttpRequest {
         GET, POST;
     }
 
+    private static final String FORM_CONTENT_TYPE = HttpClient.FORM_URL_ENCODED + "; charset=UTF-8";
+
     final HttpRequestType type;
     final String url;
     final String userAgent;
     final long connectTimeout;
     final long readTimeout;
+    final long timeout;
     final String accept;
     final String contentType;
     final Charset charset;
     final boolean disconnect;
     final String postContent;
+    final BodyPublisher body;
+    final Map<String, String> headers;
+    final RetryPolicy retryPolicy;
+    final RequestTemplate template;
+    final String tag;
 
-    private HttpRequest(HttpRequestType type, String url, String userAgent, long connectTimeout, long readTimeout, String accept, String contentType, Charset charset, boolean disconnect, String postContent) {
+    private HttpRequest(HttpRequestType type, String url, String userAgent, long connectTimeout, long readTimeout, long timeout, String accept, String contentType, Charset charset, boolean disconnect, String postContent, BodyPublisher body, Map<String, String> headers, RetryPolicy retryPolicy, RequestTemplate template, String tag) {
         this.type = type;
         this.url = url;
         this.userAgent = userAgent;
         this.connectTimeout = connectTimeout;
         this.readTimeout = readTimeout;
+        this.timeout = timeout;
         this.accept = accept;
         this.contentType = contentType;
         this.charset = charset;
         this.disconnect = disconnect;
         this.postContent = postContent;
+        this.body = body;
+        this.headers = headers;
+        this.retryPolicy = retryPolicy;
+        this.template = template;
+        this.tag = tag;
     }
 
     private HttpRequest(HttpRequestType type, String url) {
-        this(type, url, "com.grunka.httpclient/1.0", 5000, 10_000, HttpClient.ANY, HttpClient.APPLICATION_JSON, StandardCharsets.UTF_8, false, null);
+        this(type, url, null, -1, -1, -1, HttpClient.ANY, HttpClient.APPLICATION_JSON, StandardCharsets.UTF_8, false, null, null, Map.of(), null, null, null);
     }
 
     public static HttpRequest GET(String url) {
@@ -50,45 +67,98 @@ public class HttpRequest {
         if (type != HttpRequestType.POST) {
             throw new IllegalArgumentException("Cannot post JSON in a non POST request");
         }
-        if (Objects.equals(json, this.postContent)) {
+        if (body == null && Objects.equals(json, this.postContent)) {
             return this;
         }
-        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, HttpClient.APPLICATION_JSON, HttpClient.APPLICATION_JSON, charset, disconnect, json);
+        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, timeout, HttpClient.APPLICATION_JSON, HttpClient.APPLICATION_JSON, charset, disconnect, json, null, headers, retryPolicy, template, tag);
     }
 
     public HttpRequest form(Parameters parameters) {
         if (type != HttpRequestType.POST) {
             throw new IllegalArgumentException("Cannot post form in a non POST request");
         }
-        String form = parameters.toString();
-        if (Objects.equals(form, this.postContent)) {
+        BodyPublisher form = BodyPublishers.ofByteArray(parameters.toByteArray());
+        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, timeout, accept, FORM_CONTENT_TYPE, charset, disconnect, null, form, headers, retryPolicy, template, tag);
+    }
+
+    /**
+     * Appends the parameters to the query string of the URL.
+     */
+    public HttpRequest query(Parameters parameters) {
+        if (parameters.isEmpty()) {
             return this;
         }
-        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, accept, HttpClient.FORM_URL_ENCODED, charset, disconnect, form);
+        byte[] query = parameters.toByteArray();
+        int fragment = this.url.indexOf('#');
+        int end = fragment < 0 ? this.url.length() : fragment;
+        int queryStart = this.url.indexOf('?');
+        StringBuilder url = new StringBuilder(this.url.length() + 1 + query.length).append(this.url, 0, end);
+        if (queryStart < 0 || queryStart > end) {
+            url.append('?');
+        } else if (queryStart < end - 1 && this.url.charAt(end - 1) != '&') {
+            url.append('&');
+        }
+        for (byte b : query) {
+            url.append((char) b);
+        }
+        url.append(this.url, end, this.url.length());
+        return new HttpRequest(type, url.toString(), userAgent, connectTimeout, readTimeout, timeout, accept, contentType, charset, disconnect, postContent, body, headers, retryPolicy, template, tag);
     }
 
     public HttpRequest content(String content) {
         if (type != HttpRequestType.POST) {
             throw new IllegalArgumentException("Cannot post content in a non POST request");
         }
-        if (Objects.equals(content, this.postContent)) {
+        if (body == null && Objects.equals(content, this.postContent)) {
             return this;
         }
-        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, accept, contentType, charset, disconnect, content);
+        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, timeout, accept, contentType, charset, disconnect, content, null, headers, retryPolicy, template, tag);
+    }
+
+    public HttpRequest content(byte[] content) {
+        return content(BodyPublishers.ofByteArray(content));
+    }
+
+    /**
+     * Sends the body as is, unlike string content no charset is added to the Content-Type.
+     */
+    public HttpRequest content(BodyPublisher body) {
+        Objects.requireNonNull(body, "Body is not allowed to be null");
+        if (type != HttpRequestType.POST) {
+            throw new IllegalArgumentException("Cannot post content in a non POST request");
+        }
+        if (body == this.body) {
+            return this;
+        }
+        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, timeout, accept, contentType, charset, disconnect, null, body, headers, retryPolicy, template, tag);
     }
 
     public HttpRequest readTimeout(long readTimeout) {
         if (readTimeout == this.readTimeout) {
             return this;
         }
-        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, accept, contentType, charset, disconnect, postContent);
+        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, timeout, accept, contentType, charset, disconnect, postContent, body, headers, retryPolicy, template, tag);
     }
 
     public HttpRequest connectTimeout(long connectTimeout) {
         if (connectTimeout == this.connectTimeout) {
             return this;
         }
-        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, accept, contentType, charset, disconnect, postContent);
+        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, timeout, accept, contentType, charset, disconnect, postContent, body, headers, retryPolicy, template, tag);
+    }
+
+    /**
+     * Limits the total time of this request in milliseconds including retries, overriding the timeout of the client. 0
+     * means no limit. Like the timeout of the client it does not cover reading a body that is handed over as a stream.
+     */
+    public HttpRequest timeout(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+        if (timeout == this.timeout) {
+            return this;
+        }
+        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, timeout, accept, contentType, charset, disconnect, postContent, body, headers, retryPolicy, template, tag);
     }
 
     public HttpRequest charset(Charset charset) {
@@ -96,14 +166,14 @@ public class HttpRequest {
         if (Objects.equals(charset, this.charset)) {
             return this;
         }
-        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, accept, contentType, charset, disconnect, postContent);
+        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, timeout, accept, contentType, charset, disconnect, postContent, body, headers, retryPolicy, template, tag);
     }
 
     public HttpRequest accept(String accept) {
         if (Objects.equals(accept, this.accept)) {
             return this;
         }
-        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, accept, contentType, charset, disconnect, postContent);
+        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, timeout, accept, contentType, charset, disconnect, postContent, body, headers, retryPolicy, null, tag);
     }
 
     public HttpRequest contentType(String contentType) {
@@ -111,7 +181,7 @@ public class HttpRequest {
         if (Objects.equals(contentType, this.contentType)) {
             return this;
         }
-        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, accept, contentType, charset, disconnect, postContent);
+        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, timeout, accept, contentType, charset, disconnect, postContent, body, headers, retryPolicy, template, tag);
     }
 
     public HttpRequest userAgent(String userAgent) {
@@ -119,13 +189,77 @@ public class HttpRequest {
         if (Objects.equals(userAgent, this.userAgent)) {
             return this;
         }
-        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, accept, contentType, charset, disconnect, postContent);
+        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, timeout, accept, contentType, charset, disconnect, postContent, body, headers, retryPolicy, null, tag);
+    }
+
+    /**
+     * Adds a header to this request, replacing any header with the same name set on the request or the client. This
+     * includes User-Agent, Accept and Accept-Encoding, a request that sets Accept-Encoding gets its response as it is
+     * instead of decoded by the client.
+     */
+    public HttpRequest header(String name, String value) {
+        Objects.requireNonNull(name, "Header name cannot be null");
+        Objects.requireNonNull(value, "Header value cannot be null");
+        if (Objects.equals(value, headers.get(name))) {
+            return this;
+        }
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.putAll(this.headers);
+        headers.put(name, value);
+        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, timeout, accept, contentType, charset, disconnect, postContent, body, Collections.unmodifiableMap(headers), retryPolicy, null, tag);
+    }
+
+    /**
+     * Overrides the retry policy of the client for this request.
+     */
+    public HttpRequest retryPolicy(RetryPolicy retryPolicy) {
+        Objects.requireNonNull(retryPolicy, "Retry policy is not allowed to be null");
+        if (retryPolicy == this.retryPolicy) {
+            return this;
+        }
+        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, timeout, accept, contentType, charset, disconnect, postContent, body, headers, retryPolicy, template, tag);
+    }
+
+    /**
+     * Names the class of requests this one belongs to, which a {@link RateLimiter} can limit separately.
+     */
+    public HttpRequest tag(String tag) {
+        Objects.requireNonNull(tag, "Tag is not allowed to be null");
+        if (tag.equals(this.tag)) {
+            return this;
+        }
+        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, timeout, accept, contentType, charset, disconnect, postContent, body, headers, retryPolicy, template, tag);
     }
 
     public HttpRequest disconnect() {
         if (disconnect) {
             return this;
         }
-        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, accept, contentType, charset, true, postContent);
+        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, timeout, accept, contentType, charset, true, postContent, body, headers, retryPolicy, template, tag);
+    }
+
+    HttpRequest fromTemplate(String url, RequestTemplate template) {
+        return new HttpRequest(type, url, userAgent, connectTimeout, readTimeout, timeout, accept, contentType, charset, disconnect, postContent, body, headers, retryPolicy, template, tag);
+    }
+
+    /**
+     * @return the same request to another URL, which leaves any template behind since it is prepared for its own URL
+     */
+    HttpRequest withUrl(String url) {
+        return fromTemplate(url, null);
+    }
+
+    BodyPublisher bodyPublisher() {
+        if (body != null) {
+            return body;
+        }
+        return BodyPublishers.ofString(postContent == null ? "" : postContent, charset);
+    }
+
+    String contentTypeHeader() {
+        if (body != null) {
+            return contentType;
+        }
+        return contentType + "; charset=" + charset.name();
     }
 }
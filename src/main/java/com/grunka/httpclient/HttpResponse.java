@@ -1,23 +1,89 @@
 package com.grunka.httpclient;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A response with the whole body in memory. The body is kept as bytes and only decoded on the first call to
+ * {@link #getBody()}.
+ */
 public class HttpResponse {
 	private final int code;
-	private final String body;
+	private final Charset charset;
+	private final HttpHeaders headers;
+	private volatile byte[] bytes;
+	// Racy but safe, the worst case is that two threads decode the same bytes into equal strings
+	private String body;
 
 	public HttpResponse(int code, String body) {
 		this.code = code;
+		this.charset = StandardCharsets.UTF_8;
+		this.headers = HttpHeaders.EMPTY;
 		this.body = body;
 	}
 
+	HttpResponse(int code, byte[] bytes, Charset charset, HttpHeaders headers) {
+		this.code = code;
+		this.charset = charset;
+		this.headers = headers;
+		this.bytes = bytes;
+	}
+
+	HttpResponse withStatus(int code, HttpHeaders headers) {
+		return new HttpResponse(code, getBytes(), charset, headers);
+	}
+
 	public int getCode() {
 		return code;
 	}
 
 	public String getBody() {
+		String body = this.body;
+		if (body == null && bytes != null) {
+			body = new String(bytes, charset);
+			this.body = body;
+		}
 		return body;
 	}
 
+	/**
+	 * The array is not copied and must not be modified.
+	 *
+	 * @return the body as it was received, after any Content-Encoding has been removed
+	 */
+	public byte[] getBytes() {
+		byte[] bytes = this.bytes;
+		if (bytes == null && body != null) {
+			bytes = body.getBytes(charset);
+			this.bytes = bytes;
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return a read only view of the body bytes
+	 */
+	public ByteBuffer getByteBuffer() {
+		byte[] bytes = getBytes();
+		return bytes == null ? null : ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return the charset from the response Content-Type, or the charset of the request if none was given
+	 */
+	public Charset getCharset() {
+		return charset;
+	}
+
+	public HttpHeaders getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * @return true for any 2xx status code, the code itself is there from {@link #getCode()}
+	 */
 	public boolean isOk() {
-		return code == 200;
+		return code >= 200 && code < 300;
 	}
 }
@@ -0,0 +1,12 @@
+package com.grunka.httpclient;
+
+/**
+ * Implemented by body streams that know how long the body is from the response headers, which lets body handlers
+ * size their buffers up front.
+ */
+interface KnownLength {
+    /**
+     * @return the number of bytes in the body, or -1 if not known
+     */
+    long contentLength();
+}
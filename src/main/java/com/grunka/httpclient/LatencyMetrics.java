@@ -0,0 +1,143 @@
+package com.grunka.httpclient;
+
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records latency histograms per host, in nanoseconds. Total latency is from starting a request until its body has
+ * been read and is kept per status code, requests that fail are kept apart. Time to first byte and time to connect are
+ * kept per host.
+ * <pre>{@code
+ * LatencyMetrics latencies = new LatencyMetrics();
+ * HttpClient client = HttpClient.builder().eventListener(latencies).build();
+ * ...
+ * long p99 = latencies.getLatency("example.com", 200).getValueAtPercentile(99);
+ * }</pre>
+ */
+public class LatencyMetrics implements EventListener.Factory {
+    private final ConcurrentMap<String, HostLatencies> hosts = new ConcurrentHashMap<>();
+
+    @Override
+    public EventListener create(HttpRequest request) {
+        return new Listener(hosts.computeIfAbsent(host(request.url), host -> new HostLatencies()));
+    }
+
+    public Set<String> getHosts() {
+        return Set.copyOf(hosts.keySet());
+    }
+
+    /**
+     * @return the time from start to having read the whole body for responses with the status code, or null if there
+     * have been none
+     */
+    public Histogram getLatency(String host, int code) {
+        HostLatencies latencies = hosts.get(host);
+        return latencies == null || code < 0 || code >= HostLatencies.CODES ? null : latencies.byCode.get(code);
+    }
+
+    /**
+     * @return the time from start to failure, or null if no request to the host has been made
+     */
+    public Histogram getFailures(String host) {
+        HostLatencies latencies = hosts.get(host);
+        return latencies == null ? null : latencies.failures;
+    }
+
+    /**
+     * @return the time from start to the first byte of the response, or null if no request to the host has been made
+     */
+    public Histogram getTimeToFirstByte(String host) {
+        HostLatencies latencies = hosts.get(host);
+        return latencies == null ? null : latencies.firstByte;
+    }
+
+    /**
+     * @return the time it took to open new connections, or null if no request to the host has been made
+     */
+    public Histogram getConnectTime(String host) {
+        HostLatencies latencies = hosts.get(host);
+        return latencies == null ? null : latencies.connect;
+    }
+
+    private static String host(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? host : "unknown";
+        } catch (IllegalArgumentException e) {
+            return "unknown";
+        }
+    }
+
+    private static class HostLatencies {
+        private static final int CODES = 600;
+
+        private final AtomicReferenceArray<Histogram> byCode = new AtomicReferenceArray<>(CODES);
+        private final Histogram failures = new Histogram();
+        private final Histogram firstByte = new Histogram();
+        private final Histogram connect = new Histogram();
+
+        private Histogram byCode(int code) {
+            int index = code >= 0 && code < CODES ? code : 0;
+            Histogram histogram = byCode.get(index);
+            if (histogram == null) {
+                byCode.compareAndSet(index, null, new Histogram());
+                histogram = byCode.get(index);
+            }
+            return histogram;
+        }
+    }
+
+    /**
+     * Events of a request come one at a time, so the fields need no synchronization of their own. A hedge has a
+     * listener of its own so that its connect time is taken from when it got its connection.
+     */
+    private static class Listener implements EventListener {
+        private final HostLatencies latencies;
+        private long started;
+        private long acquired;
+
+        private Listener(HostLatencies latencies) {
+            this.latencies = latencies;
+        }
+
+        @Override
+        public EventListener hedge() {
+            Listener hedge = new Listener(latencies);
+            hedge.started = started;
+            return hedge;
+        }
+
+        @Override
+        public void requestStarted(HttpRequest request, long nanoTime) {
+            started = nanoTime;
+        }
+
+        @Override
+        public void connectionAcquired(boolean reused, long nanoTime) {
+            acquired = nanoTime;
+        }
+
+        @Override
+        public void connected(long nanoTime) {
+            latencies.connect.record(Math.max(0, nanoTime - acquired));
+        }
+
+        @Override
+        public void firstByte(long nanoTime) {
+            latencies.firstByte.record(Math.max(0, nanoTime - started));
+        }
+
+        @Override
+        public void bodyComplete(int code, long nanoTime) {
+            latencies.byCode(code).record(Math.max(0, nanoTime - started));
+        }
+
+        @Override
+        public void failed(Throwable failure, long nanoTime) {
+            latencies.failures.record(Math.max(0, nanoTime - started));
+        }
+    }
+}
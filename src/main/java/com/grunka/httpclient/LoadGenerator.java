@@ -0,0 +1,383 @@
+package com.grunka.httpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for finding out how a server and the client settings for it hold up.
+ * <p>
+ * Without a rate it runs closed loop, every worker sends its next request as soon as the previous one is done, which
+ * finds the highest throughput. With a rate it runs open loop, requests are sent on a fixed schedule no matter how long
+ * earlier ones take and latency is measured from when a request should have been sent. That includes the time a request
+ * was held back by a slow server, which closed loop measurements leave out, known as coordinated omission.
+ * <pre>
+ * java -jar httpclient.jar --request "9*GET http://localhost:8080/items" --request "1*POST http://localhost:8080/items {}" --rate 500 --duration 60
+ * </pre>
+ */
+public final class LoadGenerator {
+    static final String USAGE = String.join("\n",
+            "Usage: LoadGenerator [options] (--url URL | --request SPEC)...",
+            "  --url URL                      GET the URL, same as --request \"GET URL\"",
+            "  --request [WEIGHT*]METHOD URL [JSON]",
+            "                                 GET or POST with a JSON body, requests are picked in proportion to their weight",
+            "  --concurrency N                workers in closed loop, or the most requests in flight with a rate (16, 1000 with a rate)",
+            "  --rate N                       requests per second, open loop",
+            "  --duration SECONDS             how long to measure for (30)",
+            "  --warmup SECONDS               how long to run before measuring (5)",
+            "  --timeout MILLISECONDS         total timeout per request (none)",
+            "  --header NAME:VALUE            header to send with every request",
+            "  --nio THREADS                  use the NIO transport with this many event loop threads",
+            "  --max-connections-per-host N   connection limit per host");
+
+    private static final BodyHandler<Long> DISCARD = LoadGenerator::discard;
+
+    private final HttpClient client;
+    private final Options options;
+
+    LoadGenerator(HttpClient client, Options options) {
+        this.client = client;
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        try (HttpClient client = options.client()) {
+            new LoadGenerator(client, options).run().print(System.out);
+        }
+    }
+
+    Report run() throws InterruptedException {
+        long start = System.nanoTime();
+        Recorder recorder = new Recorder(start + options.warmup, start + options.warmup + options.duration);
+        if (options.rate > 0) {
+            runOpenLoop(start, recorder);
+        } else {
+            runClosedLoop(recorder);
+        }
+        return new Report(recorder, options);
+    }
+
+    private void runClosedLoop(Recorder recorder) throws InterruptedException {
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < options.concurrency; i++) {
+            Thread worker = new Thread(() -> {
+                long sent;
+                while ((sent = System.nanoTime()) < recorder.end) {
+                    BodyResponse<Long> response = null;
+                    Throwable failure = null;
+                    try {
+                        response = client.send(options.pick(), DISCARD).join();
+                    } catch (CompletionException e) {
+                        failure = e.getCause() != null ? e.getCause() : e;
+                    }
+                    recorder.record(sent, sent, System.nanoTime(), response, failure);
+                }
+            }, "load-generator-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    private void runOpenLoop(long start, Recorder recorder) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(options.concurrency);
+        double interval = TimeUnit.SECONDS.toNanos(1) / options.rate;
+        for (long i = 0; ; i++) {
+            long intended = start + (long) (i * interval);
+            if (intended - recorder.end >= 0) {
+                break;
+            }
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            // When the limit is reached the wait shows up in the latency since it is measured from the intended time
+            inFlight.acquire();
+            long sent = System.nanoTime();
+            client.send(options.pick(), DISCARD).whenComplete((response, failure) -> {
+                recorder.record(intended, sent, System.nanoTime(), response, failure);
+                inFlight.release();
+            });
+        }
+        inFlight.acquire(options.concurrency);
+    }
+
+    private static Long discard(InputStream body, Charset charset) throws IOException {
+        try (body) {
+            byte[] buffer = BufferPool.acquire(BufferPool.MIN_SIZE);
+            try {
+                long total = 0;
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    total += read;
+                }
+                return total;
+            } finally {
+                BufferPool.release(buffer);
+            }
+        }
+    }
+
+    static class Recorder {
+        private final long start;
+        private final long end;
+        final Histogram latency = new Histogram();
+        final Histogram serviceTime = new Histogram();
+        final LongAdder bytes = new LongAdder();
+        final ConcurrentMap<Integer, LongAdder> codes = new ConcurrentHashMap<>();
+        final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+        Recorder(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        void record(long intended, long sent, long completed, BodyResponse<Long> response, Throwable failure) {
+            if (intended - start < 0 || intended - end >= 0) {
+                return;
+            }
+            latency.record(completed - intended);
+            serviceTime.record(completed - sent);
+            if (response != null) {
+                bytes.add(response.getBody());
+                codes.computeIfAbsent(response.getCode(), code -> new LongAdder()).increment();
+                if (response.getCode() >= 400) {
+                    errors.computeIfAbsent("HTTP " + response.getCode(), error -> new LongAdder()).increment();
+                }
+            } else {
+                Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+                errors.computeIfAbsent(cause.getClass().getSimpleName(), error -> new LongAdder()).increment();
+            }
+        }
+    }
+
+    static class Report {
+        private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+        final long requests;
+        final long errors;
+        final double seconds;
+        final Histogram latency;
+        final Histogram serviceTime;
+        final long bytes;
+        final Map<Integer, Long> codes = new TreeMap<>();
+        final Map<String, Long> errorsByType = new TreeMap<>();
+        private final boolean openLoop;
+
+        Report(Recorder recorder, Options options) {
+            requests = recorder.latency.getCount();
+            seconds = options.duration / 1e9;
+            latency = recorder.latency;
+            serviceTime = recorder.serviceTime;
+            bytes = recorder.bytes.sum();
+            recorder.codes.forEach((code, count) -> codes.put(code, count.sum()));
+            recorder.errors.forEach((error, count) -> errorsByType.put(error, count.sum()));
+            errors = errorsByType.values().stream().mapToLong(Long::longValue).sum();
+            openLoop = options.rate > 0;
+        }
+
+        double throughput() {
+            return requests / seconds;
+        }
+
+        void print(PrintStream out) {
+            out.printf(Locale.ROOT, "Requests:    %d in %.1f s, %d errors%n", requests, seconds, errors);
+            out.printf(Locale.ROOT, "Throughput:  %.1f requests/s, %.2f MB/s%n", throughput(), bytes / seconds / (1024 * 1024));
+            if (openLoop) {
+                out.println("Latency in ms, from when each request should have been sent:");
+                printLatency(out, latency);
+                out.println("Service time in ms, from when each request was sent, without correcting for coordinated omission:");
+                printLatency(out, serviceTime);
+            } else {
+                out.println("Latency in ms, closed loop so there is no schedule to correct for coordinated omission against, use --rate for that:");
+                printLatency(out, latency);
+            }
+            out.println("Status codes:");
+            codes.forEach((code, count) -> out.printf(Locale.ROOT, "  %d: %d%n", code, count));
+            if (!errorsByType.isEmpty()) {
+                out.println("Errors:");
+                errorsByType.forEach((error, count) -> out.printf(Locale.ROOT, "  %s: %d%n", error, count));
+            }
+        }
+
+        private static void printLatency(PrintStream out, Histogram histogram) {
+            StringBuilder header = new StringBuilder();
+            StringBuilder values = new StringBuilder();
+            for (double percentile : PERCENTILES) {
+                header.append(String.format(Locale.ROOT, "%10s", "p" + (percentile == (long) percentile ? String.valueOf((long) percentile) : String.valueOf(percentile))));
+                values.append(String.format(Locale.ROOT, "%10.3f", histogram.getValueAtPercentile(percentile) / 1e6));
+            }
+            header.append(String.format(Locale.ROOT, "%10s%10s", "max", "mean"));
+            values.append(String.format(Locale.ROOT, "%10.3f%10.3f", histogram.getMax() / 1e6, histogram.getMean() / 1e6));
+            out.println(header);
+            out.println(values);
+        }
+    }
+
+    static class Options {
+        private final List<HttpRequest> requests = new ArrayList<>();
+        private final List<Integer> weights = new ArrayList<>();
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        private int totalWeight;
+        int concurrency = -1;
+        double rate;
+        long duration = TimeUnit.SECONDS.toNanos(30);
+        long warmup = TimeUnit.SECONDS.toNanos(5);
+        long timeout;
+        int nioThreads;
+        int maxConnectionsPerHost = Integer.MAX_VALUE;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + option);
+                }
+                String value = args[++i];
+                try {
+                    switch (option) {
+                        case "--url":
+                            options.request("GET " + value);
+                            break;
+                        case "--request":
+                            options.request(value);
+                            break;
+                        case "--concurrency":
+                            options.concurrency = positive(option, Integer.parseInt(value));
+                            break;
+                        case "--rate":
+                            options.rate = positive(option, Double.parseDouble(value));
+                            break;
+                        case "--duration":
+                            options.duration = (long) (positive(option, Double.parseDouble(value)) * 1e9);
+                            break;
+                        case "--warmup":
+                            options.warmup = (long) (Double.parseDouble(value) * 1e9);
+                            break;
+                        case "--timeout":
+                            options.timeout = Long.parseLong(value);
+                            break;
+                        case "--header":
+                            int colon = value.indexOf(':');
+                            if (colon <= 0) {
+                                throw new IllegalArgumentException("Header must be NAME:VALUE, got " + value);
+                            }
+                            options.headers.put(value.substring(0, colon).trim(), value.substring(colon + 1).trim());
+                            break;
+                        case "--nio":
+                            options.nioThreads = positive(option, Integer.parseInt(value));
+                            break;
+                        case "--max-connections-per-host":
+                            options.maxConnectionsPerHost = positive(option, Integer.parseInt(value));
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown option " + option);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid number for " + option + ": " + value);
+                }
+            }
+            if (options.requests.isEmpty()) {
+                throw new IllegalArgumentException("Need at least one --url or --request");
+            }
+            if (options.warmup < 0 || options.timeout < 0) {
+                throw new IllegalArgumentException("Warmup and timeout cannot be negative");
+            }
+            if (options.concurrency == -1) {
+                options.concurrency = options.rate > 0 ? 1000 : 16;
+            }
+            return options;
+        }
+
+        private static <T extends Number> T positive(String option, T value) {
+            if (value.doubleValue() <= 0) {
+                throw new IllegalArgumentException(option + " must be positive");
+            }
+            return value;
+        }
+
+        private void request(String spec) {
+            String[] parts = spec.trim().split("\\s+", 3);
+            if (parts.length < 2) {
+                throw new IllegalArgumentException("Request must be [WEIGHT*]METHOD URL [JSON], got " + spec);
+            }
+            int weight = 1;
+            String method = parts[0];
+            int star = method.indexOf('*');
+            if (star != -1) {
+                weight = positive("Weight", Integer.parseInt(method.substring(0, star)));
+                method = method.substring(star + 1);
+            }
+            HttpRequest request;
+            switch (method.toUpperCase(Locale.ROOT)) {
+                case "GET":
+                    if (parts.length > 2) {
+                        throw new IllegalArgumentException("GET cannot have a body, got " + spec);
+                    }
+                    request = HttpRequest.GET(parts[1]);
+                    break;
+                case "POST":
+                    request = HttpRequest.POST(parts[1]).json(parts.length > 2 ? parts[2] : "");
+                    break;
+                default:
+                    throw new IllegalArgumentException("Can only send GET and POST, got " + method);
+            }
+            requests.add(request);
+            weights.add(weight);
+            totalWeight += weight;
+        }
+
+        HttpRequest pick() {
+            if (requests.size() == 1) {
+                return requests.get(0);
+            }
+            int target = ThreadLocalRandom.current().nextInt(totalWeight);
+            for (int i = 0; i < requests.size(); i++) {
+                target -= weights.get(i);
+                if (target < 0) {
+                    return requests.get(i);
+                }
+            }
+            return requests.get(requests.size() - 1);
+        }
+
+        HttpClient client() {
+            HttpClient.Builder builder = HttpClient.builder()
+                    .maxConnectionsPerHost(maxConnectionsPerHost)
+                    .timeout(timeout);
+            headers.forEach(builder::header);
+            if (nioThreads > 0) {
+                builder.nioTransport(nioThreads);
+            }
+            return builder.build();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.grunka.httpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Body of a response on the NIO transport. The event loop adds data as it arrives and stops reading from the socket
+ * while the reader is too far behind.
+ */
+class NioBodyStream extends InputStream implements KnownLength {
+    static final int HIGH_WATER_MARK = 256 * 1024;
+    private static final int LOW_WATER_MARK = 64 * 1024;
+
+    private final NioExchange exchange;
+    private final Deque<Chunk> chunks = new ArrayDeque<>();
+    private int offset;
+    private long buffered;
+    private boolean finished;
+    private boolean closed;
+    private boolean paused;
+    private IOException failure;
+    private volatile long contentLength = -1;
+
+    NioBodyStream(NioExchange exchange) {
+        this.exchange = exchange;
+    }
+
+    void contentLength(long contentLength) {
+        this.contentLength = contentLength;
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    /**
+     * @return true if the event loop should stop reading until {@link NioExchange#resume()} is called
+     */
+    synchronized boolean add(ByteBuffer data) {
+        if (closed) {
+            return false;
+        }
+        int length = data.remaining();
+        byte[] chunk = BufferPool.acquire(length);
+        data.get(chunk, 0, length);
+        chunks.addLast(new Chunk(chunk, length));
+        buffered += length;
+        notifyAll();
+        paused = buffered > HIGH_WATER_MARK;
+        return paused;
+    }
+
+    synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    synchronized void fail(IOException failure) {
+        if (!finished) {
+            this.failure = failure;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value;
+        boolean resume;
+        synchronized (this) {
+            if (!awaitData()) {
+                return -1;
+            }
+            Chunk chunk = chunks.peekFirst();
+            value = chunk.data[offset] & 0xff;
+            resume = consumed(chunk, 1);
+        }
+        if (resume) {
+            exchange.resume();
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int read;
+        boolean resume;
+        synchronized (this) {
+            if (!awaitData()) {
+                return -1;
+            }
+            Chunk chunk = chunks.peekFirst();
+            read = Math.min(len, chunk.length - offset);
+            System.arraycopy(chunk.data, offset, b, off, read);
+            resume = consumed(chunk, read);
+        }
+        if (resume) {
+            exchange.resume();
+        }
+        return read;
+    }
+
+    /**
+     * @return false at the end of the body
+     */
+    private boolean awaitData() throws IOException {
+        while (chunks.isEmpty()) {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (finished) {
+                return false;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for response body");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the event loop should start reading again
+     */
+    private boolean consumed(Chunk chunk, int read) {
+        offset += read;
+        if (offset == chunk.length) {
+            chunks.pollFirst();
+            BufferPool.release(chunk.data);
+            offset = 0;
+        }
+        buffered -= read;
+        if (paused && buffered < LOW_WATER_MARK) {
+            paused = false;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized int available() {
+        return (int) Math.min(buffered, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close() {
+        boolean abort;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            abort = !finished;
+            for (Chunk chunk : chunks) {
+                BufferPool.release(chunk.data);
+            }
+            chunks.clear();
+            buffered = 0;
+            notifyAll();
+        }
+        if (abort) {
+            exchange.abort();
+        }
+    }
+
+    private static final class Chunk {
+        final byte[] data;
+        final int length;
+
+        private Chunk(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.grunka.httpclient;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+class NioEventLoop implements Runnable {
+    private static final long TIMEOUT_CHECK_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Set<NioExchange> exchanges = new HashSet<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private volatile boolean closed;
+
+    NioEventLoop(String name) {
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open selector", e);
+        }
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    ByteBuffer readBuffer() {
+        return readBuffer;
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Runs a task on behalf of the exchange, the exchange fails with anything the task throws.
+     */
+    void execute(NioExchange exchange, Runnable task) {
+        execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                fail(exchange, e);
+            }
+        });
+    }
+
+    void register(NioExchange exchange, PooledConnection connection) {
+        if (closed) {
+            // The loop may be gone and would never run the task
+            exchange.fail(new IOException("Client is closed"));
+            return;
+        }
+        execute(exchange, () -> {
+            if (closed) {
+                exchange.fail(new IOException("Client is closed"));
+                return;
+            }
+            exchanges.add(exchange);
+            exchange.start(this, connection);
+        });
+    }
+
+    void deregister(NioExchange exchange) {
+        exchanges.remove(exchange);
+    }
+
+    void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        long nextTimeoutCheck = System.nanoTime() + TIMEOUT_CHECK_INTERVAL;
+        try {
+            while (!closed) {
+                selector.select(TimeUnit.NANOSECONDS.toMillis(TIMEOUT_CHECK_INTERVAL));
+                runTasks();
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    NioExchange exchange = (NioExchange) key.attachment();
+                    try {
+                        exchange.handle(key);
+                    } catch (RuntimeException e) {
+                        fail(exchange, e);
+                    }
+                }
+                long now = System.nanoTime();
+                if (now - nextTimeoutCheck >= 0) {
+                    nextTimeoutCheck = now + TIMEOUT_CHECK_INTERVAL;
+                    for (NioExchange exchange : new HashSet<>(exchanges)) {
+                        try {
+                            exchange.checkTimeout(now);
+                        } catch (RuntimeException e) {
+                            fail(exchange, e);
+                        }
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException ignore) {
+            // Nothing more can be done on this loop, what it has in flight fails below and new exchanges fail at once
+        } finally {
+            closed = true;
+            runTasks();
+            for (NioExchange exchange : new HashSet<>(exchanges)) {
+                exchange.fail(new IOException("Client is closed"));
+            }
+            try {
+                selector.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException ignore) {
+                // Tasks for an exchange fail the exchange themselves, nothing else is waiting for the rest
+            }
+        }
+    }
+
+    private void fail(NioExchange exchange, RuntimeException e) {
+        try {
+            exchange.fail(e);
+        } catch (RuntimeException failed) {
+            // Could not even fail it, stop watching it so that it does not fail over and over
+            deregister(exchange);
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package com.grunka.httpclient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+class NioExchange {
+    private List<InetSocketAddress> addresses;
+    private final NioRequestBody request;
+    private final boolean idempotent;
+    private final Call call;
+    private final boolean keepAlive;
+    private final long connectTimeout;
+    private final long connectAttemptDelay;
+    private final long readTimeout;
+    private final Executor executor;
+    private final ConnectionPool pool;
+    private final String poolKey;
+    private ResponseParser parser = new ResponseParser(this::body);
+    private final NioBodyStream bodyStream = new NioBodyStream(this);
+    final CompletableFuture<Exchange> result = new CompletableFuture<>();
+    private NioEventLoop loop;
+    private PooledConnection connection;
+    private boolean reused;
+    private SocketChannel channel;
+    private boolean connecting;
+    private final List<SelectionKey> attempts = new ArrayList<>(1);
+    private int nextAddress;
+    private long nextAttemptAt;
+    private boolean requestSent;
+    private boolean receiving;
+    private boolean delivered;
+    private boolean done;
+    private boolean pauseRequested;
+    private boolean paused;
+    private long deadline;
+
+    /**
+     * @param addresses           where to connect to unless given a pooled connection
+     * @param idempotent          whether the request may be sent again after it has been sent in full
+     * @param connectAttemptDelay how long to wait for a connection attempt before also trying the next address, 0 to
+     *                            only try the next address when an attempt fails
+     */
+    NioExchange(List<InetSocketAddress> addresses, NioRequestBody request, boolean idempotent, Call call, boolean keepAlive, long connectTimeout, long connectAttemptDelay, long readTimeout, Executor executor, ConnectionPool pool, String poolKey) {
+        this.addresses = addresses;
+        this.request = request;
+        this.idempotent = idempotent;
+        this.call = call;
+        this.keepAlive = keepAlive;
+        this.connectTimeout = TimeUnit.MILLISECONDS.toNanos(connectTimeout);
+        this.connectAttemptDelay = TimeUnit.MILLISECONDS.toNanos(connectAttemptDelay);
+        this.readTimeout = TimeUnit.MILLISECONDS.toNanos(readTimeout);
+        this.executor = executor;
+        this.pool = pool;
+        this.poolKey = poolKey;
+    }
+
+    void start(NioEventLoop loop, PooledConnection connection) {
+        this.loop = loop;
+        try {
+            request.open(loop, this);
+        } catch (IOException e) {
+            if (connection != null) {
+                // The connection was never used so it can go back as it is
+                done = true;
+                loop.deregister(this);
+                pool.release(poolKey, connection);
+                executor.execute(() -> result.completeExceptionally(e));
+            } else {
+                fail(e);
+            }
+            return;
+        }
+        if (connection != null) {
+            this.connection = connection;
+            // Should the server have closed it, a new connection goes to the same address
+            addresses = List.of(connection.address);
+            reused = true;
+            channel = connection.channel;
+            connection.selectionKey.attach(this);
+            connection.selectionKey.interestOps(SelectionKey.OP_WRITE);
+            resetDeadline(readTimeout);
+        } else {
+            connect();
+        }
+    }
+
+    /**
+     * Connects to the first address that answers. Addresses are tried in order, the next one when an attempt fails or
+     * has not succeeded within the connect attempt delay while the earlier attempts keep going. The connect timeout
+     * covers all attempts.
+     */
+    private void connect() {
+        connecting = true;
+        nextAddress = 0;
+        resetDeadline(connectTimeout);
+        startAttempt();
+    }
+
+    private void startAttempt() {
+        InetSocketAddress address = addresses.get(nextAddress++);
+        nextAttemptAt = connectAttemptDelay > 0 && nextAddress < addresses.size() ? System.nanoTime() + connectAttemptDelay : 0;
+        SocketChannel attempt = null;
+        try {
+            attempt = SocketChannel.open();
+            attempt.configureBlocking(false);
+            attempt.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            if (attempt.connect(address)) {
+                connected(attempt.register(loop.selector(), 0, this), address);
+            } else {
+                attempts.add(attempt.register(loop.selector(), SelectionKey.OP_CONNECT, this));
+            }
+        } catch (IOException e) {
+            if (attempt != null) {
+                close(attempt);
+            }
+            attemptFailed(e);
+        }
+    }
+
+    private void attemptFailed(IOException e) {
+        if (!attempts.isEmpty()) {
+            return;
+        }
+        if (nextAddress < addresses.size()) {
+            startAttempt();
+        } else {
+            fail(e);
+        }
+    }
+
+    private void connected(SelectionKey key, InetSocketAddress address) {
+        for (SelectionKey attempt : attempts) {
+            if (attempt != key) {
+                close(attempt.channel());
+            }
+        }
+        attempts.clear();
+        connecting = false;
+        nextAttemptAt = 0;
+        channel = (SocketChannel) key.channel();
+        connection = new PooledConnection(loop, address, channel, key);
+        call.connected();
+        key.interestOps(SelectionKey.OP_WRITE);
+        resetDeadline(readTimeout);
+    }
+
+    void handle(SelectionKey key) {
+        try {
+            if (connecting) {
+                if (key.isValid() && key.isConnectable()) {
+                    SocketChannel attempt = (SocketChannel) key.channel();
+                    try {
+                        if (attempt.finishConnect()) {
+                            connected(key, (InetSocketAddress) attempt.getRemoteAddress());
+                        }
+                    } catch (IOException e) {
+                        attempts.remove(key);
+                        close(attempt);
+                        attemptFailed(e);
+                    }
+                }
+                return;
+            }
+            if (key.isValid() && key.isWritable()) {
+                NioRequestBody.Progress progress = request.write(channel);
+                if (progress == NioRequestBody.Progress.COMPLETE) {
+                    requestSent = true;
+                    call.requestSent();
+                    key.interestOps(SelectionKey.OP_READ);
+                    resetDeadline(readTimeout);
+                } else if (progress == NioRequestBody.Progress.WAITING_FOR_SOURCE) {
+                    // Nothing to time out on while the body is being read from its source
+                    key.interestOps(0);
+                    deadline = 0;
+                } else {
+                    resetDeadline(readTimeout);
+                }
+            }
+            if (key.isValid() && key.isReadable()) {
+                ByteBuffer buffer = loop.readBuffer();
+                buffer.clear();
+                int read = channel.read(buffer);
+                if (read == -1) {
+                    parser.endOfStream();
+                    deliver();
+                    finish(false);
+                    return;
+                }
+                buffer.flip();
+                resetDeadline(readTimeout);
+                if (!receiving && read > 0) {
+                    receiving = true;
+                    call.firstByte();
+                }
+                boolean complete = parser.feed(buffer);
+                if (!delivered && parser.headersComplete()) {
+                    deliver();
+                }
+                if (complete) {
+                    finish(!buffer.hasRemaining());
+                } else if (pauseRequested) {
+                    pauseRequested = false;
+                    paused = true;
+                    key.interestOps(0);
+                    deadline = 0;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    void checkTimeout(long now) {
+        if (connecting && nextAttemptAt != 0 && now - nextAttemptAt >= 0) {
+            startAttempt();
+        }
+        if (deadline != 0 && now - deadline >= 0) {
+            fail(new SocketTimeoutException(connecting ? "Connect timed out" : "Read timed out"));
+        }
+    }
+
+    void fail(Throwable throwable) {
+        if (done) {
+            return;
+        }
+        if (isStaleConnection(throwable)) {
+            // The server closed the kept alive connection before we got to use it, try again on a new one
+            reused = false;
+            requestSent = false;
+            closeChannel();
+            parser = new ResponseParser(this::body);
+            try {
+                request.reopen();
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            connect();
+            return;
+        }
+        done = true;
+        if (loop != null) {
+            loop.deregister(this);
+        }
+        request.close();
+        closeChannel();
+        pool.release(poolKey, null);
+        Throwable failure = asSocketException(throwable);
+        if (delivered) {
+            bodyStream.fail(failure instanceof IOException ? (IOException) failure : new IOException(failure));
+        } else {
+            executor.execute(() -> result.completeExceptionally(failure));
+        }
+    }
+
+    /**
+     * A reused connection that fails before any of the response arrives was most likely closed by the server while it
+     * was idle. Sending the request again is only safe if the server cannot have acted on it, because it never got all
+     * of it or because doing it twice does no harm. Timeouts are never retried, the server may just be slow.
+     */
+    private boolean isStaleConnection(Throwable throwable) {
+        if (!reused || parser.hasReceived() || !(throwable instanceof IOException) || throwable instanceof SocketTimeoutException) {
+            return false;
+        }
+        return idempotent || !requestSent;
+    }
+
+    /**
+     * Called by the body stream when the reader has caught up after the event loop stopped reading.
+     */
+    void resume() {
+        loop.execute(this, () -> {
+            if (!done && paused) {
+                paused = false;
+                connection.selectionKey.interestOps(SelectionKey.OP_READ);
+                resetDeadline(readTimeout);
+            }
+        });
+    }
+
+    void requestReady() {
+        if (!done) {
+            connection.selectionKey.interestOps(SelectionKey.OP_WRITE);
+            resetDeadline(readTimeout);
+        }
+    }
+
+    /**
+     * Called by the body stream when it is closed before the whole body has been read.
+     */
+    void abort() {
+        loop.execute(this, () -> {
+            if (!done) {
+                done = true;
+                loop.deregister(this);
+                request.close();
+                closeChannel();
+                pool.release(poolKey, null);
+            }
+        });
+    }
+
+    /**
+     * Called on the event loop when the call is aborted, fails the request or the reading of the body with the cause.
+     */
+    void cancel(Throwable cause) {
+        if (done) {
+            return;
+        }
+        done = true;
+        loop.deregister(this);
+        request.close();
+        closeChannel();
+        pool.release(poolKey, null);
+        if (delivered) {
+            bodyStream.fail(cause instanceof IOException ? (IOException) cause : new IOException(cause));
+        } else {
+            executor.execute(() -> result.completeExceptionally(cause));
+        }
+    }
+
+    private void body(ByteBuffer data) {
+        if (bodyStream.add(data)) {
+            pauseRequested = true;
+        }
+    }
+
+    private void deliver() {
+        if (delivered) {
+            return;
+        }
+        delivered = true;
+        bodyStream.contentLength(parser.contentLength());
+        Exchange exchange = new Exchange(parser.code(), parser.headers(), bodyStream);
+        executor.execute(() -> result.complete(exchange));
+    }
+
+    private void finish(boolean connectionReusable) {
+        done = true;
+        loop.deregister(this);
+        request.close();
+        // Give back the connection before the reader sees the end of the body, so a follow up request can reuse it
+        if (keepAlive && connectionReusable && parser.keepAlive()) {
+            pool.release(poolKey, connection);
+        } else {
+            closeChannel();
+            pool.release(poolKey, null);
+        }
+        bodyStream.finish();
+    }
+
+    private void resetDeadline(long timeout) {
+        deadline = timeout > 0 ? System.nanoTime() + timeout : 0;
+    }
+
+    private void closeChannel() {
+        for (SelectionKey attempt : attempts) {
+            close(attempt.channel());
+        }
+        attempts.clear();
+        if (channel != null) {
+            close(channel);
+        }
+    }
+
+    private static void close(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private static Throwable asSocketException(Throwable throwable) {
+        // Channels report resets and broken pipes as plain IOExceptions where sockets use SocketException
+        if (throwable.getClass() != IOException.class) {
+            return throwable;
+        }
+        SocketException socketException = new SocketException(throwable.getMessage());
+        socketException.initCause(throwable);
+        return socketException;
+    }
+}
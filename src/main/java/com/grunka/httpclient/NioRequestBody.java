@@ -0,0 +1,212 @@
+package com.grunka.httpclient;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+
+/**
+ * Writes the request head and body of an exchange to a non-blocking socket. In memory bodies are written together
+ * with the head, files are transferred straight from the file channel and any other body is read on the executor so
+ * the event loop never blocks on it.
+ */
+class NioRequestBody {
+    enum Progress {
+        COMPLETE, SOCKET_FULL, WAITING_FOR_SOURCE
+    }
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    // Room for the largest chunk size in hex followed by CRLF
+    private static final int CHUNK_HEADER_SPACE = 8;
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final ByteBuffer head;
+    private final BodyPublisher publisher;
+    private final Executor executor;
+    private final boolean chunked;
+    private NioEventLoop loop;
+    private NioExchange exchange;
+    private ByteBuffer[] memory;
+    private FileChannel file;
+    private long filePosition;
+    private ReadableByteChannel source;
+    private ByteBuffer staging;
+    private long sourceRead;
+    private boolean sourceEnded;
+    private boolean filling;
+    private IOException sourceFailure;
+    private int generation;
+
+    NioRequestBody(ByteBuffer head, BodyPublisher publisher, Executor executor) {
+        this.head = head;
+        this.publisher = publisher;
+        this.executor = executor;
+        chunked = publisher != null && publisher.contentLength() < 0;
+    }
+
+    /**
+     * Prepares the body for writing, must be called on the event loop before the first write.
+     *
+     * @param exchange told on the event loop when a body that was waiting for its source can be written again
+     */
+    void open(NioEventLoop loop, NioExchange exchange) throws IOException {
+        this.loop = loop;
+        this.exchange = exchange;
+        head.rewind();
+        if (publisher instanceof BodyPublishers.ByteBufferPublisher) {
+            memory = new ByteBuffer[]{head, ((BodyPublishers.ByteBufferPublisher) publisher).content()};
+        } else if (publisher instanceof BodyPublishers.FilePublisher) {
+            file = ((BodyPublishers.FilePublisher) publisher).open();
+            filePosition = 0;
+        }
+    }
+
+    /**
+     * Closes the body and opens it again so it can be written from the start on another connection.
+     */
+    void reopen() throws IOException {
+        close();
+        staging = null;
+        sourceRead = 0;
+        sourceEnded = false;
+        sourceFailure = null;
+        open(loop, exchange);
+    }
+
+    Progress write(SocketChannel channel) throws IOException {
+        if (memory != null) {
+            channel.write(memory);
+            return memory[1].hasRemaining() ? Progress.SOCKET_FULL : Progress.COMPLETE;
+        }
+        if (head.hasRemaining()) {
+            channel.write(head);
+            if (head.hasRemaining()) {
+                return Progress.SOCKET_FULL;
+            }
+        }
+        if (publisher == null) {
+            return Progress.COMPLETE;
+        }
+        if (file != null) {
+            return writeFile(channel);
+        }
+        if (staging != null) {
+            channel.write(staging);
+            if (staging.hasRemaining()) {
+                return Progress.SOCKET_FULL;
+            }
+            staging = null;
+        }
+        if (sourceFailure != null) {
+            throw sourceFailure;
+        }
+        if (sourceEnded) {
+            return Progress.COMPLETE;
+        }
+        if (!filling) {
+            fill();
+        }
+        return Progress.WAITING_FOR_SOURCE;
+    }
+
+    private Progress writeFile(SocketChannel channel) throws IOException {
+        long length = publisher.contentLength();
+        while (filePosition < length) {
+            long transferred = file.transferTo(filePosition, length - filePosition, channel);
+            if (transferred == 0) {
+                if (filePosition >= file.size()) {
+                    throw new EOFException("File ended after " + filePosition + " of " + length + " bytes");
+                }
+                return Progress.SOCKET_FULL;
+            }
+            filePosition += transferred;
+        }
+        return Progress.COMPLETE;
+    }
+
+    private void fill() {
+        filling = true;
+        int generation = this.generation;
+        ReadableByteChannel current = source;
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_HEADER_SPACE + CHUNK_SIZE + 2);
+        executor.execute(() -> {
+            ReadableByteChannel channel = current;
+            IOException failure = null;
+            int read = 0;
+            try {
+                if (channel == null) {
+                    channel = publisher.open();
+                }
+                buffer.position(CHUNK_HEADER_SPACE).limit(CHUNK_HEADER_SPACE + CHUNK_SIZE);
+                while ((read = channel.read(buffer)) == 0) {
+                    Thread.onSpinWait();
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            ReadableByteChannel opened = channel;
+            IOException failed = failure;
+            int length = read;
+            loop.execute(exchange, () -> filled(generation, opened, buffer, length, failed));
+        });
+    }
+
+    private void filled(int generation, ReadableByteChannel channel, ByteBuffer buffer, int read, IOException failure) {
+        if (generation != this.generation) {
+            // The body was closed or reopened while the source was read
+            closeQuietly(channel);
+            return;
+        }
+        filling = false;
+        source = channel;
+        if (failure != null) {
+            sourceFailure = failure;
+        } else if (read == -1) {
+            sourceEnded = true;
+            long expected = publisher.contentLength();
+            if (chunked) {
+                staging = ByteBuffer.wrap(LAST_CHUNK);
+            } else if (sourceRead != expected) {
+                sourceFailure = new EOFException("Body ended after " + sourceRead + " of " + expected + " bytes");
+            }
+        } else {
+            sourceRead += read;
+            if (chunked) {
+                byte[] size = (Integer.toHexString(read) + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+                buffer.limit(buffer.capacity());
+                buffer.put((byte) '\r').put((byte) '\n');
+                buffer.flip();
+                buffer.position(CHUNK_HEADER_SPACE - size.length);
+                buffer.duplicate().put(size);
+            } else {
+                buffer.flip();
+                buffer.position(CHUNK_HEADER_SPACE);
+            }
+            staging = buffer;
+        }
+        exchange.requestReady();
+    }
+
+    void close() {
+        generation++;
+        filling = false;
+        closeQuietly(file);
+        closeQuietly(source);
+        file = null;
+        source = null;
+        memory = null;
+    }
+
+    private static void closeQuietly(ReadableByteChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
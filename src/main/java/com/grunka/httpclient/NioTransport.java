@@ -0,0 +1,286 @@
+package com.grunka.httpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+class NioTransport implements Transport {
+    private static final int MAX_REDIRECTS = 20;
+
+    private final HttpClient client;
+    private final NioEventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    NioTransport(HttpClient client, int eventLoopThreads) {
+        this.client = client;
+        loops = new NioEventLoop[eventLoopThreads];
+        for (int i = 0; i < eventLoopThreads; i++) {
+            loops[i] = new NioEventLoop("httpclient-nio-" + (i + 1));
+        }
+    }
+
+    @Override
+    public CompletableFuture<Exchange> execute(HttpRequest request, Call call) {
+        RequestTemplate template = request.template;
+        if (template != null && "http".equals(template.scheme)) {
+            switch (request.type) {
+                case GET:
+                    return send(request, call, template.host, template.port, template.poolKey, encodeRequestHead(request, template, "GET", null), () -> URI.create(request.url), "GET", null, 0);
+                case POST:
+                    BodyPublisher body = client.requestBody(request);
+                    return send(request, call, template.host, template.port, template.poolKey, encodeRequestHead(request, template, "POST", body), () -> URI.create(request.url), "POST", body, 0);
+                default:
+                    throw new IllegalArgumentException("Can only handle GET and POST");
+            }
+        }
+        URI uri;
+        try {
+            uri = new URI(request.url);
+        } catch (URISyntaxException e) {
+            return CompletableFuture.failedFuture(new MalformedURLException(e.getMessage()));
+        }
+        switch (request.type) {
+            case GET:
+                return execute(request, call, uri, "GET", null, 0);
+            case POST:
+                return execute(request, call, uri, "POST", client.requestBody(request), 0);
+            default:
+                throw new IllegalArgumentException("Can only handle GET and POST");
+        }
+    }
+
+    private CompletableFuture<Exchange> execute(HttpRequest request, Call call, URI uri, String method, BodyPublisher body, int redirects) {
+        if (!"http".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) {
+            return CompletableFuture.failedFuture(new MalformedURLException("NIO transport only supports plain http URLs, got " + uri));
+        }
+        ByteBuffer requestHead = encodeRequestHead(request, uri, method, body);
+        String host = uri.getHost();
+        int port = uri.getPort() == -1 ? 80 : uri.getPort();
+        return send(request, call, host, port, host + ":" + port, requestHead, () -> uri, method, body, redirects);
+    }
+
+    private CompletableFuture<Exchange> send(HttpRequest request, Call call, String host, int port, String poolKey, ByteBuffer requestHead, Supplier<URI> uri, String method, BodyPublisher body, int redirects) {
+        return client.connectionPool.acquire(poolKey)
+                .thenCompose(connection -> {
+                    if (connection != null) {
+                        return exchange(request, call, requestHead, method, body, null, poolKey, connection.loop, connection);
+                    }
+                    return CompletableFuture.supplyAsync(() -> resolve(host, port), client.executor)
+                            .<CompletableFuture<Exchange>>handle((addresses, e) -> {
+                                if (e != null) {
+                                    client.connectionPool.release(poolKey, null);
+                                    return CompletableFuture.failedFuture(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                                }
+                                return exchange(request, call, requestHead, method, body, addresses, poolKey, loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)], null);
+                            })
+                            .thenCompose(x -> x);
+                })
+                .thenCompose(response -> {
+                    String location = isRedirect(response.code()) ? response.header("Location") : null;
+                    if (location != null && redirects < MAX_REDIRECTS) {
+                        closeQuietly(response.body());
+                        URI target;
+                        try {
+                            target = uri.get().resolve(location);
+                        } catch (IllegalArgumentException e) {
+                            return CompletableFuture.failedFuture(new MalformedURLException("Invalid redirect location " + location));
+                        }
+                        if (response.code() == 307 || response.code() == 308) {
+                            return execute(request, call, target, method, body, redirects + 1);
+                        }
+                        return execute(request, call, target, "GET", null, redirects + 1);
+                    }
+                    return CompletableFuture.completedFuture(response);
+                });
+    }
+
+    /**
+     * @return the addresses of the host with the address families taking turns, so that if one family does not work
+     * the other one is tried next rather than after all addresses of the first
+     */
+    private List<InetSocketAddress> resolve(String host, int port) {
+        List<InetAddress> resolved;
+        try {
+            resolved = client.resolver.resolve(host);
+        } catch (UnknownHostException e) {
+            throw new CompletionException(e);
+        }
+        if (resolved.isEmpty()) {
+            throw new CompletionException(new UnknownHostException(host));
+        }
+        Class<?> firstFamily = resolved.get(0).getClass();
+        Deque<InetAddress> first = new ArrayDeque<>();
+        Deque<InetAddress> other = new ArrayDeque<>();
+        for (InetAddress address : resolved) {
+            (address.getClass() == firstFamily ? first : other).add(address);
+        }
+        List<InetSocketAddress> addresses = new ArrayList<>(resolved.size());
+        while (!first.isEmpty() || !other.isEmpty()) {
+            if (!first.isEmpty()) {
+                addresses.add(new InetSocketAddress(first.poll(), port));
+            }
+            if (!other.isEmpty()) {
+                addresses.add(new InetSocketAddress(other.poll(), port));
+            }
+        }
+        return addresses;
+    }
+
+    private static void closeQuietly(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private CompletableFuture<Exchange> exchange(HttpRequest request, Call call, ByteBuffer requestHead, String method, BodyPublisher body, List<InetSocketAddress> addresses, String poolKey, NioEventLoop loop, PooledConnection connection) {
+        Throwable abortCause = call.abortCause();
+        if (abortCause != null) {
+            client.connectionPool.release(poolKey, connection);
+            return CompletableFuture.failedFuture(abortCause);
+        }
+        call.connectionAcquired(connection != null);
+        NioExchange exchange = new NioExchange(addresses, new NioRequestBody(requestHead, body, client.executor), isIdempotent(method), call, !request.disconnect, client.connectTimeout(request), client.connectAttemptDelay, client.readTimeout(request), client.executor, client.connectionPool, poolKey);
+        loop.register(exchange, connection);
+        call.onAbort(cause -> loop.execute(exchange, () -> exchange.cancel(cause)));
+        return exchange.result;
+    }
+
+    private static boolean isIdempotent(String method) {
+        switch (method) {
+            case "GET":
+            case "HEAD":
+            case "PUT":
+            case "DELETE":
+            case "OPTIONS":
+            case "TRACE":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isRedirect(int code) {
+        return code == 301 || code == 302 || code == 303 || code == 307 || code == 308;
+    }
+
+    private ByteBuffer encodeRequestHead(HttpRequest request, URI uri, String method, BodyPublisher body) {
+        StringBuilder head = new StringBuilder(256);
+        head.append(method).append(' ');
+        String path = uri.getRawPath();
+        head.append(path == null || path.isEmpty() ? "/" : path);
+        if (uri.getRawQuery() != null) {
+            head.append('?').append(uri.getRawQuery());
+        }
+        head.append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(uri.getHost());
+        if (uri.getPort() != -1) {
+            head.append(':').append(uri.getPort());
+        }
+        head.append("\r\n");
+        appendFixedHeaders(head, request);
+        appendBodyHeaders(head, request, body);
+        head.append("\r\n");
+        return ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Only the request line and the body headers are encoded per request, the rest of the head is serialized once
+     * per template.
+     */
+    private ByteBuffer encodeRequestHead(HttpRequest request, RequestTemplate template, String method, BodyPublisher body) {
+        byte[] fixedHeaders = template.serializedHeaders(this, () -> {
+            StringBuilder head = new StringBuilder(256);
+            appendHeader(head, "Host", template.hostHeader);
+            appendFixedHeaders(head, request);
+            return head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        });
+        String url = request.url;
+        StringBuilder head = new StringBuilder(128 + url.length() - template.pathStart);
+        head.append(method).append(' ');
+        if (template.pathStart == url.length() || url.charAt(template.pathStart) != '/') {
+            head.append('/');
+        }
+        head.append(url, template.pathStart, url.length()).append(" HTTP/1.1\r\n");
+        int requestLineLength = head.length();
+        appendBodyHeaders(head, request, body);
+        head.append("\r\n");
+        ByteBuffer buffer = ByteBuffer.allocate(head.length() + fixedHeaders.length);
+        putLatin1(buffer, head, 0, requestLineLength);
+        buffer.put(fixedHeaders);
+        putLatin1(buffer, head, requestLineLength, head.length());
+        return buffer.flip();
+    }
+
+    private void appendFixedHeaders(StringBuilder head, HttpRequest request) {
+        client.headers.forEach((name, value) -> {
+            if (!request.headers.containsKey(name)) {
+                appendHeader(head, name, value);
+            }
+        });
+        request.headers.forEach((name, value) -> appendHeader(head, name, value));
+        appendDefaultHeader(head, request, "User-Agent", client.userAgent(request));
+        appendDefaultHeader(head, request, "Accept", request.accept);
+        appendDefaultHeader(head, request, "Accept-Encoding", client.acceptEncoding(request));
+    }
+
+    /**
+     * Appends a header the client always sends, unless the request has a header of its own with the same name.
+     */
+    private static void appendDefaultHeader(StringBuilder head, HttpRequest request, String name, String value) {
+        if (value != null && !request.headers.containsKey(name)) {
+            appendHeader(head, name, value);
+        }
+    }
+
+    private static void appendBodyHeaders(StringBuilder head, HttpRequest request, BodyPublisher body) {
+        if (body != null) {
+            appendHeader(head, "Content-Type", request.contentTypeHeader());
+            if (body.contentEncoding() != null) {
+                appendHeader(head, "Content-Encoding", body.contentEncoding());
+            }
+            long contentLength = body.contentLength();
+            if (contentLength >= 0) {
+                appendHeader(head, "Content-Length", String.valueOf(contentLength));
+            } else {
+                appendHeader(head, "Transfer-Encoding", "chunked");
+            }
+        }
+        if (request.disconnect) {
+            appendHeader(head, "Connection", "close");
+        }
+    }
+
+    private static void putLatin1(ByteBuffer buffer, CharSequence chars, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            buffer.put(c > 0xFF ? (byte) '?' : (byte) c);
+        }
+    }
+
+    private static void appendHeader(StringBuilder head, String name, String value) {
+        head.append(name).append(": ").append(value).append("\r\n");
+    }
+
+    @Override
+    public void close() {
+        for (NioEventLoop loop : loops) {
+            loop.close();
+        }
+    }
+}
@@ -1,21 +1,39 @@
 package com.grunka.httpclient;
 
-import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
+/**
+ * Parameters encoded as application/x-www-form-urlencoded, the same way as {@link java.net.URLEncoder} does with
+ * UTF-8. By default the parameters are sorted by name, use {@link #inInsertionOrder()} to keep the order they were
+ * added in.
+ */
 public class Parameters {
-	private final Map<String, List<String>> parameters = new TreeMap<>();
+	private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
 
-	public Parameters() {}
+	private final Map<String, List<String>> parameters;
+
+	public Parameters() {
+		this(false);
+	}
 
 	public Parameters(Map<String, String> parameters) {
+		this();
 		addAll(parameters);
 	}
 
+	private Parameters(boolean insertionOrder) {
+		parameters = insertionOrder ? new LinkedHashMap<>() : new TreeMap<>();
+	}
+
+	public static Parameters inInsertionOrder() {
+		return new Parameters(true);
+	}
+
 	public void addAll(Map<String, String> parameters) {
 		for (Map.Entry<String, String> entry : parameters.entrySet()) {
 			add(entry.getKey(), entry.getValue());
@@ -27,22 +45,101 @@ public class Parameters {
 		return this;
 	}
 
+	public boolean isEmpty() {
+		return parameters.isEmpty();
+	}
+
 	@Override
 	public String toString() {
-		StringBuilder content = new StringBuilder();
+		return new String(toByteArray(), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @return the encoded parameters, which are always plain ASCII
+	 */
+	byte[] toByteArray() {
+		int length = -1;
 		for (Map.Entry<String, List<String>> parameterEntry : parameters.entrySet()) {
-			String key = encode(parameterEntry.getKey());
+			int keyLength = encodedLength(parameterEntry.getKey());
 			for (String value : parameterEntry.getValue()) {
-				content.append(key).append("=").append(encode(value)).append("&");
+				length += keyLength + encodedLength(value) + 2;
 			}
 		}
-		if (content.length() > 0) {
-			content.setLength(content.length() - 1);
+		byte[] content = new byte[Math.max(length, 0)];
+		int position = 0;
+		for (Map.Entry<String, List<String>> parameterEntry : parameters.entrySet()) {
+			for (String value : parameterEntry.getValue()) {
+				if (position > 0) {
+					content[position++] = '&';
+				}
+				position = encode(parameterEntry.getKey(), content, position);
+				content[position++] = '=';
+				position = encode(value, content, position);
+			}
+		}
+		return content;
+	}
+
+	private static int encodedLength(String value) {
+		int length = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (isUnescaped(c) || c == ' ') {
+				length += 1;
+			} else if (c < 0x80) {
+				length += 3;
+			} else if (c < 0x800) {
+				length += 6;
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+				length += 12;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				length += 3;
+			} else {
+				length += 9;
+			}
 		}
-		return content.toString();
+		return length;
+	}
+
+	private static int encode(String value, byte[] target, int position) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (isUnescaped(c)) {
+				target[position++] = (byte) c;
+			} else if (c == ' ') {
+				target[position++] = '+';
+			} else if (c < 0x80) {
+				position = escape(c, target, position);
+			} else if (c < 0x800) {
+				position = escape(0xC0 | (c >> 6), target, position);
+				position = escape(0x80 | (c & 0x3F), target, position);
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				position = escape(0xF0 | (codePoint >> 18), target, position);
+				position = escape(0x80 | ((codePoint >> 12) & 0x3F), target, position);
+				position = escape(0x80 | ((codePoint >> 6) & 0x3F), target, position);
+				position = escape(0x80 | (codePoint & 0x3F), target, position);
+			} else if (Character.isSurrogate(c)) {
+				// Unpaired surrogates cannot be encoded, like the UTF-8 encoder they are replaced with a question mark
+				position = escape('?', target, position);
+			} else {
+				position = escape(0xE0 | (c >> 12), target, position);
+				position = escape(0x80 | ((c >> 6) & 0x3F), target, position);
+				position = escape(0x80 | (c & 0x3F), target, position);
+			}
+		}
+		return position;
+	}
+
+	private static int escape(int b, byte[] target, int position) {
+		target[position] = '%';
+		target[position + 1] = HEX[(b >> 4) & 0xF];
+		target[position + 2] = HEX[b & 0xF];
+		return position + 3;
 	}
 
-	private String encode(String value) {
-		return URLEncoder.encode(value, StandardCharsets.UTF_8);
+	private static boolean isUnescaped(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '*' || c == '_';
 	}
 }
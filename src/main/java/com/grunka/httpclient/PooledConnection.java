@@ -0,0 +1,51 @@
+package com.grunka.httpclient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+class PooledConnection {
+    final NioEventLoop loop;
+    final InetSocketAddress address;
+    final SocketChannel channel;
+    final SelectionKey selectionKey;
+    private long idleSince;
+
+    PooledConnection(NioEventLoop loop, InetSocketAddress address, SocketChannel channel, SelectionKey selectionKey) {
+        this.loop = loop;
+        this.address = address;
+        this.channel = channel;
+        this.selectionKey = selectionKey;
+    }
+
+    void idle(long now) {
+        selectionKey.interestOps(0);
+        selectionKey.attach(null);
+        idleSince = now;
+    }
+
+    boolean idleLongerThan(long nanos, long now) {
+        return now - idleSince > nanos;
+    }
+
+    boolean isUsable() {
+        if (!channel.isOpen() || !selectionKey.isValid()) {
+            return false;
+        }
+        try {
+            // An idle connection should have nothing to read, end of stream means the server closed it
+            return channel.read(ByteBuffer.allocate(1)) == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+        }
+    }
+}
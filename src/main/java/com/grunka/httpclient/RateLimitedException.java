@@ -0,0 +1,16 @@
+package com.grunka.httpclient;
+
+import java.io.IOException;
+
+/**
+ * A request failed without being sent because it would have had to wait too long for its rate limit.
+ *
+ * @see RateLimiter
+ */
+public class RateLimitedException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public RateLimitedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,377 @@
+package com.grunka.httpclient;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Paces requests with token buckets so that they stay within the rates upstreams allow, instead of going over and
+ * getting answered with 429. A bucket fills up with permits at its rate, holds at most its burst of them and every
+ * request takes one. Buckets can be set up for every host and port, for single hosts and for tags set with
+ * {@link HttpRequest#tag(String)}, and a request takes a permit from each bucket that applies to it.
+ * <p>
+ * A request that finds a bucket empty reserves the next permit and waits for it without holding a thread, as long as
+ * the wait is at most the max wait, otherwise it fails at once with a {@link RateLimitedException}. A max wait of zero
+ * makes every request fail instead of waiting. Waiting requests go in the order they arrived.
+ * <p>
+ * Every attempt made by retries and hedging takes a permit of its own, responses served from the cache do not.
+ */
+public final class RateLimiter {
+    private final Limit hostLimit;
+    private final long maxWait;
+    private final LongSupplier nanoClock;
+    private final Map<String, Bucket> hostBuckets = new ConcurrentHashMap<>();
+    private final Map<String, Bucket> tagBuckets = new HashMap<>();
+    private final Histogram waitTime = new Histogram();
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private RateLimiter(Builder builder) {
+        hostLimit = builder.hostLimit;
+        maxWait = TimeUnit.MILLISECONDS.toNanos(builder.maxWait);
+        nanoClock = builder.nanoClock;
+        long now = nanoClock.getAsLong();
+        builder.hostLimits.forEach((host, limit) -> hostBuckets.put(host, new Bucket("host " + host, limit, now)));
+        builder.tagLimits.forEach((tag, limit) -> tagBuckets.put(tag, new Bucket("tag " + tag, limit, now)));
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    CompletableFuture<Exchange> execute(HttpRequest request, Call call, Supplier<CompletableFuture<Exchange>> attempt, ScheduledExecutorService scheduler) {
+        Bucket host = hostBucket(request);
+        Bucket tag = tagBucket(request);
+        if (host == null && tag == null) {
+            return attempt.get();
+        }
+        long wait;
+        try {
+            wait = reserve(host, tag, maxWait);
+        } catch (RateLimitedException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        waitTime.record(wait);
+        if (wait == 0) {
+            return attempt.get();
+        }
+        Waiter waiter = new Waiter(host, tag, attempt);
+        waiting.incrementAndGet();
+        try {
+            waiter.timer = scheduler.schedule(waiter::send, wait, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            waiting.decrementAndGet();
+            refund(host, tag);
+            return CompletableFuture.failedFuture(e);
+        }
+        // A request that is cancelled or times out while waiting gives its permits back
+        call.onAbort(waiter::abort);
+        return waiter.result;
+    }
+
+    /**
+     * Takes the permits for the request if they are there right away, for pacing work done outside the client.
+     *
+     * @return false if the request would have had to wait, which counts as a rejection
+     */
+    public boolean tryAcquire(HttpRequest request) {
+        try {
+            reserve(hostBucket(request), tagBucket(request), 0);
+            return true;
+        } catch (RateLimitedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Takes the permits for the request, blocking the thread until they are there if that is within the max wait.
+     *
+     * @return false without waiting if the request would have had to wait longer than the max wait
+     */
+    public boolean acquire(HttpRequest request) throws InterruptedException {
+        Bucket host = hostBucket(request);
+        Bucket tag = tagBucket(request);
+        long wait;
+        try {
+            wait = reserve(host, tag, maxWait);
+        } catch (RateLimitedException e) {
+            return false;
+        }
+        if (wait > 0) {
+            waiting.incrementAndGet();
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                refund(host, tag);
+                throw e;
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the time in nanoseconds that requests sent by the client had to wait for their permits, including the
+     * zero waits of the ones that did not have to, permits taken with {@link #tryAcquire} and {@link #acquire} are not
+     * included
+     */
+    public Histogram getWaitTime() {
+        return waitTime;
+    }
+
+    /**
+     * @return the number of requests that failed because they would have had to wait too long
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the number of requests waiting for their permits right now
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    private Bucket hostBucket(HttpRequest request) {
+        if (hostLimit == null && hostBuckets.isEmpty()) {
+            return null;
+        }
+        String host = CircuitBreaker.host(request);
+        Bucket bucket = hostBuckets.get(host);
+        if (bucket == null && hostLimit != null) {
+            bucket = hostBuckets.computeIfAbsent(host, h -> new Bucket("host " + h, hostLimit, nanoClock.getAsLong()));
+        }
+        return bucket;
+    }
+
+    private Bucket tagBucket(HttpRequest request) {
+        return request.tag == null ? null : tagBuckets.get(request.tag);
+    }
+
+    /**
+     * @return the nanoseconds to wait until all the permits are there
+     */
+    private long reserve(Bucket host, Bucket tag, long maxWait) throws RateLimitedException {
+        if (host == null && tag == null) {
+            return 0;
+        }
+        long now = nanoClock.getAsLong();
+        long wait = 0;
+        if (host != null) {
+            wait = host.reserve(now, maxWait);
+            if (wait < 0) {
+                throw rejected(host);
+            }
+        }
+        if (tag != null) {
+            long tagWait = tag.reserve(now, maxWait);
+            if (tagWait < 0) {
+                if (host != null) {
+                    host.refund(now);
+                }
+                throw rejected(tag);
+            }
+            wait = Math.max(wait, tagWait);
+        }
+        return wait;
+    }
+
+    private RateLimitedException rejected(Bucket bucket) {
+        rejected.increment();
+        return new RateLimitedException("Rate limit of " + bucket.name + " reached");
+    }
+
+    private void refund(Bucket host, Bucket tag) {
+        long now = nanoClock.getAsLong();
+        if (host != null) {
+            host.refund(now);
+        }
+        if (tag != null) {
+            tag.refund(now);
+        }
+    }
+
+    private class Waiter {
+        private final CompletableFuture<Exchange> result = new CompletableFuture<>();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final Bucket host;
+        private final Bucket tag;
+        private final Supplier<CompletableFuture<Exchange>> attempt;
+        private volatile ScheduledFuture<?> timer;
+
+        private Waiter(Bucket host, Bucket tag, Supplier<CompletableFuture<Exchange>> attempt) {
+            this.host = host;
+            this.tag = tag;
+            this.attempt = attempt;
+        }
+
+        private void send() {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            waiting.decrementAndGet();
+            CompletableFuture<Exchange> response;
+            try {
+                response = attempt.get();
+            } catch (RuntimeException e) {
+                response = CompletableFuture.failedFuture(e);
+            }
+            response.whenComplete((exchange, throwable) -> {
+                if (throwable != null) {
+                    result.completeExceptionally(throwable);
+                } else {
+                    result.complete(exchange);
+                }
+            });
+        }
+
+        private void abort(Throwable cause) {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            waiting.decrementAndGet();
+            timer.cancel(false);
+            refund(host, tag);
+            result.completeExceptionally(cause);
+        }
+    }
+
+    private static class Limit {
+        private final double permitsPerSecond;
+        private final int burst;
+
+        private Limit(double permitsPerSecond, int burst) {
+            if (!(permitsPerSecond > 0) || Double.isInfinite(permitsPerSecond)) {
+                throw new IllegalArgumentException("Permits per second has to be positive");
+            }
+            if (burst < 1) {
+                throw new IllegalArgumentException("Burst has to be at least 1");
+            }
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+        }
+    }
+
+    /**
+     * Permits go below zero when they are reserved ahead of time, which is what keeps waiting requests in order.
+     */
+    private static class Bucket {
+        private final String name;
+        private final double nanosPerPermit;
+        private final int burst;
+        private double permits;
+        private long updated;
+
+        private Bucket(String name, Limit limit, long now) {
+            this.name = name;
+            nanosPerPermit = TimeUnit.SECONDS.toNanos(1) / limit.permitsPerSecond;
+            burst = limit.burst;
+            permits = burst;
+            updated = now;
+        }
+
+        /**
+         * @return the nanoseconds until the reserved permit is there, or -1 if that is longer than the max wait
+         */
+        synchronized long reserve(long now, long maxWait) {
+            refill(now);
+            long wait = permits >= 1 ? 0 : (long) Math.ceil((1 - permits) * nanosPerPermit);
+            if (wait > maxWait) {
+                return -1;
+            }
+            permits -= 1;
+            return wait;
+        }
+
+        synchronized void refund(long now) {
+            refill(now);
+            permits = Math.min(burst, permits + 1);
+        }
+
+        private void refill(long now) {
+            if (now - updated > 0) {
+                permits = Math.min(burst, permits + (now - updated) / nanosPerPermit);
+                updated = now;
+            }
+        }
+    }
+
+    public static class Builder {
+        private Limit hostLimit;
+        private final Map<String, Limit> hostLimits = new HashMap<>();
+        private final Map<String, Limit> tagLimits = new HashMap<>();
+        private long maxWait = 5_000;
+        private LongSupplier nanoClock = System::nanoTime;
+
+        private Builder() {
+        }
+
+        /**
+         * Limits every host and port on its own to the rate, with bursts of at most the given number of requests.
+         */
+        public Builder perHost(double permitsPerSecond, int burst) {
+            this.hostLimit = new Limit(permitsPerSecond, burst);
+            return this;
+        }
+
+        /**
+         * Limits a single host, instead of the limit for every host if there is one.
+         *
+         * @param host the host and port, like example.com:443
+         */
+        public Builder host(String host, double permitsPerSecond, int burst) {
+            Objects.requireNonNull(host, "Host cannot be null");
+            if (host.lastIndexOf(':') <= host.lastIndexOf(']')) {
+                throw new IllegalArgumentException("Host has to include the port, got " + host);
+            }
+            hostLimits.put(host.toLowerCase(), new Limit(permitsPerSecond, burst));
+            return this;
+        }
+
+        /**
+         * Limits the requests tagged with the tag, on top of any limit of the host they are sent to.
+         */
+        public Builder tag(String tag, double permitsPerSecond, int burst) {
+            Objects.requireNonNull(tag, "Tag cannot be null");
+            tagLimits.put(tag, new Limit(permitsPerSecond, burst));
+            return this;
+        }
+
+        /**
+         * The longest time in milliseconds a request waits for its permits before failing instead, 5 seconds by
+         * default. Zero fails requests instead of making them wait at all.
+         */
+        public Builder maxWait(long maxWait) {
+            if (maxWait < 0) {
+                throw new IllegalArgumentException("Max wait cannot be negative");
+            }
+            this.maxWait = maxWait;
+            return this;
+        }
+
+        Builder nanoClock(LongSupplier nanoClock) {
+            this.nanoClock = nanoClock;
+            return this;
+        }
+
+        public RateLimiter build() {
+            if (hostLimit == null && hostLimits.isEmpty() && tagLimits.isEmpty()) {
+                throw new IllegalStateException("No limits set");
+            }
+            return new RateLimiter(this);
+        }
+    }
+}
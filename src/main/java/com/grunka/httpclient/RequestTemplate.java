@@ -0,0 +1,179 @@
+package com.grunka.httpclient;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * A request that is prepared once and then sent many times. The URL of the prototype request may contain
+ * <code>{name}</code> placeholders in its path that are filled in for every call, e.g.
+ * <pre>
+ * RequestTemplate template = RequestTemplate.of(HttpRequest.GET("http://localhost/items/{id}").header("X-Api-Key", key));
+ * client.send(template.request("42"));
+ * </pre>
+ * The URL is parsed once and the transports serialize the fixed part of the request head once per client, so
+ * sending a templated request only costs the request line and the body. Bodies and timeouts can be set on the
+ * returned requests as usual, changing the accept type, user agent or headers turns them into regular requests.
+ */
+public final class RequestTemplate {
+    private final HttpRequest prototype;
+    private final String[] literals;
+    private final List<String> names;
+    final String scheme;
+    final String host;
+    final int port;
+    final String hostHeader;
+    final String poolKey;
+    final int pathStart;
+    private final URL url;
+    private volatile SerializedHeaders serializedHeaders;
+
+    private RequestTemplate(HttpRequest prototype, String[] literals, List<String> names, URI uri, int pathStart) {
+        this.prototype = prototype;
+        this.literals = literals;
+        this.names = names;
+        this.pathStart = pathStart;
+        scheme = uri.getScheme().toLowerCase();
+        host = uri.getHost();
+        port = uri.getPort() != -1 ? uri.getPort() : "https".equals(scheme) ? 443 : 80;
+        hostHeader = uri.getPort() == -1 ? host : host + ":" + uri.getPort();
+        poolKey = host + ":" + port;
+        URL url = null;
+        if (names.isEmpty()) {
+            try {
+                url = new URL(prototype.url);
+            } catch (MalformedURLException ignore) {
+            }
+        }
+        this.url = url;
+    }
+
+    public static RequestTemplate of(HttpRequest prototype) {
+        Objects.requireNonNull(prototype, "Prototype request cannot be null");
+        String template = prototype.url;
+        int schemeEnd = template.indexOf("://");
+        if (schemeEnd < 0) {
+            throw new IllegalArgumentException("Template URL has to be absolute, got " + template);
+        }
+        int pathStart = schemeEnd + 3;
+        while (pathStart < template.length() && "/?#".indexOf(template.charAt(pathStart)) < 0) {
+            pathStart++;
+        }
+        int queryStart = template.indexOf('?');
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        StringBuilder sample = new StringBuilder(template.length());
+        int position = 0;
+        int open;
+        while ((open = template.indexOf('{', position)) >= 0) {
+            int close = template.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unterminated placeholder in " + template);
+            }
+            if (open < pathStart || (queryStart >= 0 && open > queryStart)) {
+                throw new IllegalArgumentException("Placeholders are only allowed in the path, got " + template);
+            }
+            literals.add(template.substring(position, open));
+            names.add(template.substring(open + 1, close));
+            sample.append(template, position, open).append('x');
+            position = close + 1;
+        }
+        literals.add(template.substring(position));
+        sample.append(template, position, template.length());
+        URI uri;
+        try {
+            uri = new URI(sample.toString());
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid template URL " + template, e);
+        }
+        if (uri.getScheme() == null || uri.getHost() == null) {
+            throw new IllegalArgumentException("Template URL has to have a scheme and a host, got " + template);
+        }
+        if (uri.getRawFragment() != null) {
+            throw new IllegalArgumentException("Template URL cannot have a fragment, got " + template);
+        }
+        return new RequestTemplate(prototype, literals.toArray(new String[0]), Collections.unmodifiableList(names), uri, pathStart);
+    }
+
+    /**
+     * @return the placeholder names in the order their values are expected by {@link #request(String...)}
+     */
+    public List<String> getParameterNames() {
+        return names;
+    }
+
+    /**
+     * @param values the values of the placeholders in the order they appear in the URL, they are percent encoded
+     *               as path segments
+     */
+    public HttpRequest request(String... values) {
+        if (values.length != names.size()) {
+            throw new IllegalArgumentException("Expected " + names.size() + " values for " + names + ", got " + values.length);
+        }
+        if (values.length == 0) {
+            return prototype.fromTemplate(prototype.url, this);
+        }
+        StringBuilder url = new StringBuilder(prototype.url.length() + 16 * values.length);
+        for (int i = 0; i < values.length; i++) {
+            url.append(literals[i]);
+            appendPathSegment(url, Objects.requireNonNull(values[i], "Value of " + names.get(i) + " cannot be null"));
+        }
+        url.append(literals[values.length]);
+        return prototype.fromTemplate(url.toString(), this);
+    }
+
+    URL url(String url) throws MalformedURLException {
+        if (this.url != null && prototype.url.equals(url)) {
+            return this.url;
+        }
+        return new URL(url);
+    }
+
+    /**
+     * @return the headers serialized by the owner, which is asked to serialize them again if another owner asks
+     */
+    byte[] serializedHeaders(Object owner, Supplier<byte[]> serializer) {
+        SerializedHeaders serialized = serializedHeaders;
+        if (serialized == null || serialized.owner != owner) {
+            serialized = new SerializedHeaders(owner, serializer.get());
+            serializedHeaders = serialized;
+        }
+        return serialized.bytes;
+    }
+
+    private static void appendPathSegment(StringBuilder url, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (isUnescaped(c)) {
+                url.append(c);
+            } else {
+                int end = Character.isHighSurrogate(c) && i + 1 < value.length() ? i + 2 : i + 1;
+                for (byte b : value.substring(i, end).getBytes(StandardCharsets.UTF_8)) {
+                    url.append('%').append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16))).append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+                }
+                i = end - 1;
+            }
+        }
+    }
+
+    private static boolean isUnescaped(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || "-._~!$&'()*+,;=:@".indexOf(c) >= 0;
+    }
+
+    private static class SerializedHeaders {
+        private final Object owner;
+        private final byte[] bytes;
+
+        private SerializedHeaders(Object owner, byte[] bytes) {
+            this.owner = owner;
+            this.bytes = bytes;
+        }
+    }
+}
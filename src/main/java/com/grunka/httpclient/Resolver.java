@@ -0,0 +1,27 @@
+package com.grunka.httpclient;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+/**
+ * Looks up the addresses of a host. The NIO transport tries the addresses in order, starting on the next one if a
+ * connection attempt has not succeeded within the connect attempt delay. HttpURLConnection does its own lookups, so
+ * the URL connection transport does not use it.
+ */
+@FunctionalInterface
+public interface Resolver {
+    /**
+     * @return the addresses of the host, never empty
+     * @throws UnknownHostException if the host has no addresses
+     */
+    List<InetAddress> resolve(String host) throws UnknownHostException;
+
+    /**
+     * The resolver of the JVM, which has a cache of its own controlled by the networkaddress.cache.ttl security
+     * property.
+     */
+    static Resolver system() {
+        return host -> List.of(InetAddress.getAllByName(host));
+    }
+}
@@ -0,0 +1,363 @@
+package com.grunka.httpclient;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+class ResponseParser {
+    private static final int MAX_LINE_LENGTH = 65536;
+
+    interface BodyConsumer {
+        void accept(ByteBuffer data);
+    }
+
+    private enum State {
+        STATUS_LINE, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, BODY_UNTIL_CLOSE, DONE
+    }
+
+    private State state = State.STATUS_LINE;
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private boolean received;
+    private boolean http11;
+    private int code;
+    private final RawHeaders headers = new RawHeaders();
+    private long remaining;
+    private long contentLength = -1;
+    private final BodyConsumer bodyConsumer;
+
+    ResponseParser(BodyConsumer bodyConsumer) {
+        this.bodyConsumer = bodyConsumer;
+    }
+
+    boolean feed(ByteBuffer buffer) throws IOException {
+        if (buffer.hasRemaining()) {
+            received = true;
+        }
+        while (buffer.hasRemaining() && state != State.DONE) {
+            switch (state) {
+                case STATUS_LINE:
+                    if (readLine(buffer)) {
+                        parseStatusLine();
+                    }
+                    break;
+                case HEADERS:
+                    if (readLine(buffer)) {
+                        if (lineLength == 0) {
+                            endOfHeaders();
+                        } else {
+                            parseHeader();
+                        }
+                    }
+                    break;
+                case BODY:
+                    remaining -= readBody(buffer, remaining);
+                    if (remaining == 0) {
+                        state = State.DONE;
+                    }
+                    break;
+                case CHUNK_SIZE:
+                    if (readLine(buffer)) {
+                        parseChunkSize();
+                    }
+                    break;
+                case CHUNK_DATA:
+                    remaining -= readBody(buffer, remaining);
+                    if (remaining == 0) {
+                        state = State.CHUNK_END;
+                    }
+                    break;
+                case CHUNK_END:
+                    if (readLine(buffer)) {
+                        if (lineLength != 0) {
+                            throw new ProtocolException("Missing line break after chunk");
+                        }
+                        state = State.CHUNK_SIZE;
+                    }
+                    break;
+                case TRAILERS:
+                    if (readLine(buffer)) {
+                        if (lineLength == 0) {
+                            state = State.DONE;
+                        }
+                        lineLength = 0;
+                    }
+                    break;
+                case BODY_UNTIL_CLOSE:
+                    readBody(buffer, Long.MAX_VALUE);
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected state " + state);
+            }
+        }
+        return state == State.DONE;
+    }
+
+    void endOfStream() throws IOException {
+        if (state == State.BODY_UNTIL_CLOSE) {
+            state = State.DONE;
+        } else if (state != State.DONE) {
+            throw new SocketException(received ? "Premature end of response" : "Unexpected end of file from server");
+        }
+    }
+
+    boolean hasReceived() {
+        return received;
+    }
+
+    boolean headersComplete() {
+        return state != State.STATUS_LINE && state != State.HEADERS;
+    }
+
+    boolean isDone() {
+        return state == State.DONE;
+    }
+
+    int code() {
+        return code;
+    }
+
+    /**
+     * @return the length of the body from the headers, or -1 if it is chunked or delimited by the connection closing
+     */
+    long contentLength() {
+        return contentLength;
+    }
+
+    String header(String name) {
+        for (int i = 0; i < headers.size(); i++) {
+            if (headers.hasName(i, name)) {
+                return headers.value(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the headers of the response, only valid once they are complete
+     */
+    HttpHeaders headers() {
+        return new HttpHeaders(headers);
+    }
+
+    boolean keepAlive() {
+        String connection = header("Connection");
+        if (connection != null && connection.equalsIgnoreCase("close")) {
+            return false;
+        }
+        return http11 || (connection != null && connection.equalsIgnoreCase("keep-alive"));
+    }
+
+    private boolean readLine(ByteBuffer buffer) throws ProtocolException {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                    lineLength--;
+                }
+                return true;
+            }
+            if (lineLength == line.length) {
+                if (lineLength >= MAX_LINE_LENGTH) {
+                    throw new ProtocolException("Response line too long");
+                }
+                line = Arrays.copyOf(line, lineLength * 2);
+            }
+            line[lineLength++] = b;
+        }
+        return false;
+    }
+
+    private String lineAsString(int from, int to) {
+        return new String(line, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    private void parseStatusLine() throws ProtocolException {
+        if (lineLength == 0) {
+            // Tolerate stray line breaks between responses
+            return;
+        }
+        String statusLine = lineAsString(0, lineLength);
+        lineLength = 0;
+        if (!statusLine.startsWith("HTTP/")) {
+            throw new ProtocolException("Invalid status line: " + statusLine);
+        }
+        int firstSpace = statusLine.indexOf(' ');
+        if (firstSpace == -1 || statusLine.length() < firstSpace + 4) {
+            throw new ProtocolException("Invalid status line: " + statusLine);
+        }
+        http11 = !statusLine.startsWith("HTTP/1.0");
+        try {
+            code = Integer.parseInt(statusLine.substring(firstSpace + 1, firstSpace + 4));
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Invalid status line: " + statusLine);
+        }
+        state = State.HEADERS;
+    }
+
+    private void parseHeader() {
+        int colon = -1;
+        for (int i = 0; i < lineLength; i++) {
+            if (line[i] == ':') {
+                colon = i;
+                break;
+            }
+        }
+        if (colon > 0) {
+            headers.add(line, colon, lineLength);
+        }
+        lineLength = 0;
+    }
+
+    private void endOfHeaders() throws ProtocolException {
+        if (code >= 100 && code < 200 && code != 101) {
+            headers.clear();
+            state = State.STATUS_LINE;
+            return;
+        }
+        if (code == 101) {
+            throw new ProtocolException("Protocol upgrades are not supported");
+        }
+        if (code == 204 || code == 304) {
+            contentLength = 0;
+            state = State.DONE;
+            return;
+        }
+        String transferEncoding = header("Transfer-Encoding");
+        if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+            state = State.CHUNK_SIZE;
+            return;
+        }
+        String contentLengthHeader = header("Content-Length");
+        if (contentLengthHeader != null) {
+            try {
+                remaining = Long.parseLong(contentLengthHeader);
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Invalid Content-Length: " + contentLengthHeader);
+            }
+            if (remaining < 0) {
+                throw new ProtocolException("Unsupported Content-Length: " + contentLengthHeader);
+            }
+            contentLength = remaining;
+            state = remaining == 0 ? State.DONE : State.BODY;
+            return;
+        }
+        state = State.BODY_UNTIL_CLOSE;
+    }
+
+    private void parseChunkSize() throws ProtocolException {
+        int end = 0;
+        while (end < lineLength && line[end] != ';' && line[end] != ' ') {
+            end++;
+        }
+        String size = lineAsString(0, end);
+        lineLength = 0;
+        try {
+            remaining = Long.parseLong(size, 16);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Invalid chunk size: " + size);
+        }
+        if (remaining < 0) {
+            throw new ProtocolException("Unsupported chunk size: " + size);
+        }
+        state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+    }
+
+    private int readBody(ByteBuffer buffer, long limit) {
+        int length = (int) Math.min(buffer.remaining(), limit);
+        if (length > 0) {
+            int end = buffer.position() + length;
+            ByteBuffer data = buffer.duplicate();
+            data.limit(end);
+            bodyConsumer.accept(data);
+            buffer.position(end);
+        }
+        return length;
+    }
+
+    /**
+     * Header lines kept as received, names are compared and values are decoded only when they are looked up.
+     */
+    private static class RawHeaders implements HttpHeaders.Source {
+        private byte[] bytes = new byte[512];
+        private int length;
+        // Start and end of the name followed by start and end of the value, for each header
+        private int[] offsets = new int[64];
+        private int size;
+
+        void add(byte[] line, int colon, int lineLength) {
+            if (length + lineLength > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + lineLength));
+            }
+            if (size * 4 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            System.arraycopy(line, 0, bytes, length, lineLength);
+            int nameStart = length;
+            int nameEnd = length + colon;
+            int valueStart = nameEnd + 1;
+            int valueEnd = length + lineLength;
+            while (nameStart < nameEnd && isWhitespace(bytes[nameStart])) {
+                nameStart++;
+            }
+            while (nameEnd > nameStart && isWhitespace(bytes[nameEnd - 1])) {
+                nameEnd--;
+            }
+            while (valueStart < valueEnd && isWhitespace(bytes[valueStart])) {
+                valueStart++;
+            }
+            while (valueEnd > valueStart && isWhitespace(bytes[valueEnd - 1])) {
+                valueEnd--;
+            }
+            offsets[size * 4] = nameStart;
+            offsets[size * 4 + 1] = nameEnd;
+            offsets[size * 4 + 2] = valueStart;
+            offsets[size * 4 + 3] = valueEnd;
+            size++;
+            length += lineLength;
+        }
+
+        void clear() {
+            length = 0;
+            size = 0;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public String name(int index) {
+            return new String(bytes, offsets[index * 4], offsets[index * 4 + 1] - offsets[index * 4], StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String value(int index) {
+            return new String(bytes, offsets[index * 4 + 2], offsets[index * 4 + 3] - offsets[index * 4 + 2], StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public boolean hasName(int index, String name) {
+            int start = offsets[index * 4];
+            if (offsets[index * 4 + 1] - start != name.length()) {
+                return false;
+            }
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                char b = (char) (bytes[start + i] & 0xFF);
+                if (c != b && Character.toLowerCase(c) != Character.toLowerCase(b)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isWhitespace(byte b) {
+            return b == ' ' || b == '\t';
+        }
+    }
+}
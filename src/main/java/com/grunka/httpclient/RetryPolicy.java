@@ -0,0 +1,283 @@
+package com.grunka.httpclient;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Retries failed requests with exponential backoff and full jitter. Requests are retried when the connection fails or
+ * times out and when the server answers with one of the retryable status codes, by default 502, 503 and 504. Only GET
+ * requests are retried unless POST is explicitly allowed, since a POST that reached the server may not be safe to
+ * repeat.
+ * <p>
+ * Retries are paid for from a budget shared by all requests using the policy. Every request adds a fraction of a retry
+ * to the budget, a minimum number of retries per second is added over time and every retry takes a whole retry from
+ * it. When a server is down the retries stay a fraction of the traffic rather than multiplying it. The budget holds at
+ * most ten seconds worth of the minimum plus what a hundred requests add.
+ */
+public final class RetryPolicy {
+    private static final RetryPolicy NO_RETRIES = builder().maxAttempts(1).build();
+
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final double multiplier;
+    private final Set<Integer> retryableCodes;
+    private final boolean retryPost;
+    private final boolean honorRetryAfter;
+    private final double budgetRatio;
+    private final int budgetMinimumPerSecond;
+    private final double budgetMax;
+    private final Object budgetLock = new Object();
+    private double budget;
+    private long budgetRefilled = System.nanoTime();
+
+    private RetryPolicy(Builder builder) {
+        maxAttempts = builder.maxAttempts;
+        initialBackoff = builder.initialBackoff;
+        maxBackoff = builder.maxBackoff;
+        multiplier = builder.multiplier;
+        retryableCodes = Set.copyOf(builder.retryableCodes);
+        retryPost = builder.retryPost;
+        honorRetryAfter = builder.honorRetryAfter;
+        budgetRatio = builder.budgetRatio;
+        budgetMinimumPerSecond = builder.budgetMinimumPerSecond;
+        budgetMax = budgetMinimumPerSecond * 10 + budgetRatio * 100;
+        budget = budgetMinimumPerSecond;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static RetryPolicy noRetries() {
+        return NO_RETRIES;
+    }
+
+    CompletableFuture<Exchange> execute(HttpRequest request, Supplier<CompletableFuture<Exchange>> attempt, ScheduledExecutorService scheduler, ClientMetrics metrics) {
+        if (maxAttempts == 1 || (request.type == HttpRequest.HttpRequestType.POST && !retryPost)) {
+            return attempt.get();
+        }
+        deposit();
+        CompletableFuture<Exchange> result = new CompletableFuture<>();
+        attempt(1, attempt, scheduler, metrics, result);
+        return result;
+    }
+
+    private void attempt(int attemptNumber, Supplier<CompletableFuture<Exchange>> attempt, ScheduledExecutorService scheduler, ClientMetrics metrics, CompletableFuture<Exchange> result) {
+        CompletableFuture<Exchange> current;
+        try {
+            current = attempt.get();
+        } catch (RuntimeException e) {
+            current = CompletableFuture.failedFuture(e);
+        }
+        current.whenComplete((exchange, throwable) -> {
+            if (result.isDone()) {
+                closeQuietly(exchange);
+                return;
+            }
+            long delay = retryDelay(attemptNumber, exchange, throwable);
+            if (delay < 0 || !withdraw()) {
+                complete(result, exchange, throwable);
+                return;
+            }
+            // Counted before scheduling since the retry can be over before this thread gets any further
+            metrics.retried();
+            try {
+                scheduler.schedule(() -> attempt(attemptNumber + 1, attempt, scheduler, metrics, result), delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                complete(result, exchange, throwable);
+                return;
+            }
+            closeQuietly(exchange);
+        });
+    }
+
+    /**
+     * @return how long to wait before the next attempt, or -1 if the request should not be retried
+     */
+    private long retryDelay(int attemptNumber, Exchange exchange, Throwable throwable) {
+        if (attemptNumber >= maxAttempts) {
+            return -1;
+        }
+        long backoff = backoff(attemptNumber);
+        if (exchange != null) {
+            if (!retryableCodes.contains(exchange.code())) {
+                return -1;
+            }
+            if (honorRetryAfter) {
+                long retryAfter = retryAfter(exchange.header("Retry-After"));
+                if (retryAfter > maxBackoff) {
+                    // Waiting that long is up to the caller
+                    return -1;
+                }
+                return Math.max(backoff, retryAfter);
+            }
+            return backoff;
+        }
+        return isRetryable(throwable) ? backoff : -1;
+    }
+
+    private long backoff(int attemptNumber) {
+        double ceiling = Math.min(maxBackoff, initialBackoff * Math.pow(multiplier, attemptNumber - 1));
+        return (long) (ThreadLocalRandom.current().nextDouble() * ceiling);
+    }
+
+    private static boolean isRetryable(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+        // Covers refused and reset connections and timeouts, but not unknown hosts, bad URLs or protocol errors
+        return cause instanceof SocketException || cause instanceof SocketTimeoutException;
+    }
+
+    /**
+     * @return the delay asked for in milliseconds, or 0 if there is none
+     */
+    private static long retryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return 0;
+        }
+        String value = retryAfter.trim();
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException ignore) {
+        }
+        try {
+            long at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return Math.max(0, at - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    private void deposit() {
+        synchronized (budgetLock) {
+            budget = Math.min(budget + budgetRatio, budgetMax);
+        }
+    }
+
+    private boolean withdraw() {
+        synchronized (budgetLock) {
+            long now = System.nanoTime();
+            budget = Math.min(budget + (now - budgetRefilled) / 1e9 * budgetMinimumPerSecond, budgetMax);
+            budgetRefilled = now;
+            if (budget < 1) {
+                return false;
+            }
+            budget -= 1;
+            return true;
+        }
+    }
+
+    private static void complete(CompletableFuture<Exchange> result, Exchange exchange, Throwable throwable) {
+        if (throwable != null) {
+            result.completeExceptionally(throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable);
+        } else if (!result.complete(exchange)) {
+            closeQuietly(exchange);
+        }
+    }
+
+    private static void closeQuietly(Exchange exchange) {
+        if (exchange != null) {
+            try {
+                exchange.body().close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    public static class Builder {
+        private int maxAttempts = 3;
+        private long initialBackoff = 100;
+        private long maxBackoff = 10_000;
+        private double multiplier = 2;
+        private Set<Integer> retryableCodes = Set.of(502, 503, 504);
+        private boolean retryPost;
+        private boolean honorRetryAfter = true;
+        private double budgetRatio = 0.1;
+        private int budgetMinimumPerSecond = 10;
+
+        private Builder() {
+        }
+
+        /**
+         * @param maxAttempts the total number of attempts including the first one
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("Need at least one attempt");
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * The delay before a retry is random up to initialBackoff * multiplier ^ (attempt - 1), but never more than
+         * maxBackoff.
+         */
+        public Builder backoff(long initialBackoff, long maxBackoff, double multiplier) {
+            if (initialBackoff < 0 || maxBackoff < initialBackoff) {
+                throw new IllegalArgumentException("Backoff must be positive with the initial backoff at most the max backoff");
+            }
+            if (multiplier < 1) {
+                throw new IllegalArgumentException("Multiplier cannot be less than 1");
+            }
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        public Builder retryableCodes(Set<Integer> retryableCodes) {
+            this.retryableCodes = Objects.requireNonNull(retryableCodes, "Retryable codes cannot be null");
+            return this;
+        }
+
+        /**
+         * Allows retrying POST requests, only do this for requests that are safe to repeat.
+         */
+        public Builder retryPost(boolean retryPost) {
+            this.retryPost = retryPost;
+            return this;
+        }
+
+        /**
+         * Waits as long as the server asks for with Retry-After, up to the max backoff, after which the response is
+         * given back instead of retrying. On by default.
+         */
+        public Builder honorRetryAfter(boolean honorRetryAfter) {
+            this.honorRetryAfter = honorRetryAfter;
+            return this;
+        }
+
+        /**
+         * Defaults to a ratio of 0.1 and a minimum of 10 retries per second.
+         *
+         * @param ratio            retries allowed per request, 0.1 allows one retry for every ten requests
+         * @param minimumPerSecond retries allowed per second regardless of traffic
+         */
+        public Builder budget(double ratio, int minimumPerSecond) {
+            if (ratio < 0 || minimumPerSecond < 0) {
+                throw new IllegalArgumentException("Budget cannot be negative");
+            }
+            this.budgetRatio = ratio;
+            this.budgetMinimumPerSecond = minimumPerSecond;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
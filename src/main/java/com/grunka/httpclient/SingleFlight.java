@@ -0,0 +1,90 @@
+package com.grunka.httpclient;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent calls with the same key share one result. The key is released as soon as the result is in, so calls
+ * after that start over. The shared call is cancelled when every caller has cancelled, the key is released before
+ * that so that a new caller starts a call of its own.
+ */
+class SingleFlight<T> {
+    interface Listener {
+        void joined();
+    }
+
+    private final Map<String, Flight<T>> inFlight = new ConcurrentHashMap<>();
+    private final Listener listener;
+
+    SingleFlight(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return a future of its own for every caller, so one caller cancelling or completing it does not affect others
+     */
+    CompletableFuture<T> execute(String key, Supplier<CompletableFuture<T>> call) {
+        Flight<T> created = new Flight<>();
+        // Joining and leaving are done in the map so that nobody joins a call that the last caller is cancelling
+        Flight<T> flight = inFlight.compute(key, (k, existing) -> {
+            Flight<T> joined = existing != null ? existing : created;
+            joined.callers++;
+            return joined;
+        });
+        if (flight != created) {
+            listener.joined();
+            return follow(key, flight);
+        }
+        CompletableFuture<T> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        flight.call = result;
+        result.whenComplete((value, throwable) -> {
+            // Release the key first so that nobody joins a call that has already finished
+            inFlight.remove(key, flight);
+            if (throwable != null) {
+                flight.shared.completeExceptionally(throwable);
+            } else {
+                flight.shared.complete(value);
+            }
+        });
+        return follow(key, flight);
+    }
+
+    private CompletableFuture<T> follow(String key, Flight<T> flight) {
+        CompletableFuture<T> copy = flight.shared.copy();
+        copy.whenComplete((value, throwable) -> {
+            if (throwable instanceof CancellationException) {
+                leave(key, flight);
+            }
+        });
+        return copy;
+    }
+
+    private void leave(String key, Flight<T> flight) {
+        boolean[] last = new boolean[1];
+        inFlight.computeIfPresent(key, (k, existing) -> {
+            if (existing != flight || --existing.callers > 0) {
+                return existing;
+            }
+            last[0] = true;
+            return null;
+        });
+        if (last[0]) {
+            flight.call.cancel(true);
+        }
+    }
+
+    private static class Flight<T> {
+        private final CompletableFuture<T> shared = new CompletableFuture<>();
+        // Set before the first caller gets its future, so before anyone can be the last to cancel
+        private volatile CompletableFuture<T> call;
+        private int callers;
+    }
+}
@@ -0,0 +1,13 @@
+package com.grunka.httpclient;
+
+import java.util.concurrent.CompletableFuture;
+
+interface Transport {
+    /**
+     * Sends the request and completes once the status and headers of the response are available. Aborting the call
+     * closes the connection, failing the request or the reading of the body.
+     */
+    CompletableFuture<Exchange> execute(HttpRequest request, Call call);
+
+    void close();
+}
@@ -0,0 +1,355 @@
+package com.grunka.httpclient;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+class UrlConnectionTransport implements Transport {
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final HttpClient client;
+
+    UrlConnectionTransport(HttpClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public CompletableFuture<Exchange> execute(HttpRequest request, Call call) {
+        URL url;
+        try {
+            url = request.template != null ? request.template.url(request.url) : new URL(request.url);
+        } catch (MalformedURLException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        String poolKey = request.template != null ? request.template.poolKey : url.getHost() + ":" + (url.getPort() == -1 ? url.getDefaultPort() : url.getPort());
+        Runnable release = () -> client.connectionPool.release(poolKey, null);
+        Attempt attempt = new Attempt(call);
+        call.onAbort(attempt::abort);
+        return client.connectionPool.acquire(poolKey)
+                .thenCompose(slot -> execute(request, url, attempt, release))
+                .whenComplete((exchange, e) -> {
+                    if (e != null) {
+                        attempt.done();
+                        release.run();
+                    }
+                });
+    }
+
+    private CompletableFuture<Exchange> execute(HttpRequest request, URL url, Attempt attempt, Runnable release) {
+        switch (request.type) {
+            case GET:
+                return openConnection(request, url, attempt).thenCompose(connection -> readResponse(connection, request, attempt, release));
+            case POST:
+                return postContent(request, url, attempt, release);
+            default:
+                throw new IllegalArgumentException("Can only handle GET and POST");
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private CompletableFuture<Exchange> postContent(HttpRequest request, URL url, Attempt attempt, Runnable release) {
+        BodyPublisher body = client.requestBody(request);
+        return openConnection(request, url, attempt).thenCompose(connection -> {
+            try {
+                connection.setRequestMethod("POST");
+            } catch (ProtocolException e) {
+                return CompletableFuture.failedFuture(new Error("POST method not supported", e));
+            }
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", request.contentTypeHeader());
+            if (body.contentEncoding() != null) {
+                connection.setRequestProperty("Content-Encoding", body.contentEncoding());
+            }
+            long contentLength = body.contentLength();
+            if (body instanceof BodyPublishers.ByteBufferPublisher) {
+                // In memory bodies are buffered by the connection, which lets it follow redirects for us
+                connection.setRequestProperty("Content-Length", String.valueOf(contentLength));
+            } else if (contentLength >= 0) {
+                connection.setFixedLengthStreamingMode(contentLength);
+            } else {
+                connection.setChunkedStreamingMode(0);
+            }
+            return writeRequest(connection::getOutputStream, body)
+                    .thenCompose(x -> {
+                        attempt.call.requestSent();
+                        return readResponse(connection, request, attempt, release);
+                    })
+                    .<CompletableFuture<Exchange>>handle((r, e) -> {
+                        if (r != null) {
+                            return CompletableFuture.completedFuture(r);
+                        }
+                        e = e.getClass() == CompletionException.class ? e.getCause() : e;
+                        if (attempt.abortCause() != null) {
+                            return CompletableFuture.failedFuture(attempt.abortCause());
+                        }
+                        if (e instanceof BodySourceException) {
+                            connection.disconnect();
+                            return CompletableFuture.failedFuture(e.getCause());
+                        }
+                        if (e.getClass() == ConnectException.class || e.getClass() == SocketTimeoutException.class) {
+                            return CompletableFuture.failedFuture(e);
+                        } else {
+                            return readResponse(connection, request, attempt, release);
+                        }
+                    }).thenCompose(x -> x);
+        });
+    }
+
+    private interface OutputStreamSupplier {
+        OutputStream get() throws IOException;
+    }
+
+    private CompletableFuture<Void> writeRequest(OutputStreamSupplier outputStreamSupplier, BodyPublisher body) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        client.executor.execute(() -> {
+            try (ReadableByteChannel source = open(body); OutputStream outputStream = outputStreamSupplier.get()) {
+                WritableByteChannel target = Channels.newChannel(outputStream);
+                if (source instanceof FileChannel) {
+                    FileChannel file = (FileChannel) source;
+                    long position = 0;
+                    long size = file.size();
+                    long transferred;
+                    while (position < size && (transferred = file.transferTo(position, size - position, target)) > 0) {
+                        position += transferred;
+                    }
+                } else {
+                    ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+                    while (read(source, buffer) != -1) {
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            target.write(buffer);
+                        }
+                        buffer.clear();
+                    }
+                }
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            result.complete(null);
+        });
+        return result;
+    }
+
+    private static ReadableByteChannel open(BodyPublisher body) throws BodySourceException {
+        try {
+            return body.open();
+        } catch (IOException e) {
+            throw new BodySourceException(e);
+        }
+    }
+
+    private static int read(ReadableByteChannel source, ByteBuffer buffer) throws BodySourceException {
+        try {
+            return source.read(buffer);
+        } catch (IOException e) {
+            throw new BodySourceException(e);
+        }
+    }
+
+    /**
+     * Failure to read the request body, as opposed to failing to write it, which might be the server giving up early.
+     */
+    private static class BodySourceException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private BodySourceException(IOException cause) {
+            super(cause);
+        }
+    }
+
+    private CompletableFuture<Exchange> readResponse(HttpURLConnection connection, HttpRequest request, Attempt attempt, Runnable release) {
+        CompletableFuture<Exchange> result = new CompletableFuture<>();
+        client.executor.execute(() -> {
+            try {
+                if (attempt.abortCause() != null) {
+                    // A disconnected connection would otherwise connect again
+                    throw new IOException("Aborted");
+                }
+                int code = connection.getResponseCode();
+                if (request.type == HttpRequest.HttpRequestType.GET) {
+                    attempt.call.requestSent();
+                }
+                attempt.call.firstByte();
+                InputStream body = code >= 400 ? connection.getErrorStream() : connection.getInputStream();
+                result.complete(new Exchange(code, headers(connection), new ConnectionInputStream(body, connection, request.disconnect, attempt, release)));
+            } catch (IOException e) {
+                if (request.disconnect) {
+                    connection.disconnect();
+                }
+                result.completeExceptionally(attempt.abortCause() != null ? attempt.abortCause() : e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The connection of one attempt, which is disconnected if the call is aborted before the attempt is done with it.
+     */
+    private static class Attempt {
+        private final Call call;
+        private HttpURLConnection connection;
+        private Throwable abortCause;
+        private boolean done;
+
+        private Attempt(Call call) {
+            this.call = call;
+        }
+
+        /**
+         * @return false if the attempt was aborted before it got its connection
+         */
+        synchronized boolean connected(HttpURLConnection connection) {
+            this.connection = connection;
+            return abortCause == null;
+        }
+
+        synchronized Throwable abortCause() {
+            return abortCause;
+        }
+
+        synchronized void done() {
+            done = true;
+        }
+
+        void abort(Throwable cause) {
+            HttpURLConnection connection;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                abortCause = cause;
+                connection = this.connection;
+            }
+            if (connection != null) {
+                // Closes the socket, which fails any read or write blocking on it
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static class ConnectionInputStream extends FilterInputStream implements KnownLength {
+        private final HttpURLConnection connection;
+        private final boolean disconnect;
+        private final Attempt attempt;
+        private final Runnable release;
+        private boolean closed;
+
+        private ConnectionInputStream(InputStream body, HttpURLConnection connection, boolean disconnect, Attempt attempt, Runnable release) {
+            super(body != null ? body : InputStream.nullInputStream());
+            this.connection = connection;
+            this.disconnect = disconnect;
+            this.attempt = attempt;
+            this.release = release;
+        }
+
+        @Override
+        public long contentLength() {
+            return connection.getContentLengthLong();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                attempt.done();
+                if (disconnect) {
+                    connection.disconnect();
+                }
+                release.run();
+            }
+        }
+    }
+
+    /**
+     * The connection has already parsed the headers into strings, they are only collected into arrays here since the
+     * connection cannot be asked for them after it has been disconnected.
+     */
+    private static HttpHeaders headers(HttpURLConnection connection) {
+        int size = 0;
+        for (int i = 0; connection.getHeaderField(i) != null; i++) {
+            if (connection.getHeaderFieldKey(i) != null) {
+                size++;
+            }
+        }
+        String[] names = new String[size];
+        String[] values = new String[size];
+        for (int i = 0, j = 0; j < size; i++) {
+            String name = connection.getHeaderFieldKey(i);
+            if (name != null) {
+                names[j] = name;
+                values[j++] = connection.getHeaderField(i);
+            }
+        }
+        return HttpHeaders.of(names, values);
+    }
+
+    private CompletableFuture<HttpURLConnection> openConnection(HttpRequest request, URL url, Attempt attempt) {
+        return openConnection(url).thenApply(connection -> {
+            if (!attempt.connected(connection)) {
+                throw new CompletionException(attempt.abortCause());
+            }
+            // Whether HttpURLConnection reuses a connection is its own business
+            attempt.call.connectionAcquired(false);
+            client.headers.forEach(connection::setRequestProperty);
+            request.headers.forEach(connection::setRequestProperty);
+            setDefaultHeader(connection, request, "User-Agent", client.userAgent(request));
+            setDefaultHeader(connection, request, "Accept", request.accept);
+            setDefaultHeader(connection, request, "Accept-Encoding", client.acceptEncoding(request));
+            connection.setUseCaches(false);
+            connection.setInstanceFollowRedirects(true);
+            connection.setConnectTimeout((int) client.connectTimeout(request));
+            connection.setReadTimeout((int) client.readTimeout(request));
+            return connection;
+        });
+    }
+
+    /**
+     * Sets a header the client always sends, unless the request has a header of its own with the same name.
+     */
+    private static void setDefaultHeader(HttpURLConnection connection, HttpRequest request, String name, String value) {
+        if (value != null && !request.headers.containsKey(name)) {
+            connection.setRequestProperty(name, value);
+        }
+    }
+
+    private CompletableFuture<HttpURLConnection> openConnection(URL url) {
+        CompletableFuture<HttpURLConnection> result = new CompletableFuture<>();
+        client.executor.execute(() -> {
+            try {
+                URLConnection connection = url.openConnection();
+                if (!(connection instanceof HttpURLConnection)) {
+                    result.completeExceptionally(new MalformedURLException("Expected HttpURLConnection, got " + connection.getClass().getName()));
+                } else {
+                    result.complete((HttpURLConnection) connection);
+                }
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+}
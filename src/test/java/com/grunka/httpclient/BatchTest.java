@@ -0,0 +1,183 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchTest {
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private StubServer first;
+    private StubServer second;
+    private HttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        first = new StubServer(new CountingHandler(new AtomicInteger(), new AtomicInteger()));
+        second = new StubServer(new CountingHandler(new AtomicInteger(), new AtomicInteger()));
+        client = HttpClient.builder().build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void shouldKeepOrderAndPerHostLimit() {
+        AtomicInteger hostActive = new AtomicInteger();
+        AtomicInteger hostMaxActive = new AtomicInteger();
+        first.handler(new CountingHandler(hostActive, hostMaxActive));
+        List<HttpRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            // Different spellings of the same host share its limit
+            requests.add(HttpRequest.GET(i % 2 == 0 ? first.url("/" + i) : "http://LOCALHOST:" + first.port() + "/" + i));
+        }
+        List<Batch.Result> results = client.batch().maxInFlight(20).maxInFlightPerHost(4).executeAll(requests).join();
+        assertEquals(60, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, results.get(i).getIndex());
+            assertEquals("/" + i, results.get(i).getResponse().getBody());
+        }
+        assertTrue("Max per host was " + hostMaxActive.get(), hostMaxActive.get() <= 4);
+        assertEquals(4, hostMaxActive.get());
+    }
+
+    @Test
+    public void shouldKeepGlobalLimitAcrossHosts() {
+        AtomicInteger firstActive = new AtomicInteger();
+        AtomicInteger firstMax = new AtomicInteger();
+        AtomicInteger secondActive = new AtomicInteger();
+        AtomicInteger secondMax = new AtomicInteger();
+        first.handler(new CountingHandler(firstActive, firstMax));
+        second.handler(new CountingHandler(secondActive, secondMax));
+        List<HttpRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            requests.add(HttpRequest.GET((i % 2 == 0 ? first : second).url("/" + i)));
+        }
+        List<Batch.Result> results = client.batch().maxInFlight(5).maxInFlightPerHost(3).executeAll(requests).join();
+        assertTrue(results.stream().allMatch(Batch.Result::isSuccess));
+        assertTrue(firstMax.get() <= 3);
+        assertTrue(secondMax.get() <= 3);
+        assertTrue("Max in total was " + maxActive.get(), maxActive.get() <= 5);
+    }
+
+    @Test
+    public void shouldRunRequestsForOtherHostsWhileOneHostIsAtItsLimit() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        first.handler(request -> {
+            release.await(5, TimeUnit.SECONDS);
+            return StubServer.Response.ok(request.path);
+        });
+        List<HttpRequest> requests = new ArrayList<>();
+        // More than the total limit for the first host, which used to keep the second host from getting any
+        for (int i = 0; i < 70; i++) {
+            requests.add(HttpRequest.GET(first.url("/" + i)));
+        }
+        for (int i = 0; i < 16; i++) {
+            requests.add(HttpRequest.GET(second.url("/" + i)));
+        }
+        CompletableFuture<List<Batch.Result>> results = client.executeAll(requests);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (second.requests() < 16 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(16, second.requests());
+        assertEquals(8, first.requests());
+        release.countDown();
+        assertTrue(results.get(5, TimeUnit.SECONDS).stream().allMatch(Batch.Result::isSuccess));
+        assertEquals(70, first.requests());
+    }
+
+    @Test
+    public void shouldOnlyTakeRequestsWhenThereIsRoom() {
+        AtomicInteger taken = new AtomicInteger();
+        Iterator<HttpRequest> source = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return taken.get() < 30;
+            }
+
+            @Override
+            public HttpRequest next() {
+                return HttpRequest.GET(first.url("/" + taken.getAndIncrement()));
+            }
+        };
+        Iterator<Batch.Result> results = client.batch().maxInFlight(4).ordered(true).stream(source);
+        int consumed = 0;
+        while (results.hasNext()) {
+            Batch.Result result = results.next();
+            assertEquals("/" + consumed, result.getResponse().getBody());
+            consumed++;
+            assertTrue("Took " + taken.get() + " having handed over " + consumed, taken.get() - consumed <= 4);
+        }
+        assertEquals(30, consumed);
+    }
+
+    @Test
+    public void shouldReportFailuresAsResults() {
+        List<HttpRequest> requests = List.of(HttpRequest.GET(first.url("/ok")), HttpRequest.GET("http://localhost:1/refused"));
+        List<Batch.Result> results = client.executeAll(requests).join();
+        assertTrue(results.get(0).isSuccess());
+        assertFalse(results.get(1).isSuccess());
+        assertTrue(results.get(1).getFailure() instanceof IOException);
+    }
+
+    @Test
+    public void shouldRunManyRequestsThatFailRightAway() throws Exception {
+        List<HttpRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            requests.add(HttpRequest.GET("notaurl"));
+        }
+        for (Batch batch : List.of(client.batch(), client.batch().maxInFlight(5000).maxInFlightPerHost(1000))) {
+            List<Batch.Result> results = batch.executeAll(requests).get(10, TimeUnit.SECONDS);
+            assertEquals(requests.size(), results.size());
+            assertTrue(results.stream().noneMatch(Batch.Result::isSuccess));
+        }
+        Iterator<Batch.Result> results = client.batch().maxInFlightPerHost(1000).stream(requests.iterator());
+        int consumed = 0;
+        while (results.hasNext()) {
+            assertFalse(results.next().isSuccess());
+            consumed++;
+        }
+        assertEquals(requests.size(), consumed);
+    }
+
+    private class CountingHandler implements StubServer.Handler {
+        private final AtomicInteger hostActive;
+        private final AtomicInteger hostMaxActive;
+
+        private CountingHandler(AtomicInteger hostActive, AtomicInteger hostMaxActive) {
+            this.hostActive = hostActive;
+            this.hostMaxActive = hostMaxActive;
+        }
+
+        @Override
+        public StubServer.Response handle(StubServer.Request request) throws Exception {
+            hostMaxActive.accumulateAndGet(hostActive.incrementAndGet(), Math::max);
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(10);
+                return StubServer.Response.ok(request.path);
+            } finally {
+                active.decrementAndGet();
+                hostActive.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(Parameterized.class)
+public class BodyHandlersTest {
+    private static final byte[] LARGE = new byte[3 * 1024 * 1024 + 17];
+
+    static {
+        for (int i = 0; i < LARGE.length; i++) {
+            LARGE[i] = (byte) (i * 31);
+        }
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> transports() {
+        return List.of(new Object[]{"url connection", 0}, new Object[]{"nio", 1});
+    }
+
+    private final int eventLoopThreads;
+    private StubServer server;
+    private HttpClient client;
+
+    public BodyHandlersTest(String name, int eventLoopThreads) {
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer(request -> new StubServer.Response(200, LARGE));
+        HttpClient.Builder builder = HttpClient.builder();
+        if (eventLoopThreads > 0) {
+            builder.nioTransport(eventLoopThreads);
+        }
+        client = builder.build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void shouldStreamLargeBody() throws Exception {
+        BodyResponse<InputStream> response = client.send(HttpRequest.GET(server.url("/large")), BodyHandlers.ofInputStream()).join();
+        assertEquals(200, response.getCode());
+        try (InputStream body = response.getBody()) {
+            assertArrayEquals(LARGE, body.readAllBytes());
+        }
+        assertEquals(0, client.getConnectionPool().getActive());
+    }
+
+    @Test
+    public void shouldGiveStreamBeforeBodyHasArrived() throws Exception {
+        CountDownLatch firstChunkRead = new CountDownLatch(1);
+        server.handler(request -> StubServer.Response.chunked(sink -> {
+            sink.chunk("first".getBytes(StandardCharsets.UTF_8));
+            assertTrue(firstChunkRead.await(5, TimeUnit.SECONDS));
+            sink.chunk(" second".getBytes(StandardCharsets.UTF_8));
+        }));
+        BodyResponse<InputStream> response = client.send(HttpRequest.GET(server.url("/slow")), BodyHandlers.ofInputStream()).get(5, TimeUnit.SECONDS);
+        try (InputStream body = response.getBody()) {
+            byte[] first = body.readNBytes(5);
+            assertEquals("first", new String(first, StandardCharsets.UTF_8));
+            firstChunkRead.countDown();
+            assertEquals(" second", new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void shouldReleaseConnectionWhenClosingEarly() throws Exception {
+        BodyResponse<InputStream> response = client.send(HttpRequest.GET(server.url("/large")), BodyHandlers.ofInputStream()).join();
+        response.getBody().readNBytes(10);
+        response.getBody().close();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (client.getConnectionPool().getActive() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, client.getConnectionPool().getActive());
+        assertEquals(200, client.send(HttpRequest.GET(server.url("/large")), BodyHandlers.ofByteArray()).join().getCode());
+    }
+
+    @Test
+    public void shouldWriteBodyToFile() throws Exception {
+        Path file = Files.createTempFile("body", ".bin");
+        try {
+            BodyResponse<Path> response = client.send(HttpRequest.GET(server.url("/large")), BodyHandlers.ofFile(file)).join();
+            assertEquals(file, response.getBody());
+            assertArrayEquals(LARGE, Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldWriteBodyToChannel() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BodyResponse<Long> response = client.send(HttpRequest.GET(server.url("/large")), BodyHandlers.ofChannel(Channels.newChannel(output))).join();
+        assertEquals(LARGE.length, (long) response.getBody());
+        assertArrayEquals(LARGE, output.toByteArray());
+    }
+
+    @Test
+    public void shouldPublishBody() {
+        Flow.Publisher<ByteBuffer> publisher = client.send(HttpRequest.GET(server.url("/large")), BodyHandlers.ofPublisher()).join().getBody();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        CompletableFuture<byte[]> received = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                byte[] bytes = new byte[item.remaining()];
+                item.get(bytes);
+                output.writeBytes(bytes);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                received.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                received.complete(output.toByteArray());
+            }
+        });
+        assertTrue(Arrays.equals(LARGE, received.join()));
+    }
+}
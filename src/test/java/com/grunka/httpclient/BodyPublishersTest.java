@@ -0,0 +1,132 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+@RunWith(Parameterized.class)
+public class BodyPublishersTest {
+    private static final byte[] LARGE = new byte[2 * 1024 * 1024 + 3];
+
+    static {
+        for (int i = 0; i < LARGE.length; i++) {
+            LARGE[i] = (byte) (i * 7);
+        }
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> transports() {
+        return List.of(new Object[]{"url connection", 0}, new Object[]{"nio", 1});
+    }
+
+    private final int eventLoopThreads;
+    private final AtomicReference<StubServer.Request> received = new AtomicReference<>();
+    private StubServer server;
+    private HttpClient client;
+
+    public BodyPublishersTest(String name, int eventLoopThreads) {
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer(request -> {
+            received.set(request);
+            return StubServer.Response.ok(String.valueOf(request.body.length));
+        });
+        HttpClient.Builder builder = HttpClient.builder();
+        if (eventLoopThreads > 0) {
+            builder.nioTransport(eventLoopThreads);
+        }
+        client = builder.build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void shouldPostBinaryContent() {
+        byte[] content = {0, 1, 2, (byte) 0xff, (byte) 0xfe};
+        HttpResponse response = client.send(HttpRequest.POST(server.url("/bytes")).contentType("application/octet-stream").content(content)).join();
+        assertEquals("5", response.getBody());
+        assertArrayEquals(content, received.get().body);
+        assertEquals("application/octet-stream", received.get().header("Content-Type"));
+        assertEquals("5", received.get().header("Content-Length"));
+    }
+
+    @Test
+    public void shouldPostRemainingBytesOfBuffer() {
+        ByteBuffer buffer = ByteBuffer.wrap(LARGE);
+        buffer.position(3);
+        client.send(HttpRequest.POST(server.url("/buffer")).content(BodyPublishers.ofByteBuffer(buffer))).join();
+        assertEquals(3, buffer.position());
+        assertEquals(LARGE.length - 3, received.get().body.length);
+        assertEquals(LARGE[3], received.get().body[0]);
+    }
+
+    @Test
+    public void shouldStreamInputStreamWithChunkedEncoding() {
+        HttpResponse response = client.send(HttpRequest.POST(server.url("/stream")).content(BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(LARGE)))).join();
+        assertEquals(String.valueOf(LARGE.length), response.getBody());
+        assertEquals("chunked", received.get().header("Transfer-Encoding"));
+        assertNull(received.get().header("Content-Length"));
+        assertArrayEquals(LARGE, received.get().body);
+    }
+
+    @Test
+    public void shouldPostFile() throws IOException {
+        Path file = Files.createTempFile("upload", ".bin");
+        try {
+            Files.write(file, LARGE);
+            client.send(HttpRequest.POST(server.url("/file")).content(BodyPublishers.ofFile(file))).join();
+            assertEquals(String.valueOf(LARGE.length), received.get().header("Content-Length"));
+            assertArrayEquals(LARGE, received.get().body);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldFailWhenBodyCannotBeRead() {
+        BodyPublisher broken = BodyPublishers.ofInputStream(() -> new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Broken body");
+            }
+        });
+        try {
+            client.send(HttpRequest.POST(server.url("/broken")).content(broken)).join();
+            fail();
+        } catch (CompletionException e) {
+            assertEquals("Broken body", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void shouldKeepStringContentCharset() {
+        client.send(HttpRequest.POST(server.url("/json")).json("{\"a\":\"å\"}")).join();
+        assertEquals(HttpClient.APPLICATION_JSON + "; charset=UTF-8", received.get().header("Content-Type"));
+        assertEquals("{\"a\":\"å\"}", received.get().bodyAsString());
+    }
+}
@@ -0,0 +1,138 @@
+package com.grunka.httpclient;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class BufferPoolTest {
+    private static final int ITERATIONS = 20_000;
+
+    @Test
+    public void shouldRoundUpToSizeClass() {
+        assertEquals(BufferPool.MIN_SIZE, BufferPool.acquire(0).length);
+        assertEquals(BufferPool.MIN_SIZE, BufferPool.acquire(BufferPool.MIN_SIZE).length);
+        assertEquals(2 * BufferPool.MIN_SIZE, BufferPool.acquire(BufferPool.MIN_SIZE + 1).length);
+        assertEquals(BufferPool.MAX_SIZE, BufferPool.acquire(BufferPool.MAX_SIZE).length);
+        assertEquals(BufferPool.MAX_SIZE + 1, BufferPool.acquire(BufferPool.MAX_SIZE + 1).length);
+    }
+
+    @Test
+    public void shouldReuseReleasedBuffers() {
+        byte[] buffer = BufferPool.acquire(100_000);
+        BufferPool.release(buffer);
+        assertSame(buffer, BufferPool.acquire(100_000));
+    }
+
+    @Test
+    public void shouldReadBodiesOfAnyLength() throws IOException {
+        for (int length : new int[]{0, 1, BufferPool.MIN_SIZE, BufferPool.MIN_SIZE + 1, BufferPool.MAX_SIZE + 1, 1_000_000, 10_000_000}) {
+            byte[] content = new byte[length];
+            Arrays.fill(content, (byte) 'x');
+            assertArrayEquals(content, BodyHandlers.ofByteArray().handle(new SizedBody(content, length), StandardCharsets.UTF_8));
+            assertArrayEquals(content, BodyHandlers.ofByteArray().handle(new SizedBody(content, -1), StandardCharsets.UTF_8));
+            assertEquals(length, BodyHandlers.ofString().handle(new SizedBody(content, length), StandardCharsets.UTF_8).length());
+        }
+    }
+
+    @Test
+    public void shouldNotTrustHugeContentLengthUpFront() throws IOException {
+        byte[] content = "short".getBytes(StandardCharsets.UTF_8);
+        long start = allocationCountingAvailable() ? allocatedBytes() : 0;
+        assertArrayEquals(content, BodyHandlers.ofByteArray().handle(new SizedBody(content, 2_000_000_000L), StandardCharsets.UTF_8));
+        assertEquals("short", BodyHandlers.ofString().handle(new SizedBody(content, Integer.MAX_VALUE + 1L), StandardCharsets.UTF_8));
+        if (allocationCountingAvailable()) {
+            long allocated = allocatedBytes() - start;
+            assertTrue("Allocated " + allocated + " bytes for a 5 byte body", allocated < 20_000_000);
+        }
+    }
+
+    @Test
+    public void shouldAllocateLessPerResponseThanReadingAllBytes() throws IOException {
+        assumeTrue("Allocation counting not available", allocationCountingAvailable());
+        byte[] json = jsonBody(4096);
+        BodyHandler<String> readAllBytes = (body, charset) -> {
+            try (body) {
+                return new String(body.readAllBytes(), charset);
+            }
+        };
+        long before = bytesAllocatedPerResponse(readAllBytes, json);
+        long after = bytesAllocatedPerResponse(BodyHandlers.ofString(), json);
+        System.out.println("Bytes allocated per " + json.length + " byte response, before: " + before + ", after: " + after);
+        assertTrue("Expected at most half of " + before + " bytes per response, got " + after, after <= before / 2);
+    }
+
+    private static long bytesAllocatedPerResponse(BodyHandler<String> handler, byte[] body) throws IOException {
+        long checksum = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            checksum += handler.handle(new SizedBody(body, body.length), StandardCharsets.UTF_8).length();
+        }
+        long start = allocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            checksum += handler.handle(new SizedBody(body, body.length), StandardCharsets.UTF_8).length();
+        }
+        long allocated = allocatedBytes() - start;
+        assertEquals(2L * ITERATIONS * body.length, checksum);
+        return allocated / ITERATIONS;
+    }
+
+    private static boolean allocationCountingAvailable() {
+        return ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).isThreadAllocatedMemorySupported();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static byte[] jsonBody(int length) {
+        StringBuilder json = new StringBuilder("[");
+        while (json.length() < length - 20) {
+            json.append("{\"id\":").append(json.length()).append("},");
+        }
+        json.setLength(json.length() - 1);
+        json.append(']');
+        while (json.length() < length) {
+            json.append(' ');
+        }
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Stands in for a response body, which unlike {@link ByteArrayInputStream} has no shortcut for reading all of it.
+     */
+    private static class SizedBody extends InputStream implements KnownLength {
+        private final ByteArrayInputStream content;
+        private final long contentLength;
+
+        SizedBody(byte[] content, long contentLength) {
+            this.content = new ByteArrayInputStream(content);
+            this.contentLength = contentLength;
+        }
+
+        @Override
+        public int read() {
+            return content.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return content.read(b, off, len);
+        }
+
+        @Override
+        public long contentLength() {
+            return contentLength;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(Parameterized.class)
+public class CancellationTest {
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> transports() {
+        return List.of(new Object[]{"url connection", 0}, new Object[]{"nio", 1});
+    }
+
+    private final int eventLoopThreads;
+    private final CountDownLatch release = new CountDownLatch(1);
+    private StubServer server;
+    private HttpClient client;
+
+    public CancellationTest(String name, int eventLoopThreads) {
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer(request -> {
+            if (request.path.equals("/trickle")) {
+                return StubServer.Response.chunked(sink -> {
+                    while (true) {
+                        sink.chunk("x".getBytes(StandardCharsets.UTF_8));
+                        Thread.sleep(20);
+                    }
+                });
+            }
+            if (request.path.equals("/hang")) {
+                release.await(10, TimeUnit.SECONDS);
+            }
+            return StubServer.Response.ok("done");
+        });
+        HttpClient.Builder builder = HttpClient.builder().readTimeout(10_000);
+        if (eventLoopThreads > 0) {
+            builder.nioTransport(eventLoopThreads);
+        }
+        client = builder.build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        client.close();
+        server.close();
+    }
+
+    private void assertConnectionsReleased() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (client.getConnectionPool().getActive() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, client.getConnectionPool().getActive());
+    }
+
+    private static void assertTimedOut(CompletableFuture<?> response) throws Exception {
+        try {
+            response.get(2, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void shouldAbortWaitingForResponseOnTimeout() throws Exception {
+        assertTimedOut(client.send(HttpRequest.GET(server.url("/hang")).timeout(200)));
+        assertConnectionsReleased();
+        assertEquals(1, server.requests());
+        assertEquals(1, client.getMetrics().getFailed());
+    }
+
+    @Test
+    public void shouldAbortTricklingBodyOnTimeout() throws Exception {
+        assertTimedOut(client.send(HttpRequest.GET(server.url("/trickle")).timeout(300)));
+        assertConnectionsReleased();
+    }
+
+    @Test
+    public void shouldUseTimeoutOfClient() throws Exception {
+        try (HttpClient client = HttpClient.builder().timeout(200).build()) {
+            assertTimedOut(client.send(HttpRequest.GET(server.url("/hang"))));
+            assertEquals("done", client.send(HttpRequest.GET(server.url("/fast"))).get(2, TimeUnit.SECONDS).getBody());
+        }
+    }
+
+    @Test
+    public void shouldAbortWhenCancelled() throws Exception {
+        CompletableFuture<HttpResponse> response = client.send(HttpRequest.GET(server.url("/hang")));
+        long deadline = System.currentTimeMillis() + 1000;
+        while (server.requests() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(response.cancel(true));
+        assertConnectionsReleased();
+        assertEquals("done", client.send(HttpRequest.GET(server.url("/fast"))).get(2, TimeUnit.SECONDS).getBody());
+    }
+
+    @Test
+    public void shouldAbortReadingBodyWhenCancelled() throws Exception {
+        CompletableFuture<BodyResponse<byte[]>> response = client.send(HttpRequest.GET(server.url("/trickle")), BodyHandlers.ofByteArray());
+        Thread.sleep(100);
+        assertTrue(response.cancel(true));
+        assertConnectionsReleased();
+    }
+}
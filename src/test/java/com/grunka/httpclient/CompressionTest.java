@@ -0,0 +1,136 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(Parameterized.class)
+public class CompressionTest {
+    private static final String JSON = "{\"values\":[" + "1,2,3,4,5,6,7,8,9,".repeat(500) + "0]}";
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> transports() {
+        return List.of(new Object[]{"url connection", 0}, new Object[]{"nio", 1});
+    }
+
+    private final int eventLoopThreads;
+    private final AtomicReference<StubServer.Request> received = new AtomicReference<>();
+    private StubServer server;
+
+    public CompressionTest(String name, int eventLoopThreads) {
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer(request -> {
+            received.set(request);
+            switch (request.path) {
+                case "/gzip":
+                    return new StubServer.Response(200, gzip(JSON.getBytes(StandardCharsets.UTF_8))).header("Content-Encoding", "gzip");
+                case "/deflate":
+                    return new StubServer.Response(200, deflate(JSON.getBytes(StandardCharsets.UTF_8), false)).header("Content-Encoding", "deflate");
+                case "/raw-deflate":
+                    return new StubServer.Response(200, deflate(JSON.getBytes(StandardCharsets.UTF_8), true)).header("Content-Encoding", "deflate");
+                case "/empty":
+                    return new StubServer.Response(200, new byte[0]).header("Content-Encoding", "gzip");
+                default:
+                    return StubServer.Response.ok(request.bodyAsString());
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    private HttpClient.Builder builder() {
+        HttpClient.Builder builder = HttpClient.builder();
+        if (eventLoopThreads > 0) {
+            builder.nioTransport(eventLoopThreads);
+        }
+        return builder;
+    }
+
+    @Test
+    public void shouldDecodeCompressedResponses() {
+        try (HttpClient client = builder().build()) {
+            for (String path : List.of("/gzip", "/deflate", "/raw-deflate")) {
+                assertEquals(path, JSON, client.send(HttpRequest.GET(server.url(path))).join().getBody());
+                assertEquals("gzip, deflate", received.get().header("Accept-Encoding"));
+            }
+            assertEquals("", client.send(HttpRequest.GET(server.url("/empty"))).join().getBody());
+        }
+    }
+
+    @Test
+    public void shouldLeaveResponseAloneWhenDecompressionIsOff() throws IOException {
+        try (HttpClient client = builder().decompression(false).build()) {
+            byte[] body = client.send(HttpRequest.GET(server.url("/gzip")), BodyHandlers.ofByteArray()).join().getBody();
+            assertNull(received.get().header("Accept-Encoding"));
+            assertEquals(JSON, new String(new GZIPInputStream(new ByteArrayInputStream(body)).readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void shouldSendRequestHeadersInsteadOfClientDefaults() throws IOException {
+        try (HttpClient client = builder().build()) {
+            HttpRequest request = HttpRequest.GET(server.url("/gzip")).header("Accept-Encoding", "gzip").header("User-Agent", "mine").header("Accept", "text/x");
+            byte[] body = client.send(request, BodyHandlers.ofByteArray()).join().getBody();
+            assertEquals("gzip", received.get().header("Accept-Encoding"));
+            assertEquals("mine", received.get().header("User-Agent"));
+            assertEquals("text/x", received.get().header("Accept"));
+            assertEquals(JSON, new String(new GZIPInputStream(new ByteArrayInputStream(body)).readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void shouldCompressRequestsAboveThreshold() throws IOException {
+        try (HttpClient client = builder().requestCompression(1024).build()) {
+            client.send(HttpRequest.POST(server.url("/echo")).json(JSON)).join();
+            assertEquals("gzip", received.get().header("Content-Encoding"));
+            assertEquals(HttpClient.APPLICATION_JSON + "; charset=UTF-8", received.get().header("Content-Type"));
+            assertEquals(JSON, new String(new GZIPInputStream(new ByteArrayInputStream(received.get().body)).readAllBytes(), StandardCharsets.UTF_8));
+
+            assertEquals("{}", client.send(HttpRequest.POST(server.url("/echo")).json("{}")).join().getBody());
+            assertNull(received.get().header("Content-Encoding"));
+        }
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(content);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] content, boolean raw) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, raw);
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(compressed, deflater)) {
+            deflate.write(content);
+        } finally {
+            deflater.end();
+        }
+        return compressed.toByteArray();
+    }
+}
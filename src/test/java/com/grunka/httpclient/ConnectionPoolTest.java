@@ -0,0 +1,176 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConnectionPoolTest {
+    private StubServer server;
+    private HttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer(request -> StubServer.Response.ok("pooled"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.close();
+        }
+        server.close();
+    }
+
+    @Test
+    public void shouldReuseConnectionForSequentialRequests() {
+        client = HttpClient.builder().nioTransport(1).build();
+        for (int i = 0; i < 5; i++) {
+            assertEquals("pooled", client.send(HttpRequest.GET(server.url("/"))).join().getBody());
+        }
+        assertEquals(1, server.connections());
+        assertEquals(1, client.getConnectionPool().getIdle());
+        assertEquals(0, client.getConnectionPool().getActive());
+    }
+
+    @Test
+    public void shouldNotKeepConnectionWhenDisconnecting() {
+        client = HttpClient.builder().nioTransport(1).build();
+        client.send(HttpRequest.GET(server.url("/")).disconnect()).join();
+        client.send(HttpRequest.GET(server.url("/")).disconnect()).join();
+        assertEquals(2, server.connections());
+        assertEquals(0, client.getConnectionPool().getIdle());
+    }
+
+    @Test
+    public void shouldLimitConnectionsPerHost() throws Exception {
+        server.handler(request -> {
+            Thread.sleep(100);
+            return StubServer.Response.ok("slow");
+        });
+        client = HttpClient.builder().nioTransport(1).maxConnectionsPerHost(2).build();
+        List<CompletableFuture<HttpResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            responses.add(client.send(HttpRequest.GET(server.url("/"))));
+        }
+        assertEquals(2, client.getConnectionPool().getActive());
+        assertEquals(4, client.getConnectionPool().getPending());
+        responses.forEach(CompletableFuture::join);
+        assertEquals(2, server.maxOpenConnections());
+        assertEquals(0, client.getConnectionPool().getPending());
+        assertEquals(2, client.getConnectionPool().getIdle());
+    }
+
+    @Test
+    public void shouldLimitConnectionsPerHostWithUrlConnections() throws Exception {
+        server.handler(request -> {
+            Thread.sleep(100);
+            return StubServer.Response.ok("slow");
+        });
+        client = HttpClient.builder().maxConnectionsPerHost(1).build();
+        List<CompletableFuture<HttpResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            responses.add(client.send(HttpRequest.GET(server.url("/"))));
+        }
+        assertEquals(2, client.getConnectionPool().getPending());
+        responses.forEach(CompletableFuture::join);
+        assertEquals(1, server.maxOpenConnections());
+        assertEquals(0, client.getConnectionPool().getActive());
+    }
+
+    @Test
+    public void shouldEvictIdleConnections() throws Exception {
+        client = HttpClient.builder().nioTransport(1).maxIdleTime(50).build();
+        client.send(HttpRequest.GET(server.url("/"))).join();
+        assertEquals(1, client.getConnectionPool().getIdle());
+        long deadline = System.currentTimeMillis() + 2000;
+        while (client.getConnectionPool().getIdle() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, client.getConnectionPool().getIdle());
+    }
+
+    @Test
+    public void shouldLetGoOfHostsWithoutConnections() throws Exception {
+        client = HttpClient.builder().nioTransport(1).maxIdleTime(50).build();
+        client.send(HttpRequest.GET(server.url("/")).disconnect()).join();
+        client.send(HttpRequest.GET("http://127.0.0.1:" + server.port() + "/").disconnect()).join();
+        assertEquals(0, client.getConnectionPool().getHosts());
+        client.send(HttpRequest.GET(server.url("/"))).join();
+        assertEquals(1, client.getConnectionPool().getHosts());
+        long deadline = System.currentTimeMillis() + 2000;
+        while (client.getConnectionPool().getHosts() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, client.getConnectionPool().getHosts());
+        assertEquals("pooled", client.send(HttpRequest.GET(server.url("/"))).join().getBody());
+    }
+
+    @Test
+    public void shouldReplaceConnectionsClosedByServer() throws Exception {
+        client = HttpClient.builder().nioTransport(1).build();
+        client.send(HttpRequest.GET(server.url("/"))).join();
+        server.dropConnections();
+        Thread.sleep(50);
+        assertEquals("pooled", client.send(HttpRequest.GET(server.url("/"))).join().getBody());
+        assertEquals(2, server.connections());
+    }
+
+    @Test
+    public void shouldRetryStaleConnectionWithoutValidation() throws Exception {
+        client = HttpClient.builder().nioTransport(1).validateOnBorrow(false).build();
+        client.send(HttpRequest.GET(server.url("/"))).join();
+        server.dropConnections();
+        Thread.sleep(50);
+        assertEquals("pooled", client.send(HttpRequest.GET(server.url("/"))).join().getBody());
+        assertTrue(server.connections() >= 2);
+    }
+
+    @Test
+    public void shouldNotResendTimedOutRequestOnPooledConnection() throws Exception {
+        server.handler(request -> {
+            if (request.path.equals("/slow")) {
+                Thread.sleep(500);
+            }
+            return StubServer.Response.ok("pooled");
+        });
+        client = HttpClient.builder().nioTransport(1).readTimeout(100).build();
+        client.send(HttpRequest.GET(server.url("/"))).join();
+        try {
+            client.send(HttpRequest.GET(server.url("/slow"))).join();
+            fail("Expected the request to time out");
+        } catch (CompletionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof SocketTimeoutException);
+        }
+        Thread.sleep(600);
+        assertEquals(2, server.requests());
+    }
+
+    @Test
+    public void shouldNotResendPostThatWasSentOnStaleConnection() throws Exception {
+        server.handler(request -> {
+            if (request.path.equals("/drop")) {
+                server.dropConnections();
+                return null;
+            }
+            return StubServer.Response.ok("pooled");
+        });
+        client = HttpClient.builder().nioTransport(1).build();
+        client.send(HttpRequest.GET(server.url("/"))).join();
+        try {
+            client.send(HttpRequest.POST(server.url("/drop")).content("once")).join();
+            fail("Expected the connection to be dropped");
+        } catch (CompletionException expected) {
+        }
+        assertEquals(2, server.requests());
+    }
+}
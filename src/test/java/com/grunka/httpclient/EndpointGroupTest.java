@@ -0,0 +1,173 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EndpointGroupTest {
+    private final List<StubServer> servers = new ArrayList<>();
+    private final AtomicLong clock = new AtomicLong();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private HttpClient client;
+
+    private StubServer server(String name, long delay) throws Exception {
+        StubServer server = new StubServer(request -> {
+            Thread.sleep(delay);
+            return StubServer.Response.ok(name + " " + request.path);
+        });
+        servers.add(server);
+        return server;
+    }
+
+    private EndpointGroup createClient(EndpointGroup.Builder builder) {
+        EndpointGroup group = builder.nanoClock(clock::get).build();
+        client = HttpClient.builder().endpointGroup(group).build();
+        return group;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        if (client != null) {
+            client.close();
+        }
+        for (StubServer server : servers) {
+            server.close();
+        }
+    }
+
+    private String get(String url) {
+        return client.send(HttpRequest.GET(url)).join().getBody();
+    }
+
+    @Test
+    public void shouldTakeTurnsAndAppendPathToBaseUrl() throws Exception {
+        EndpointGroup group = createClient(EndpointGroup.builder("users")
+                .endpoint(server("a", 0).url("/v1"))
+                .endpoint(server("b", 0).url("/v1/"))
+                .endpoint(server("c", 0).url("")));
+        List<String> bodies = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            bodies.add(get("group://users/items/" + i + "?q=1"));
+        }
+        assertEquals(List.of("a /v1/items/0?q=1", "b /v1/items/1?q=1", "c /items/2?q=1", "a /v1/items/3?q=1", "b /v1/items/4?q=1", "c /items/5?q=1"), bodies);
+        assertEquals("a /v1", get("group://users"));
+        for (String endpoint : group.getEndpoints()) {
+            assertEquals(0, group.getOutstanding(endpoint));
+        }
+    }
+
+    @Test
+    public void shouldAvoidEndpointsWithRequestsInFlight() throws Exception {
+        StubServer stuck = new StubServer(request -> {
+            release.await(10, TimeUnit.SECONDS);
+            return StubServer.Response.ok("stuck");
+        });
+        servers.add(stuck);
+        StubServer other = server("other", 0);
+        EndpointGroup group = createClient(EndpointGroup.builder("service").endpoint(stuck.url("")).endpoint(other.url("")));
+        CompletableFuture<HttpResponse> hanging = client.send(HttpRequest.GET("group://service/"));
+        assertEquals(1, group.getOutstanding(stuck.url("")));
+        for (int i = 0; i < 10; i++) {
+            assertEquals("other /", get("group://service/"));
+        }
+        assertEquals(1, stuck.requests());
+        release.countDown();
+        assertEquals("stuck", hanging.join().getBody());
+        assertEquals(0, group.getOutstanding(stuck.url("")));
+    }
+
+    @Test
+    public void shouldRouteAroundSlowEndpointsWithPowerOfTwoChoices() throws Exception {
+        StubServer slow = server("slow", 50);
+        StubServer fast = server("fast", 0);
+        StubServer alsoFast = server("fast", 0);
+        // Latencies have to be measured for real here
+        EndpointGroup group = EndpointGroup.builder("service")
+                .selection(EndpointGroup.Selection.POWER_OF_TWO_CHOICES)
+                .endpoint(slow.url(""))
+                .endpoint(fast.url(""))
+                .endpoint(alsoFast.url(""))
+                .build();
+        client = HttpClient.builder().endpointGroup(group).build();
+        for (int i = 0; i < 60; i++) {
+            assertTrue(get("group://service/").endsWith(" /"));
+        }
+        assertTrue("Slow endpoint got " + slow.requests() + " requests", slow.requests() <= 3);
+        assertEquals(60, slow.requests() + fast.requests() + alsoFast.requests());
+        assertEquals(slow.requests(), group.getRequests(slow.url("")));
+    }
+
+    @Test
+    public void shouldEjectFailingEndpoints() throws Exception {
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = socket.getLocalPort();
+        }
+        String down = "http://localhost:" + closedPort;
+        EndpointGroup group = createClient(EndpointGroup.builder("service")
+                .endpoint(down)
+                .endpoint(server("up", 0).url(""))
+                .ejection(2, 1000));
+        int failures = 0;
+        for (int i = 0; i < 10; i++) {
+            try {
+                assertEquals("up /", get("group://service/"));
+            } catch (CompletionException e) {
+                failures++;
+            }
+        }
+        assertEquals(2, failures);
+        assertTrue(group.isEjected(down));
+        assertEquals(2, group.getRequests(down));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        assertFalse(group.isEjected(down));
+        failures = 0;
+        for (int i = 0; i < 10; i++) {
+            try {
+                get("group://service/");
+            } catch (CompletionException e) {
+                failures++;
+            }
+        }
+        assertEquals("A single failure ejects it again", 1, failures);
+        assertTrue(group.isEjected(down));
+    }
+
+    @Test
+    public void shouldUseEjectedEndpointsWhenAllAreEjected() throws Exception {
+        StubServer failing = new StubServer(request -> StubServer.Response.status(503, "down"));
+        servers.add(failing);
+        EndpointGroup group = createClient(EndpointGroup.builder("service").endpoint(failing.url("")).ejection(1, 1000));
+        assertEquals(503, client.send(HttpRequest.GET("group://service/")).join().getCode());
+        assertTrue(group.isEjected(failing.url("")));
+        assertEquals(503, client.send(HttpRequest.GET("group://service/")).join().getCode());
+        assertEquals(2, failing.requests());
+    }
+
+    @Test
+    public void shouldFailForUnknownGroups() throws Exception {
+        createClient(EndpointGroup.builder("service").endpoint(server("a", 0).url("")));
+        try {
+            get("group://other/");
+            fail("Expected the group to be unknown");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof UnknownHostException);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+@RunWith(Parameterized.class)
+public class EventListenerTest {
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> transports() {
+        return List.of(new Object[]{"url connection", 0}, new Object[]{"nio", 1});
+    }
+
+    private final int eventLoopThreads;
+    private final List<String> events = new ArrayList<>();
+    private final List<Long> times = new ArrayList<>();
+    private StubServer server;
+
+    public EventListenerTest(String name, int eventLoopThreads) {
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer(request -> StubServer.Response.ok("Hello"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    private HttpClient client(EventListener.Factory factory) {
+        HttpClient.Builder builder = HttpClient.builder().eventListener(factory);
+        if (eventLoopThreads > 0) {
+            builder.nioTransport(eventLoopThreads);
+        }
+        return builder.build();
+    }
+
+    private synchronized void event(String event, long nanoTime) {
+        events.add(event);
+        times.add(nanoTime);
+    }
+
+    private final EventListener recorder = new EventListener() {
+        @Override
+        public void requestStarted(HttpRequest request, long nanoTime) {
+            event("started", nanoTime);
+        }
+
+        @Override
+        public void connectionAcquired(boolean reused, long nanoTime) {
+            event(reused ? "reused" : "acquired", nanoTime);
+        }
+
+        @Override
+        public void connected(long nanoTime) {
+            event("connected", nanoTime);
+        }
+
+        @Override
+        public void requestSent(long nanoTime) {
+            event("sent", nanoTime);
+        }
+
+        @Override
+        public void firstByte(long nanoTime) {
+            event("first byte", nanoTime);
+        }
+
+        @Override
+        public void bodyComplete(int code, long nanoTime) {
+            event("complete " + code, nanoTime);
+        }
+
+        @Override
+        public void failed(Throwable failure, long nanoTime) {
+            event("failed", nanoTime);
+        }
+    };
+
+    @Test
+    public void shouldReportPhasesInOrder() {
+        try (HttpClient client = client(request -> recorder)) {
+            assertEquals("Hello", client.send(HttpRequest.GET(server.url("/hello"))).join().getBody());
+            assertEquals("Hello", client.send(HttpRequest.GET(server.url("/hello"))).join().getBody());
+        }
+        if (eventLoopThreads > 0) {
+            assertEquals(List.of("started", "acquired", "connected", "sent", "first byte", "complete 200", "started", "reused", "sent", "first byte", "complete 200"), events);
+        } else {
+            assertEquals(List.of("started", "acquired", "sent", "first byte", "complete 200", "started", "acquired", "sent", "first byte", "complete 200"), events);
+        }
+        for (int i = 1; i < times.size(); i++) {
+            assertTrue(times.get(i) >= times.get(i - 1));
+        }
+    }
+
+    @Test
+    public void shouldReportFailure() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        try (HttpClient client = client(request -> recorder)) {
+            client.send(HttpRequest.GET("http://localhost:" + port + "/refused")).join();
+            fail();
+        } catch (CompletionException expected) {
+        }
+        assertEquals("started", events.get(0));
+        assertEquals("failed", events.get(events.size() - 1));
+    }
+
+    @Test
+    public void shouldRecordLatencyPerHostAndCode() {
+        LatencyMetrics latencies = new LatencyMetrics();
+        try (HttpClient client = client(latencies)) {
+            for (int i = 0; i < 3; i++) {
+                client.send(HttpRequest.GET(server.url("/hello"))).join();
+            }
+            server.handler(request -> StubServer.Response.status(404, "Missing"));
+            client.send(HttpRequest.GET(server.url("/missing"))).join();
+        }
+        assertEquals(Set.of("localhost"), latencies.getHosts());
+        assertEquals(3, latencies.getLatency("localhost", 200).getCount());
+        assertEquals(1, latencies.getLatency("localhost", 404).getCount());
+        assertEquals(4, latencies.getTimeToFirstByte("localhost").getCount());
+        assertEquals(0, latencies.getFailures("localhost").getCount());
+        assertTrue(latencies.getLatency("localhost", 200).getMax() > 0);
+    }
+
+    @Test
+    public void shouldNotAllocateWithoutListener() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        Call call = new Call(null);
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < 10_000; i++) {
+            call.connectionAcquired(false);
+            call.connected();
+            call.requestSent();
+            call.firstByte();
+            call.bodyComplete(200);
+        }
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        // Leaves room for the measurement itself
+        assertTrue("Allocated " + allocated, allocated < 1024);
+    }
+}
@@ -0,0 +1,149 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(Parameterized.class)
+public class HedgingPolicyTest {
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> transports() {
+        return List.of(new Object[]{"url connection", 0}, new Object[]{"nio", 1});
+    }
+
+    private final int eventLoopThreads;
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger slowRequestsLeft = new AtomicInteger();
+    private StubServer server;
+
+    public HedgingPolicyTest(String name, int eventLoopThreads) {
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer(request -> {
+            if (slowRequestsLeft.getAndDecrement() > 0) {
+                assertTrue(release.await(10, TimeUnit.SECONDS));
+                return StubServer.Response.ok("slow");
+            }
+            return StubServer.Response.ok("fast");
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        server.close();
+    }
+
+    private HttpClient client(HedgingPolicy policy) {
+        return builder(policy).build();
+    }
+
+    private HttpClient.Builder builder(HedgingPolicy policy) {
+        HttpClient.Builder builder = HttpClient.builder().hedgingPolicy(policy);
+        if (eventLoopThreads > 0) {
+            builder.nioTransport(eventLoopThreads);
+        }
+        return builder;
+    }
+
+    @Test
+    public void shouldAnswerWithHedgeWhenFirstRequestIsSlow() throws Exception {
+        slowRequestsLeft.set(1);
+        try (HttpClient client = client(HedgingPolicy.builder().delay(20).build())) {
+            HttpResponse response = client.send(HttpRequest.GET(server.url("/hedged"))).get(5, TimeUnit.SECONDS);
+            assertEquals("fast", response.getBody());
+            assertEquals(2, server.requests());
+            assertEquals(1, client.getMetrics().getHedges());
+            assertEquals(1, client.getMetrics().getHedgesWon());
+            // The slow request is still waiting to be answered, its connection is closed without waiting for that
+            long deadline = System.currentTimeMillis() + 2000;
+            while (client.getConnectionPool().getActive() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, client.getConnectionPool().getActive());
+            assertEquals(1, release.getCount());
+        }
+    }
+
+    @Test
+    public void shouldKeepLatenciesOfTheHedgeApart() throws Exception {
+        slowRequestsLeft.set(1);
+        LatencyMetrics latencies = new LatencyMetrics();
+        try (HttpClient client = builder(HedgingPolicy.builder().delay(50).build()).eventListener(latencies).build()) {
+            long started = System.nanoTime();
+            assertEquals("fast", client.send(HttpRequest.GET(server.url("/hedged"))).get(5, TimeUnit.SECONDS).getBody());
+            long elapsed = System.nanoTime() - started;
+            assertEquals(1, latencies.getLatency("localhost", 200).getCount());
+            // Only the hedge got an answer, its first byte counts from the start of the request
+            Histogram firstByte = latencies.getTimeToFirstByte("localhost");
+            assertEquals(1, firstByte.getCount());
+            assertTrue("First byte after " + firstByte.getMin() + " ns", firstByte.getMin() >= TimeUnit.MILLISECONDS.toNanos(50) && firstByte.getMax() <= elapsed);
+            // Each attempt opened a connection of its own, timed from when that attempt got its slot in the pool
+            Histogram connect = latencies.getConnectTime("localhost");
+            assertEquals(eventLoopThreads > 0 ? 2 : 0, connect.getCount());
+            assertTrue("Connected after " + connect.getMax() + " ns", connect.getCount() == 0 || connect.getMax() < TimeUnit.MILLISECONDS.toNanos(50));
+        }
+    }
+
+    @Test
+    public void shouldNotHedgeFastRequests() {
+        try (HttpClient client = client(HedgingPolicy.builder().delay(1000).build())) {
+            assertEquals("fast", client.send(HttpRequest.GET(server.url("/fast"))).join().getBody());
+            assertEquals(1, server.requests());
+            assertEquals(0, client.getMetrics().getHedges());
+        }
+    }
+
+    @Test
+    public void shouldNotHedgePost() throws Exception {
+        slowRequestsLeft.set(1);
+        try (HttpClient client = client(HedgingPolicy.builder().delay(0).build())) {
+            release.countDown();
+            assertEquals("slow", client.send(HttpRequest.POST(server.url("/post")).json("{}")).get(5, TimeUnit.SECONDS).getBody());
+            assertEquals(1, server.requests());
+            assertEquals(0, client.getMetrics().getHedges());
+        }
+    }
+
+    @Test
+    public void shouldCapHedgeRate() throws Exception {
+        slowRequestsLeft.set(1);
+        try (HttpClient client = client(HedgingPolicy.builder().delay(20).maxHedgeRatio(0).build())) {
+            assertEquals("fast", client.send(HttpRequest.GET(server.url("/first"))).get(5, TimeUnit.SECONDS).getBody());
+            // The budget only ever held a single hedge so the second slow request has to wait for its answer
+            slowRequestsLeft.set(1);
+            var second = client.send(HttpRequest.GET(server.url("/second")));
+            Thread.sleep(200);
+            release.countDown();
+            assertEquals("slow", second.get(5, TimeUnit.SECONDS).getBody());
+            assertEquals(1, client.getMetrics().getHedges());
+        }
+    }
+
+    @Test
+    public void shouldUsePercentileOfObservedLatency() {
+        HedgingPolicy policy = HedgingPolicy.builder().delay(500).percentile(95, 5, 10).build();
+        try (HttpClient client = client(policy)) {
+            assertEquals(500, policy.currentDelay());
+            for (int i = 0; i < 10; i++) {
+                assertEquals("fast", client.send(HttpRequest.GET(server.url("/fast"))).join().getBody());
+            }
+            long delay = policy.currentDelay();
+            assertTrue("Delay was " + delay, delay >= 5 && delay < 500);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.grunka.httpclient;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+    @Test
+    public void shouldMapValuesToBucketsWithinPrecision() {
+        long[] values = {0, 1, 127, 128, 129, 255, 256, 1000, 123_456, 987_654_321, Long.MAX_VALUE / 3, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = Histogram.index(value);
+            assertTrue(Histogram.lowestEquivalentValue(index) <= value);
+            assertTrue(Histogram.highestEquivalentValue(index) >= value);
+            assertTrue(Histogram.highestEquivalentValue(index) - Histogram.lowestEquivalentValue(index) <= value / 64);
+        }
+    }
+
+    @Test
+    public void shouldGiveBackPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMin());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_500, histogram.getMean(), 0.001);
+        assertEquals(500_000, histogram.getValueAtPercentile(50), 500_000 / 64.0);
+        assertEquals(950_000, histogram.getValueAtPercentile(95), 950_000 / 64.0);
+        assertEquals(1_000_000, histogram.getValueAtPercentile(100));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+}
@@ -19,7 +19,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -33,6 +35,7 @@ public class HttpClientTest {
     private static final Map<String, List<String>> headers = new TreeMap<>(String::compareToIgnoreCase);
     private static final Map<String, String> response = new HashMap<>();
     private static final Map<String, String> request = new HashMap<>();
+    private static final AtomicInteger requests = new AtomicInteger();
 
     @BeforeClass
     public static void beforeClass() {
@@ -64,6 +67,7 @@ public class HttpClientTest {
                         try (BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
                             try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()))) {
                                 String in;
+                                String ifNoneMatch = null;
                                 while ((in = reader.readLine()).length() > 0) {
                                     System.out.println(in);
                                     int colon = in.indexOf(':');
@@ -76,6 +80,9 @@ public class HttpClientTest {
                                             list.add(line.substring(colon + 1).trim());
                                             return list;
                                         });
+                                        if (line.substring(0, colon).trim().equalsIgnoreCase("If-None-Match")) {
+                                            ifNoneMatch = line.substring(colon + 1).trim();
+                                        }
                                     } else {
                                         if (in.startsWith("GET")) {
                                             request.put("method", "GET");
@@ -91,9 +98,24 @@ public class HttpClientTest {
                                     socket.close();
                                     continue;
                                 }
+                                requests.incrementAndGet();
+                                String etag = response.get("etag");
+                                if (etag != null && etag.equals(ifNoneMatch)) {
+                                    writer.println("HTTP/1.1 304 Not Modified");
+                                    writer.println("ETag: " + etag);
+                                    writer.println("Connection: keep-alive");
+                                    writer.println();
+                                    continue;
+                                }
                                 writer.println("HTTP/1.1 " + response.get("code"));
                                 writer.println("Content-Length: " + response.get("content").length());
                                 writer.println("Connection: keep-alive");
+                                if (etag != null) {
+                                    writer.println("ETag: " + etag);
+                                }
+                                if (response.get("cache-control") != null) {
+                                    writer.println("Cache-Control: " + response.get("cache-control"));
+                                }
                                 writer.println();
                                 writer.print(response.get("content"));
                             }
@@ -118,19 +140,29 @@ public class HttpClientTest {
         serverThread.join();
     }
 
+    protected HttpClient.Builder builder() {
+        return HttpClient.builder();
+    }
+
+    protected CompletableFuture<HttpResponse> execute(HttpRequest request) {
+        return HttpClient.execute(request);
+    }
+
     @Before
     public void setUp() {
+        headers.clear();
         request.clear();
         response.clear();
         response.put("code", "200 OK");
         response.put("content", "");
         response.put("fail", null);
+        requests.set(0);
     }
 
     @Test
     public void shouldDoSimpleGet() {
         response.put("content", "Hello World!");
-        HttpResponse response = HttpClient.execute(HttpRequest.GET("http://localhost:" + serverPort + "/hello")).join();
+        HttpResponse response = execute(HttpRequest.GET("http://localhost:" + serverPort + "/hello")).join();
         assertTrue(response.isOk());
         assertEquals("Hello World!", response.getBody());
         assertTrue(headers.get("user-agent").contains("com.grunka.httpclient/1.0"));
@@ -141,7 +173,7 @@ public class HttpClientTest {
     public void shouldDoSimpleGetAndHandleError() {
         response.put("code", "500 ERROR");
         response.put("content", "Goodbye");
-        HttpResponse response = HttpClient.execute(HttpRequest.GET("http://localhost:" + serverPort + "/hello")).join();
+        HttpResponse response = execute(HttpRequest.GET("http://localhost:" + serverPort + "/hello")).join();
         assertFalse(response.isOk());
         assertEquals("Goodbye", response.getBody());
         assertTrue(headers.get("user-agent").contains("com.grunka.httpclient/1.0"));
@@ -152,7 +184,7 @@ public class HttpClientTest {
     public void shouldHandleFailureOnConnect() {
         response.put("fail", "on accept");
         try {
-            HttpClient.execute(HttpRequest.GET("http://localhost:" + serverPort + "/hello")).join();
+            execute(HttpRequest.GET("http://localhost:" + serverPort + "/hello")).join();
             fail();
         } catch (CompletionException e) {
             assertTrue(e.getCause() instanceof SocketException);
@@ -163,11 +195,80 @@ public class HttpClientTest {
     public void shouldHandleFailureAfterRequest() {
         response.put("fail", "after request");
         try {
-            HttpClient.execute(HttpRequest.GET("http://localhost:" + serverPort + "/hello")).join();
+            execute(HttpRequest.GET("http://localhost:" + serverPort + "/hello")).join();
             fail();
         } catch (CompletionException e) {
             assertTrue(e.getCause() instanceof SocketException);
         }
     }
+
+    @Test
+    public void shouldUseClientDefaults() {
+        response.put("content", "Configured");
+        try (HttpClient client = builder().userAgent("configured-agent").header("X-Service", "test").build()) {
+            HttpResponse response = client.send(HttpRequest.GET("http://localhost:" + serverPort + "/configured")).join();
+            assertEquals("Configured", response.getBody());
+            assertTrue(headers.get("user-agent").contains("configured-agent"));
+            assertTrue(headers.get("x-service").contains("test"));
+            assertEquals(1, client.getMetrics().getSucceeded());
+            assertEquals(0, client.getMetrics().getInFlight());
+        }
+    }
+
+    @Test
+    public void shouldServeFreshResponsesFromCache() {
+        response.put("content", "Cached");
+        response.put("cache-control", "max-age=60");
+        try (HttpClient client = builder().cache(1_000_000).build()) {
+            assertEquals("Cached", client.send(HttpRequest.GET("http://localhost:" + serverPort + "/cached")).join().getBody());
+            response.put("content", "Changed");
+            assertEquals("Cached", client.send(HttpRequest.GET("http://localhost:" + serverPort + "/cached")).join().getBody());
+            assertEquals(1, requests.get());
+            assertEquals(1, client.getCache().getHits());
+            assertEquals(1, client.getCache().getMisses());
+            assertEquals("Changed", client.send(HttpRequest.GET("http://localhost:" + serverPort + "/cached").accept(HttpClient.TEXT_PLAIN)).join().getBody());
+        }
+    }
+
+    @Test
+    public void shouldRevalidateCachedResponses() {
+        response.put("content", "Validated");
+        response.put("cache-control", "no-cache");
+        response.put("etag", "\"v1\"");
+        try (HttpClient client = builder().cache(1_000_000).build()) {
+            assertEquals("Validated", client.send(HttpRequest.GET("http://localhost:" + serverPort + "/validated")).join().getBody());
+            HttpResponse revalidated = client.send(HttpRequest.GET("http://localhost:" + serverPort + "/validated")).join();
+            assertEquals(200, revalidated.getCode());
+            assertEquals("Validated", revalidated.getBody());
+            assertEquals(2, requests.get());
+            assertTrue(headers.get("if-none-match").contains("\"v1\""));
+            assertEquals(1, client.getCache().getRevalidations());
+            assertEquals(0, client.getCache().getHits());
+
+            response.put("etag", "\"v2\"");
+            response.put("content", "Updated");
+            assertEquals("Updated", client.send(HttpRequest.GET("http://localhost:" + serverPort + "/validated")).join().getBody());
+            assertEquals(1, client.getCache().getRevalidations());
+        }
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedResponses() {
+        response.put("content", "x".repeat(1000));
+        response.put("cache-control", "max-age=60");
+        try (HttpClient client = builder().cache(5000).build()) {
+            for (int i = 0; i < 5; i++) {
+                client.send(HttpRequest.GET("http://localhost:" + serverPort + "/lru/" + i)).join();
+            }
+            assertTrue(client.getCache().getSize() <= 5000);
+            assertEquals(3, client.getCache().getEntries());
+            assertEquals(2, client.getCache().getEvictions());
+            client.send(HttpRequest.GET("http://localhost:" + serverPort + "/lru/4")).join();
+            assertEquals(1, client.getCache().getHits());
+            client.send(HttpRequest.GET("http://localhost:" + serverPort + "/lru/0")).join();
+            assertEquals(6, requests.get());
+        }
+    }
+
     //TODO test errors, strange content, and timeouts of different kinds
 }
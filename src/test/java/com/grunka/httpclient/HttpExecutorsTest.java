@@ -0,0 +1,157 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class HttpExecutorsTest {
+    private static final byte[] RESPONSE = "HTTP/1.1 200 OK\r\nContent-Length: 4\r\nConnection: close\r\n\r\nslow".getBytes(StandardCharsets.ISO_8859_1);
+
+    private ServerSocket serverSocket;
+    private Thread acceptor;
+    private ScheduledExecutorService responder;
+    private final AtomicInteger accepted = new AtomicInteger();
+    private final List<HttpClient> clients = new ArrayList<>();
+    private volatile long delayMillis = 250;
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = new ServerSocket(0, 4096);
+        responder = Executors.newScheduledThreadPool(2);
+        acceptor = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    accepted.incrementAndGet();
+                    responder.schedule(() -> respond(socket), delayMillis, TimeUnit.MILLISECONDS);
+                } catch (IOException e) {
+                    break;
+                }
+            }
+        }, "SlowAcceptor");
+        acceptor.start();
+    }
+
+    private static void respond(Socket socket) {
+        try (socket) {
+            InputStream inputStream = socket.getInputStream();
+            inputStream.skip(inputStream.available());
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write(RESPONSE);
+            outputStream.flush();
+        } catch (IOException ignore) {
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (HttpClient client : clients) {
+            client.close();
+        }
+        serverSocket.close();
+        acceptor.join();
+        responder.shutdownNow();
+    }
+
+    @Test
+    public void shouldKeepCommonPoolFreeWhileRequestsAreSlow() {
+        ExecutorService executor = HttpExecutors.boundedPlatform(32);
+        try {
+            List<CompletableFuture<HttpResponse>> responses = execute(256, HttpClient.builder().executor(executor));
+            assertCommonPoolResponsive();
+            for (CompletableFuture<HttpResponse> response : responses) {
+                assertEquals("slow", response.join().getBody());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldRunTenThousandConcurrentSlowRequestsOnVirtualThreads() throws Exception {
+        assumeTrue("Virtual threads not available", HttpExecutors.virtualThreadsAvailable());
+        // Client and server sockets live in the same process, so each request costs two file descriptors
+        int requests = (int) Math.min(10_000, (availableFileDescriptors() - 1000) / 2);
+        assumeTrue("Not enough file descriptors", requests > 1000);
+        delayMillis = 5000;
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        ExecutorService executor = HttpExecutors.virtualThreadPerTask();
+        try {
+            List<CompletableFuture<HttpResponse>> responses = execute(requests, HttpClient.builder().executor(executor));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (accepted.get() < requests && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals("All requests should be in flight at once", requests, accepted.get());
+            assertCommonPoolResponsive();
+            int platformThreads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+            assertTrue("Too many platform threads started: " + platformThreads, platformThreads < Runtime.getRuntime().availableProcessors() + 16);
+            for (CompletableFuture<HttpResponse> response : responses) {
+                assertEquals("slow", response.join().getBody());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldBoundPlatformThreadsOfDefaultExecutorWhileRequestsAreSlow() {
+        assumeTrue("Default executor uses virtual threads", !HttpExecutors.virtualThreadsAvailable());
+        delayMillis = 100;
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        List<CompletableFuture<HttpResponse>> responses = execute(HttpExecutors.DEFAULT_PLATFORM_THREADS * 10, HttpClient.builder());
+        assertCommonPoolResponsive();
+        for (CompletableFuture<HttpResponse> response : responses) {
+            assertEquals("slow", response.join().getBody());
+        }
+        int platformThreads = ManagementFactory.getThreadMXBean().getPeakThreadCount() - threadsBefore;
+        assertTrue("Too many platform threads started: " + platformThreads, platformThreads <= HttpExecutors.DEFAULT_PLATFORM_THREADS + 16);
+    }
+
+    private List<CompletableFuture<HttpResponse>> execute(int requests, HttpClient.Builder builder) {
+        HttpClient client = builder.build();
+        clients.add(client);
+        List<CompletableFuture<HttpResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            responses.add(client.send(HttpRequest.GET("http://localhost:" + serverSocket.getLocalPort() + "/slow").disconnect()));
+        }
+        return responses;
+    }
+
+    private static void assertCommonPoolResponsive() {
+        CompletableFuture<String> probe = CompletableFuture.supplyAsync(() -> "ok", ForkJoinPool.commonPool());
+        assertEquals("ok", probe.completeOnTimeout("starved", 250, TimeUnit.MILLISECONDS).join());
+    }
+
+    private static long availableFileDescriptors() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            com.sun.management.UnixOperatingSystemMXBean unix = (com.sun.management.UnixOperatingSystemMXBean) os;
+            return unix.getMaxFileDescriptorCount() - unix.getOpenFileDescriptorCount();
+        }
+        return Long.MAX_VALUE;
+    }
+}
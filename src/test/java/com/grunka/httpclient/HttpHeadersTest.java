@@ -0,0 +1,79 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+@RunWith(Parameterized.class)
+public class HttpHeadersTest {
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> transports() {
+        return List.of(new Object[]{"url connection", 0}, new Object[]{"nio", 1});
+    }
+
+    private final int eventLoopThreads;
+    private StubServer server;
+    private HttpClient client;
+
+    public HttpHeadersTest(String name, int eventLoopThreads) {
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer(request -> {
+            if (request.path.equals("/cached")) {
+                return StubServer.Response.ok("cached").header("Cache-Control", "max-age=60").header("ETag", "\"v1\"").header("X-RateLimit-Remaining", "7");
+            }
+            return StubServer.Response.status(429, "slow down").header("Retry-After", "3").header("X-RateLimit-Remaining", "0");
+        });
+        HttpClient.Builder builder = HttpClient.builder().cache(1024 * 1024);
+        if (eventLoopThreads > 0) {
+            builder.nioTransport(eventLoopThreads);
+        }
+        client = builder.build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void shouldExposeResponseHeaders() {
+        HttpResponse response = client.send(HttpRequest.GET(server.url("/limited"))).join();
+        assertEquals(429, response.getCode());
+        assertEquals(3, response.getHeaders().firstValueAsLong("retry-after").getAsLong());
+        assertEquals("0", response.getHeaders().firstValue("X-RATELIMIT-REMAINING"));
+        assertEquals(List.of("9"), response.getHeaders().allValues("Content-Length"));
+        assertNull(response.getHeaders().firstValue("ETag"));
+        assertFalse(response.getHeaders().contains("ETag"));
+        BodyResponse<byte[]> bytes = client.send(HttpRequest.GET(server.url("/limited")), BodyHandlers.ofByteArray()).join();
+        assertEquals(List.of("3"), bytes.getHeaders().map().get("Retry-After"));
+    }
+
+    @Test
+    public void shouldExposeStoredHeadersOfCachedResponses() {
+        assertEquals("7", client.send(HttpRequest.GET(server.url("/cached"))).join().getHeaders().firstValue("X-RateLimit-Remaining"));
+        HttpResponse cached = client.send(HttpRequest.GET(server.url("/cached"))).join();
+        assertEquals(1, server.requests());
+        assertEquals("\"v1\"", cached.getHeaders().firstValue("etag"));
+        assertEquals("max-age=60", cached.getHeaders().firstValue("Cache-Control"));
+    }
+
+    @Test
+    public void shouldHaveNoHeadersForConstructedResponses() {
+        assertEquals(0, new HttpResponse(200, "ok").getHeaders().map().size());
+        assertEquals(0, new BodyResponse<>(200, "ok").getHeaders().map().size());
+    }
+}
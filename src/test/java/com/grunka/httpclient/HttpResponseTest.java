@@ -0,0 +1,96 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HttpResponseTest {
+    private StubServer server;
+    private HttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer(request -> {
+            if (request.path.equals("/created")) {
+                return StubServer.Response.status(201, "created");
+            }
+            if (request.path.equals("/no-content")) {
+                return StubServer.Response.status(204, "");
+            }
+            if (request.path.equals("/latin1")) {
+                return new StubServer.Response(200, "åäö".getBytes(StandardCharsets.ISO_8859_1)).header("Content-Type", "text/plain; charset=ISO-8859-1");
+            }
+            return StubServer.Response.ok("{\"name\":\"åäö\"}").header("Content-Type", "application/json");
+        });
+        client = HttpClient.builder().build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void shouldPassStatusCodeThroughAndCountAny2xxAsOk() {
+        HttpResponse created = client.send(HttpRequest.GET(server.url("/created"))).join();
+        assertEquals(201, created.getCode());
+        assertTrue(created.isOk());
+        HttpResponse noContent = client.send(HttpRequest.GET(server.url("/no-content"))).join();
+        assertEquals(204, noContent.getCode());
+        assertTrue(noContent.isOk());
+        assertFalse(new HttpResponse(304, "").isOk());
+        assertFalse(new HttpResponse(404, "").isOk());
+    }
+
+    @Test
+    public void shouldKeepBytesAndDecodeOnDemand() {
+        HttpResponse response = client.send(HttpRequest.GET(server.url("/json"))).join();
+        assertArrayEquals("{\"name\":\"åäö\"}".getBytes(StandardCharsets.UTF_8), response.getBytes());
+        ByteBuffer buffer = response.getByteBuffer();
+        assertTrue(buffer.isReadOnly());
+        assertEquals(response.getBytes().length, buffer.remaining());
+        assertEquals(StandardCharsets.UTF_8, response.getCharset());
+        assertEquals("{\"name\":\"åäö\"}", response.getBody());
+        assertSame(response.getBody(), response.getBody());
+    }
+
+    @Test
+    public void shouldDecodeUsingCharsetOfResponse() {
+        HttpResponse response = client.send(HttpRequest.GET(server.url("/latin1"))).join();
+        assertEquals(StandardCharsets.ISO_8859_1, response.getCharset());
+        assertEquals("åäö", response.getBody());
+        assertEquals(3, response.getBytes().length);
+    }
+
+    @Test
+    public void shouldEncodeBodyOfConstructedResponse() {
+        HttpResponse response = new HttpResponse(200, "åäö");
+        assertArrayEquals("åäö".getBytes(StandardCharsets.UTF_8), response.getBytes());
+        assertEquals("åäö", response.getBody());
+    }
+
+    @Test
+    public void shouldResolveCharsetsFromContentType() {
+        assertEquals(StandardCharsets.ISO_8859_1, HttpClient.parseCharsetFromContentType("text/plain; charset=iso-8859-1", StandardCharsets.UTF_8));
+        assertEquals(StandardCharsets.UTF_16, HttpClient.parseCharsetFromContentType("text/plain; charset=UTF-16; format=flowed", StandardCharsets.UTF_8));
+        assertEquals(StandardCharsets.US_ASCII, HttpClient.parseCharsetFromContentType("text/plain", StandardCharsets.US_ASCII));
+        assertEquals(StandardCharsets.UTF_8, HttpClient.parseCharsetFromContentType("text/plain", StandardCharsets.UTF_8));
+        assertEquals(StandardCharsets.UTF_8, HttpClient.parseCharsetFromContentType("text/plain; charset=no-such-charset", StandardCharsets.UTF_8));
+        assertEquals(StandardCharsets.UTF_8, HttpClient.parseCharsetFromContentType("text/plain; charset=\"illegal name\"", StandardCharsets.UTF_8));
+        assertEquals(StandardCharsets.UTF_8, HttpClient.parseCharsetFromContentType(null, StandardCharsets.UTF_8));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(StandardCharsets.UTF_8, HttpClient.parseCharsetFromContentType("text/plain; v=" + i, StandardCharsets.UTF_8));
+        }
+        assertEquals(StandardCharsets.ISO_8859_1, HttpClient.parseCharsetFromContentType("text/plain; charset=iso-8859-1", StandardCharsets.UTF_8));
+    }
+}
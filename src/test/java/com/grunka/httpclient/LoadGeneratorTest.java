@@ -0,0 +1,77 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LoadGeneratorTest {
+    private StubServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer(request -> request.path.equals("/missing") ? StubServer.Response.status(404, "Missing") : StubServer.Response.ok("Hello"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    private LoadGenerator.Report run(String... args) throws InterruptedException {
+        LoadGenerator.Options options = LoadGenerator.Options.parse(args);
+        try (HttpClient client = options.client()) {
+            return new LoadGenerator(client, options).run();
+        }
+    }
+
+    @Test
+    public void shouldRunClosedLoop() throws Exception {
+        LoadGenerator.Report report = run("--url", server.url("/hello"), "--concurrency", "4", "--duration", "0.5", "--warmup", "0.1");
+        assertTrue(report.requests > 0);
+        assertEquals(0, report.errors);
+        assertEquals(report.requests, (long) report.codes.get(200));
+        assertEquals(report.requests * 5, report.bytes);
+        assertTrue(report.latency.getValueAtPercentile(50) > 0);
+    }
+
+    @Test
+    public void shouldRunOpenLoopAtRate() throws Exception {
+        LoadGenerator.Report report = run("--url", server.url("/hello"), "--rate", "200", "--duration", "1", "--warmup", "0");
+        assertEquals(200, report.requests, 10);
+        assertEquals(200, report.throughput(), 10);
+        assertTrue(report.latency.getMax() >= report.serviceTime.getMin());
+    }
+
+    @Test
+    public void shouldMixRequestsAndCountErrors() throws Exception {
+        LoadGenerator.Report report = run("--request", "1*GET " + server.url("/hello"), "--request", "1*POST " + server.url("/missing") + " {\"a\": 1}", "--rate", "200", "--duration", "1", "--warmup", "0");
+        long missing = report.codes.get(404);
+        assertTrue(missing > 50 && missing < 150);
+        assertEquals(missing, report.errors);
+        assertEquals(missing, (long) report.errorsByType.get("HTTP 404"));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        report.print(new PrintStream(output, true, StandardCharsets.UTF_8));
+        String printed = output.toString(StandardCharsets.UTF_8);
+        assertTrue(printed, printed.contains("p99.9"));
+        assertTrue(printed, printed.contains("HTTP 404: " + missing));
+    }
+
+    @Test
+    public void shouldRejectInvalidOptions() {
+        for (String[] args : new String[][]{{}, {"--url"}, {"--url", "http://localhost/", "--rate", "-1"}, {"--request", "PUT http://localhost/"}, {"--bogus", "1"}}) {
+            try {
+                LoadGenerator.Options.parse(args);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NioTransportTest extends HttpClientTest {
+    private HttpClient client;
+
+    @Before
+    public void createClient() {
+        client = builder().build();
+    }
+
+    @After
+    public void closeClient() {
+        client.close();
+    }
+
+    @Override
+    protected HttpClient.Builder builder() {
+        return HttpClient.builder().nioTransport(2);
+    }
+
+    @Override
+    protected CompletableFuture<HttpResponse> execute(HttpRequest request) {
+        return client.send(request);
+    }
+
+    @Test
+    public void shouldKeepEventLoopRunningWhenTasksThrow() throws Exception {
+        NioEventLoop loop = new NioEventLoop("test-loop");
+        try {
+            loop.execute(() -> {
+                throw new IllegalStateException("Broken task");
+            });
+            CompletableFuture<String> ran = new CompletableFuture<>();
+            loop.execute(() -> ran.complete("ran"));
+            assertEquals("ran", ran.get(5, TimeUnit.SECONDS));
+        } finally {
+            loop.close();
+        }
+    }
+
+    @Test
+    public void shouldFailOnlyTheExchangeThatThrowsOnTheEventLoop() throws Exception {
+        try (StubServer server = new StubServer(request -> StubServer.Response.ok("ok")); HttpClient client = HttpClient.builder().nioTransport(1).build()) {
+            AtomicBoolean read = new AtomicBoolean();
+            // The event loop asks for the length again once the body has been read
+            BodyPublisher broken = new BodyPublisher() {
+                @Override
+                public long contentLength() {
+                    if (read.get()) {
+                        throw new IllegalStateException("Broken publisher");
+                    }
+                    return 4;
+                }
+
+                @Override
+                public ReadableByteChannel open() {
+                    ByteBuffer body = ByteBuffer.wrap("body".getBytes(StandardCharsets.UTF_8));
+                    return new ReadableByteChannel() {
+                        @Override
+                        public int read(ByteBuffer destination) {
+                            if (!body.hasRemaining()) {
+                                read.set(true);
+                                return -1;
+                            }
+                            int length = body.remaining();
+                            destination.put(body);
+                            return length;
+                        }
+
+                        @Override
+                        public boolean isOpen() {
+                            return true;
+                        }
+
+                        @Override
+                        public void close() {
+                        }
+                    };
+                }
+            };
+            try {
+                client.send(HttpRequest.POST(server.url("/")).content(broken)).get(5, TimeUnit.SECONDS);
+                fail("Expected the request to fail");
+            } catch (ExecutionException e) {
+                assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IllegalStateException);
+            }
+            assertEquals("ok", client.send(HttpRequest.GET(server.url("/"))).get(5, TimeUnit.SECONDS).getBody());
+        }
+    }
+}
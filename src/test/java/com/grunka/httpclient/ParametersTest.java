@@ -3,7 +3,10 @@ package com.grunka.httpclient;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 
@@ -48,4 +51,40 @@ public class ParametersTest {
 		parameters = new Parameters(initializer);
 		assertEquals("a=A&b=B", parameters.toString());
 	}
+
+	@Test
+	public void shouldKeepInsertionOrder() {
+		parameters = Parameters.inInsertionOrder().add("b", "1").add("a", "2").add("b", "3");
+		assertEquals("b=1&b=3&a=2", parameters.toString());
+	}
+
+	@Test
+	public void shouldEncodeLikeUrlEncoder() {
+		assertEquals("a+b=%F0%9F%98%80%E2%82%AC%3F*-._", new Parameters().add("a b", "\uD83D\uDE00\u20AC\uD800*-._").toString());
+		Random random = new Random(1);
+		for (int i = 0; i < 1000; i++) {
+			char[] chars = new char[random.nextInt(20)];
+			for (int j = 0; j < chars.length; j++) {
+				chars[j] = (char) (random.nextBoolean() ? random.nextInt(128) : random.nextInt(Character.MAX_VALUE + 1));
+			}
+			String value = new String(chars);
+			assertEquals("k=" + URLEncoder.encode(value, StandardCharsets.UTF_8), new Parameters().add("k", value).toString());
+		}
+	}
+
+	@Test
+	public void shouldEncodeEmptyParameters() {
+		assertEquals("", parameters.toString());
+		assertEquals("=", parameters.add("", "").toString());
+	}
+
+	@Test
+	public void shouldAppendQueryToUrl() {
+		parameters.add("q", "a b").add("page", "2");
+		assertEquals("http://localhost/search?page=2&q=a+b", HttpRequest.GET("http://localhost/search").query(parameters).url);
+		assertEquals("http://localhost/search?x=1&page=2&q=a+b", HttpRequest.GET("http://localhost/search?x=1").query(parameters).url);
+		assertEquals("http://localhost/search?page=2&q=a+b", HttpRequest.GET("http://localhost/search?").query(parameters).url);
+		assertEquals("http://localhost/search?page=2&q=a+b#top", HttpRequest.GET("http://localhost/search#top").query(parameters).url);
+		assertEquals("http://localhost/search", HttpRequest.GET("http://localhost/search").query(new Parameters()).url);
+	}
 }
@@ -0,0 +1,145 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RateLimiterTest {
+    // The fake clock stands still, so permits only come back when it is moved, while waits still take real time
+    private final AtomicLong clock = new AtomicLong();
+    private StubServer server;
+    private HttpClient client;
+    private RateLimiter rateLimiter;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer(request -> StubServer.Response.ok("ok"));
+    }
+
+    private void createClient(RateLimiter.Builder builder) {
+        rateLimiter = builder.nanoClock(clock::get).build();
+        client = HttpClient.builder().rateLimiter(rateLimiter).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.close();
+        }
+        server.close();
+    }
+
+    private HttpRequest request() {
+        return HttpRequest.GET(server.url("/"));
+    }
+
+    private void assertRejected(CompletableFuture<HttpResponse> response) {
+        try {
+            response.join();
+            fail("Expected the request to be rate limited");
+        } catch (CompletionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof RateLimitedException);
+        }
+    }
+
+    private void advance(long millis) {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    public void shouldLetBurstThroughAndMakeTheRestWait() {
+        createClient(RateLimiter.builder().perHost(10, 2).maxWait(250));
+        long started = System.nanoTime();
+        List<CompletableFuture<HttpResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            responses.add(client.send(request()));
+        }
+        assertEquals(2, rateLimiter.getWaiting());
+        assertRejected(client.send(request()));
+        List<Long> elapsed = new ArrayList<>();
+        for (CompletableFuture<HttpResponse> response : responses) {
+            assertEquals("ok", response.join().getBody());
+            elapsed.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        }
+        assertTrue("Waited " + elapsed, elapsed.get(2) >= 100 && elapsed.get(3) >= 200);
+        assertEquals(4, server.requests());
+        assertEquals(1, rateLimiter.getRejected());
+        assertEquals(0, rateLimiter.getWaiting());
+        assertEquals(4, rateLimiter.getWaitTime().getCount());
+        assertEquals(0, rateLimiter.getWaitTime().getMin());
+        assertEquals(200, TimeUnit.NANOSECONDS.toMillis(rateLimiter.getWaitTime().getMax()), 5);
+    }
+
+    @Test
+    public void shouldRejectInsteadOfWaitingWithoutMaxWait() {
+        createClient(RateLimiter.builder().perHost(1, 1).maxWait(0));
+        assertEquals(200, client.send(request()).join().getCode());
+        assertRejected(client.send(request()));
+        advance(999);
+        assertFalse(rateLimiter.tryAcquire(request()));
+        advance(1);
+        assertTrue(rateLimiter.tryAcquire(request()));
+        assertRejected(client.send(request()));
+        assertEquals(1, server.requests());
+        assertEquals(3, rateLimiter.getRejected());
+        assertEquals(1, rateLimiter.getWaitTime().getCount());
+    }
+
+    @Test
+    public void shouldLimitTagsOnTopOfHosts() {
+        String host = "localhost:" + server.port();
+        createClient(RateLimiter.builder().host(host, 1, 3).tag("search", 1, 1).maxWait(0));
+        assertEquals(200, client.send(request().tag("search")).join().getCode());
+        assertRejected(client.send(request().tag("search")));
+        assertEquals(200, client.send(request().tag("other")).join().getCode());
+        assertEquals(200, client.send(request()).join().getCode());
+        assertRejected(client.send(request()));
+        assertEquals(200, client.send(HttpRequest.GET("http://127.0.0.1:" + server.port() + "/")).join().getCode());
+        advance(1000);
+        assertEquals(200, client.send(request().tag("search")).join().getCode());
+        assertRejected(client.send(request().tag("other")));
+    }
+
+    @Test
+    public void shouldGivePermitsBackWhenCancelledWhileWaiting() {
+        createClient(RateLimiter.builder().perHost(1, 1));
+        assertEquals(200, client.send(request()).join().getCode());
+        CompletableFuture<HttpResponse> waiting = client.send(request());
+        assertEquals(1, rateLimiter.getWaiting());
+        waiting.cancel(true);
+        try {
+            waiting.join();
+            fail("Expected the request to be cancelled");
+        } catch (CancellationException expected) {
+        }
+        assertEquals(0, rateLimiter.getWaiting());
+        advance(1000);
+        assertTrue(rateLimiter.tryAcquire(request()));
+        assertEquals(1, server.requests());
+    }
+
+    @Test
+    public void shouldBlockUntilPermitsAreThere() throws Exception {
+        createClient(RateLimiter.builder().perHost(20, 1).maxWait(75));
+        assertTrue(rateLimiter.acquire(request()));
+        long started = System.nanoTime();
+        assertTrue(rateLimiter.acquire(request()));
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertFalse("Would have to wait 100 ms", rateLimiter.acquire(request()));
+        assertTrue(rateLimiter.acquire(HttpRequest.GET("http://example.com/")));
+        assertEquals(0, rateLimiter.getWaitTime().getCount());
+    }
+}
@@ -0,0 +1,119 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(Parameterized.class)
+public class RequestTemplateTest {
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> transports() {
+        return List.of(new Object[]{"url connection", 0}, new Object[]{"nio", 1});
+    }
+
+    private final int eventLoopThreads;
+    private final Map<String, StubServer.Request> received = new ConcurrentHashMap<>();
+    private StubServer server;
+    private HttpClient client;
+
+    public RequestTemplateTest(String name, int eventLoopThreads) {
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer(request -> {
+            received.put(request.path, request);
+            return StubServer.Response.ok(request.method + " " + request.path + " " + request.bodyAsString());
+        });
+        HttpClient.Builder builder = HttpClient.builder().header("X-Client", "client");
+        if (eventLoopThreads > 0) {
+            builder.nioTransport(eventLoopThreads);
+        }
+        client = builder.build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void shouldFillInPathParameters() {
+        RequestTemplate template = RequestTemplate.of(HttpRequest.GET(server.url("/users/{user}/items/{item}?fields=all")).header("X-Api-Key", "secret").accept("text/plain"));
+        assertEquals(List.of("user", "item"), template.getParameterNames());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("GET /users/a%20b%2Fc/items/" + i + "?fields=all ", client.send(template.request("a b/c", String.valueOf(i))).join().getBody());
+        }
+        StubServer.Request request = received.get("/users/a%20b%2Fc/items/2?fields=all");
+        assertEquals("secret", request.header("X-Api-Key"));
+        assertEquals("client", request.header("X-Client"));
+        assertEquals("text/plain", request.header("Accept"));
+        assertEquals("localhost:" + server.port(), request.header("Host"));
+    }
+
+    @Test
+    public void shouldAddQueryParametersToTemplatedRequests() {
+        RequestTemplate template = RequestTemplate.of(HttpRequest.GET(server.url("/search/{index}")));
+        Parameters query = Parameters.inInsertionOrder().add("q", "a b&c").add("page", "2");
+        assertEquals("GET /search/items?q=a+b%26c&page=2 ", client.send(template.request("items").query(query)).join().getBody());
+    }
+
+    @Test
+    public void shouldSendBodiesWithTemplatedRequests() {
+        RequestTemplate template = RequestTemplate.of(HttpRequest.POST(server.url("/items")).header("X-Api-Key", "secret"));
+        assertEquals("POST /items {\"a\":1}", client.send(template.request().json("{\"a\":1}")).join().getBody());
+        assertEquals("POST /items b=2", client.send(template.request().form(new Parameters().add("b", "2"))).join().getBody());
+        StubServer.Request request = received.get("/items");
+        assertEquals("secret", request.header("X-Api-Key"));
+        assertEquals("application/x-www-form-urlencoded; charset=UTF-8", request.header("Content-Type"));
+    }
+
+    @Test
+    public void shouldUseChangedHeadersOfTemplatedRequests() {
+        RequestTemplate template = RequestTemplate.of(HttpRequest.GET(server.url("/{name}")).header("X-Api-Key", "secret"));
+        client.send(template.request("first")).join();
+        client.send(template.request("second").header("X-Api-Key", "other").header("X-Extra", "extra")).join();
+        client.send(template.request("third")).join();
+        assertEquals("secret", received.get("/first").header("X-Api-Key"));
+        assertNull(received.get("/first").header("X-Extra"));
+        assertEquals("other", received.get("/second").header("X-Api-Key"));
+        assertEquals("extra", received.get("/second").header("X-Extra"));
+        assertEquals("secret", received.get("/third").header("X-Api-Key"));
+        assertNull(received.get("/third").header("X-Extra"));
+    }
+
+    @Test
+    public void shouldReuseUrlWithoutPlaceholders() throws Exception {
+        RequestTemplate template = RequestTemplate.of(HttpRequest.GET(server.url("/fixed")));
+        HttpRequest request = template.request();
+        assertSame(template.url(request.url), template.url(template.request().url));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectWrongNumberOfValues() {
+        RequestTemplate.of(HttpRequest.GET(server.url("/{a}/{b}"))).request("a");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectPlaceholdersOutsideThePath() {
+        RequestTemplate.of(HttpRequest.GET(server.url("/items?id={id}")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectRelativeUrls() {
+        RequestTemplate.of(HttpRequest.GET("/items/{id}"));
+    }
+}
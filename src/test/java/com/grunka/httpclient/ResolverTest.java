@@ -0,0 +1,159 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResolverTest {
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final List<AutoCloseable> closeables = new ArrayList<>();
+    private Map<String, List<InetAddress>> hosts;
+
+    private final Resolver fakeResolver = host -> {
+        lookups.incrementAndGet();
+        List<InetAddress> addresses = hosts.get(host);
+        if (addresses == null) {
+            throw new UnknownHostException(host);
+        }
+        return addresses;
+    };
+
+    @Before
+    public void setUp() {
+        hosts = Map.of();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (AutoCloseable closeable : closeables) {
+            closeable.close();
+        }
+    }
+
+    private static InetAddress address(String address) throws UnknownHostException {
+        return InetAddress.getByName(address);
+    }
+
+    private HttpClient client(long connectAttemptDelay) {
+        HttpClient client = HttpClient.builder().nioTransport(1).resolver(fakeResolver).connectAttemptDelay(connectAttemptDelay).connectTimeout(5000).build();
+        closeables.add(client);
+        return client;
+    }
+
+    @Test
+    public void shouldConnectToNextAddressWhileFirstHangs() throws Exception {
+        // A listener with a full backlog never completes new connections, like an unreachable address
+        ServerSocket hanging = new ServerSocket(0, 1, address("127.0.0.2"));
+        closeables.add(hanging);
+        for (int i = 0; i < 3; i++) {
+            SocketChannel filler = SocketChannel.open();
+            filler.configureBlocking(false);
+            filler.connect(new InetSocketAddress(hanging.getInetAddress(), hanging.getLocalPort()));
+            closeables.add(filler);
+        }
+        StubServer server = new StubServer(request -> StubServer.Response.ok("Raced"), address("127.0.0.1"), hanging.getLocalPort());
+        closeables.add(server);
+        hosts = Map.of("racing.test", List.of(address("127.0.0.2"), address("127.0.0.1")));
+        long start = System.nanoTime();
+        HttpResponse response = client(50).send(HttpRequest.GET("http://racing.test:" + hanging.getLocalPort() + "/")).get(3, TimeUnit.SECONDS);
+        assertEquals("Raced", response.getBody());
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Took " + elapsed + " ms", elapsed < 1000);
+    }
+
+    @Test
+    public void shouldTryNextAddressWhenConnectionIsRefused() throws Exception {
+        StubServer server = new StubServer(request -> StubServer.Response.ok("Fallback"), address("127.0.0.1"), 0);
+        closeables.add(server);
+        hosts = Map.of("refused.test", List.of(address("127.0.0.3"), address("127.0.0.1")));
+        HttpResponse response = client(0).send(HttpRequest.GET("http://refused.test:" + server.port() + "/")).get(3, TimeUnit.SECONDS);
+        assertEquals("Fallback", response.getBody());
+    }
+
+    @Test
+    public void shouldFailForUnknownHost() {
+        try {
+            client(0).send(HttpRequest.GET("http://unknown.test/")).join();
+            fail();
+        } catch (CompletionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof UnknownHostException);
+        }
+    }
+
+    @Test
+    public void shouldCacheAddressesUntilTtlRunsOut() throws Exception {
+        hosts = Map.of("cached.test", List.of(address("127.0.0.1")));
+        AtomicLong now = new AtomicLong();
+        CachingResolver resolver = new CachingResolver(fakeResolver, 1000, now::get);
+        assertEquals(hosts.get("cached.test"), resolver.resolve("cached.test"));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        assertEquals(hosts.get("cached.test"), resolver.resolve("CACHED.test"));
+        assertEquals(1, lookups.get());
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        resolver.resolve("cached.test");
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void shouldDropExpiredAddresses() throws Exception {
+        Map<String, List<InetAddress>> known = new HashMap<>();
+        for (int i = 0; i < CachingResolver.MAX_ENTRIES + 10; i++) {
+            known.put("host" + i + ".test", List.of(address("127.0.0.1")));
+        }
+        hosts = known;
+        AtomicLong now = new AtomicLong();
+        CachingResolver resolver = new CachingResolver(fakeResolver, 1000, now::get);
+        for (int i = 0; i < CachingResolver.MAX_ENTRIES + 10; i++) {
+            resolver.resolve("host" + i + ".test");
+        }
+        assertEquals(CachingResolver.MAX_ENTRIES, resolver.size());
+        // The hosts that did not fit are still looked up and added once the expired ones are swept out
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        int before = lookups.get();
+        resolver.resolve("host" + CachingResolver.MAX_ENTRIES + ".test");
+        resolver.resolve("host" + CachingResolver.MAX_ENTRIES + ".test");
+        assertEquals(before + 1, lookups.get());
+        resolver.resolve("host0.test");
+        assertEquals(2, resolver.size());
+        // A host that can no longer be found does not keep its old addresses around, the other one waits for a sweep
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        hosts = Map.of();
+        try {
+            resolver.resolve("host0.test");
+            fail();
+        } catch (UnknownHostException expected) {
+        }
+        assertEquals(1, resolver.size());
+    }
+
+    @Test
+    public void shouldNotCacheFailedLookups() {
+        CachingResolver resolver = new CachingResolver(fakeResolver, 1000, System::nanoTime);
+        for (int i = 0; i < 2; i++) {
+            try {
+                resolver.resolve("unknown.test");
+                fail();
+            } catch (UnknownHostException expected) {
+            }
+        }
+        assertEquals(2, lookups.get());
+    }
+}
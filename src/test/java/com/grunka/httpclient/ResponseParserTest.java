@@ -0,0 +1,112 @@
+package com.grunka.httpclient;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResponseParserTest {
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    @Test
+    public void shouldParseFixedLengthResponse() throws IOException {
+        ResponseParser parser = new ResponseParser(this::consume);
+        assertTrue(parser.feed(bytes("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 5\r\n\r\nHello")));
+        assertEquals(200, parser.code());
+        assertEquals("text/plain", parser.header("content-type"));
+        assertEquals("Hello", body());
+        assertTrue(parser.keepAlive());
+    }
+
+    @Test
+    public void shouldKeepHeadersAsReceived() throws IOException {
+        ResponseParser parser = new ResponseParser(this::consume);
+        StringBuilder many = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            many.append("X-Header-").append(i).append(": ").append(i).append("\r\n");
+        }
+        assertTrue(parser.feed(bytes("HTTP/1.1 100 Continue\r\nX-Interim: 1\r\n\r\nHTTP/1.1 200 OK\r\nSet-Cookie:a=1\r\n  ETag :  \"x\"  \r\nset-cookie: b=2\r\n" + many + "Content-Length: 0\r\n\r\n")));
+        HttpHeaders headers = parser.headers();
+        assertEquals("\"x\"", headers.firstValue("etag"));
+        assertEquals(List.of("a=1", "b=2"), headers.allValues("SET-COOKIE"));
+        assertEquals(List.of(), headers.allValues("X-Interim"));
+        assertEquals("99", headers.firstValue("x-header-99"));
+        assertEquals(0, headers.firstValueAsLong("Content-Length").getAsLong());
+        assertFalse(headers.firstValueAsLong("ETag").isPresent());
+        assertFalse(headers.contains("X-Interim"));
+        assertEquals(103, headers.map().size());
+        assertEquals(List.of("a=1", "b=2"), headers.map().get("set-cookie"));
+    }
+
+    @Test
+    public void shouldParseResponseSplitAcrossReads() throws IOException {
+        ResponseParser parser = new ResponseParser(this::consume);
+        String response = "HTTP/1.1 404 Not Found\nContent-Length: 9\n\nNot found";
+        for (int i = 0; i < response.length() - 1; i++) {
+            assertFalse(parser.feed(bytes(response.substring(i, i + 1))));
+        }
+        assertTrue(parser.feed(bytes(response.substring(response.length() - 1))));
+        assertEquals(404, parser.code());
+        assertEquals("Not found", body());
+    }
+
+    @Test
+    public void shouldParseChunkedResponse() throws IOException {
+        ResponseParser parser = new ResponseParser(this::consume);
+        assertTrue(parser.feed(bytes("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5;ext=1\r\nHello\r\n7\r\n, World\r\n0\r\nTrailer: x\r\n\r\n")));
+        assertEquals("Hello, World", body());
+    }
+
+    @Test
+    public void shouldSkipInterimResponses() throws IOException {
+        ResponseParser parser = new ResponseParser(this::consume);
+        assertTrue(parser.feed(bytes("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 201 Created\r\nContent-Length: 0\r\n\r\n")));
+        assertEquals(201, parser.code());
+        assertEquals("", body());
+    }
+
+    @Test
+    public void shouldReadUntilCloseWithoutLength() throws IOException {
+        ResponseParser parser = new ResponseParser(this::consume);
+        assertFalse(parser.feed(bytes("HTTP/1.0 200 OK\r\n\r\nAll of it")));
+        parser.endOfStream();
+        assertTrue(parser.isDone());
+        assertFalse(parser.keepAlive());
+        assertEquals("All of it", body());
+    }
+
+    @Test
+    public void shouldFailOnPrematureEndOfStream() throws IOException {
+        ResponseParser parser = new ResponseParser(this::consume);
+        parser.feed(bytes("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nshort"));
+        try {
+            parser.endOfStream();
+            fail();
+        } catch (SocketException e) {
+            assertEquals("Premature end of response", e.getMessage());
+        }
+    }
+
+    private static ByteBuffer bytes(String content) {
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private void consume(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        body.writeBytes(bytes);
+    }
+
+    private String body() {
+        return body.toString(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,117 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryPolicyTest {
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private volatile String retryAfter;
+    private StubServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer(request -> {
+            if (failuresLeft.getAndDecrement() > 0) {
+                StubServer.Response response = StubServer.Response.status(503, "Unavailable");
+                return retryAfter == null ? response : response.header("Retry-After", retryAfter);
+            }
+            return StubServer.Response.ok("Done");
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    private static RetryPolicy.Builder fastRetries() {
+        return RetryPolicy.builder().maxAttempts(3).backoff(1, 10, 2);
+    }
+
+    @Test
+    public void shouldRetryRetryableCodes() {
+        failuresLeft.set(2);
+        try (HttpClient client = HttpClient.builder().retryPolicy(fastRetries().build()).build()) {
+            HttpResponse response = client.send(HttpRequest.GET(server.url("/retry"))).join();
+            assertEquals("Done", response.getBody());
+            assertEquals(3, server.requests());
+            assertEquals(2, client.getMetrics().getRetries());
+        }
+    }
+
+    @Test
+    public void shouldGiveBackLastResponseWhenOutOfAttempts() {
+        failuresLeft.set(5);
+        try (HttpClient client = HttpClient.builder().retryPolicy(fastRetries().build()).build()) {
+            HttpResponse response = client.send(HttpRequest.GET(server.url("/retry"))).join();
+            assertEquals(503, response.getCode());
+            assertEquals(3, server.requests());
+        }
+    }
+
+    @Test
+    public void shouldOnlyRetryPostWhenAllowed() {
+        failuresLeft.set(1);
+        try (HttpClient client = HttpClient.builder().retryPolicy(fastRetries().build()).build()) {
+            assertEquals(503, client.send(HttpRequest.POST(server.url("/post")).json("{}")).join().getCode());
+            failuresLeft.set(1);
+            HttpRequest allowed = HttpRequest.POST(server.url("/post")).json("{}").retryPolicy(fastRetries().retryPost(true).build());
+            assertEquals(200, client.send(allowed).join().getCode());
+            assertEquals(3, server.requests());
+        }
+    }
+
+    @Test
+    public void shouldHonorRetryAfter() {
+        failuresLeft.set(1);
+        retryAfter = "1";
+        try (HttpClient client = HttpClient.builder().retryPolicy(fastRetries().build()).build()) {
+            // Asking for more than the max backoff hands the response back
+            assertEquals(503, client.send(HttpRequest.GET(server.url("/later"))).join().getCode());
+            failuresLeft.set(1);
+            long start = System.nanoTime();
+            RetryPolicy patient = RetryPolicy.builder().backoff(1, 5000, 2).build();
+            assertEquals(200, client.send(HttpRequest.GET(server.url("/later")).retryPolicy(patient)).join().getCode());
+            assertTrue((System.nanoTime() - start) / 1_000_000 >= 900);
+        }
+    }
+
+    @Test
+    public void shouldStopRetryingWhenBudgetIsSpent() {
+        failuresLeft.set(Integer.MAX_VALUE);
+        RetryPolicy policy = RetryPolicy.builder().maxAttempts(5).backoff(1, 10, 2).budget(0, 2).build();
+        try (HttpClient client = HttpClient.builder().retryPolicy(policy).build()) {
+            client.send(HttpRequest.GET(server.url("/down"))).join();
+            assertEquals(3, server.requests());
+            client.send(HttpRequest.GET(server.url("/down"))).join();
+            assertEquals(4, server.requests());
+        }
+    }
+
+    @Test
+    public void shouldRetryRefusedConnections() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        try (HttpClient client = HttpClient.builder().retryPolicy(fastRetries().build()).build()) {
+            try {
+                client.send(HttpRequest.GET("http://localhost:" + port + "/refused")).join();
+                fail();
+            } catch (CompletionException e) {
+                assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof ConnectException);
+            }
+            assertEquals(2, client.getMetrics().getRetries());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.grunka.httpclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SingleFlightTest {
+    private final CountDownLatch release = new CountDownLatch(1);
+    private StubServer server;
+    private HttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer(request -> {
+            assertTrue(release.await(5, TimeUnit.SECONDS));
+            return request.path.equals("/fail") ? null : StubServer.Response.ok(request.path + " " + request.header("Accept"));
+        });
+        client = HttpClient.builder().coalesceGets(true).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void shouldShareConcurrentIdenticalGets() {
+        List<CompletableFuture<HttpResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            responses.add(client.send(HttpRequest.GET(server.url("/hot"))));
+        }
+        CompletableFuture<HttpResponse> other = client.send(HttpRequest.GET(server.url("/hot")).accept(HttpClient.TEXT_PLAIN));
+        release.countDown();
+        for (CompletableFuture<HttpResponse> response : responses) {
+            assertEquals("/hot */*", response.join().getBody());
+        }
+        assertEquals("/hot text/plain", other.join().getBody());
+        assertEquals(2, server.requests());
+        assertEquals(49, client.getMetrics().getCoalesced());
+
+        client.send(HttpRequest.GET(server.url("/hot"))).join();
+        assertEquals(3, server.requests());
+    }
+
+    @Test
+    public void shouldNotLetOneCallerCancelForOthers() {
+        CompletableFuture<HttpResponse> first = client.send(HttpRequest.GET(server.url("/hot")));
+        CompletableFuture<HttpResponse> second = client.send(HttpRequest.GET(server.url("/hot")));
+        first.cancel(true);
+        release.countDown();
+        assertEquals("/hot */*", second.join().getBody());
+    }
+
+    @Test
+    public void shouldAbortSharedCallWhenEveryCallerCancels() throws Exception {
+        CompletableFuture<HttpResponse> first = client.send(HttpRequest.GET(server.url("/hot")));
+        CompletableFuture<HttpResponse> second = client.send(HttpRequest.GET(server.url("/hot")));
+        first.cancel(true);
+        Thread.sleep(100);
+        assertEquals(1, client.getConnectionPool().getActive());
+        second.cancel(true);
+        long deadline = System.currentTimeMillis() + 1000;
+        while (client.getConnectionPool().getActive() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, client.getConnectionPool().getActive());
+        // The key went with the cancelled call so the next caller gets a call of its own
+        CompletableFuture<HttpResponse> third = client.send(HttpRequest.GET(server.url("/hot")));
+        release.countDown();
+        assertEquals("/hot */*", third.get(5, TimeUnit.SECONDS).getBody());
+        assertEquals(1, client.getMetrics().getCoalesced());
+    }
+
+    @Test
+    public void shouldReleaseKeyOnFailure() {
+        CompletableFuture<HttpResponse> first = client.send(HttpRequest.GET(server.url("/fail")));
+        CompletableFuture<HttpResponse> second = client.send(HttpRequest.GET(server.url("/fail")));
+        release.countDown();
+        assertTrue(first.handle((response, e) -> e != null).join());
+        assertTrue(second.handle((response, e) -> e != null).join());
+        // The URL connection retries a failed GET once by itself, so count what one failed call amounts to
+        int requestsPerCall = server.requests();
+        assertTrue(client.send(HttpRequest.GET(server.url("/fail"))).handle((response, e) -> e != null).join());
+        assertEquals(2 * requestsPerCall, server.requests());
+    }
+}
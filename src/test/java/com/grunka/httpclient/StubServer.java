@@ -0,0 +1,275 @@
+package com.grunka.httpclient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal keep-alive capable HTTP/1.1 server for tests, every connection is served by its own thread.
+ */
+class StubServer implements AutoCloseable {
+    interface Handler {
+        Response handle(Request request) throws Exception;
+    }
+
+    static class Request {
+        final String method;
+        final String path;
+        final Map<String, String> headers;
+        final byte[] body;
+
+        Request(String method, String path, Map<String, String> headers, byte[] body) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        String header(String name) {
+            return headers.get(name);
+        }
+
+        String bodyAsString() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    interface ChunkWriter {
+        void write(ChunkSink sink) throws Exception;
+    }
+
+    interface ChunkSink {
+        void chunk(byte[] data) throws IOException;
+    }
+
+    static class Response {
+        final int code;
+        final Map<String, String> headers = new LinkedHashMap<>();
+        final byte[] body;
+        ChunkWriter chunks;
+
+        Response(int code, byte[] body) {
+            this.code = code;
+            this.body = body;
+        }
+
+        static Response chunked(ChunkWriter chunks) {
+            Response response = new Response(200, new byte[0]).header("Transfer-Encoding", "chunked");
+            response.chunks = chunks;
+            return response;
+        }
+
+        static Response ok(String body) {
+            return new Response(200, body.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Response status(int code, String body) {
+            return new Response(code, body.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger maxOpenConnections = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile Handler handler;
+
+    StubServer(Handler handler) throws IOException {
+        this(handler, null, 0);
+    }
+
+    /**
+     * @param bindAddress the address to listen on, null for all addresses
+     * @param port        the port to listen on, 0 for any free port
+     */
+    StubServer(Handler handler, InetAddress bindAddress, int port) throws IOException {
+        this.handler = handler;
+        serverSocket = new ServerSocket(port, 1024, bindAddress);
+        acceptor = new Thread(this::accept, "StubServer-" + serverSocket.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    void handler(Handler handler) {
+        this.handler = handler;
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    String url(String path) {
+        return "http://localhost:" + port() + path;
+    }
+
+    int connections() {
+        return connections.get();
+    }
+
+    int maxOpenConnections() {
+        return maxOpenConnections.get();
+    }
+
+    int requests() {
+        return requests.get();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                maxOpenConnections.accumulateAndGet(openConnections.incrementAndGet(), Math::max);
+                sockets.add(socket);
+                Thread thread = new Thread(() -> serve(socket), "StubServer-connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                break;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            // Head and body in one write, separate small writes run into delayed acknowledgements
+            OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+            while (true) {
+                String requestLine = readLine(input);
+                if (requestLine == null || requestLine.isEmpty()) {
+                    return;
+                }
+                String[] parts = requestLine.split(" ");
+                Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                String line;
+                while ((line = readLine(input)) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    headers.merge(line.substring(0, colon).trim(), line.substring(colon + 1).trim(), (a, b) -> a + ", " + b);
+                }
+                byte[] body = readBody(input, headers);
+                requests.incrementAndGet();
+                Response response;
+                try {
+                    response = handler.handle(new Request(parts[0], parts[1], headers, body));
+                } catch (Exception e) {
+                    response = Response.status(500, String.valueOf(e));
+                }
+                if (response == null) {
+                    return;
+                }
+                StringBuilder head = new StringBuilder("HTTP/1.1 " + response.code + " Stub\r\n");
+                response.headers.forEach((name, value) -> head.append(name).append(": ").append(value).append("\r\n"));
+                if (!response.headers.containsKey("Transfer-Encoding")) {
+                    head.append("Content-Length: ").append(response.body.length).append("\r\n");
+                }
+                head.append("\r\n");
+                output.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+                if (response.chunks != null) {
+                    output.flush();
+                    try {
+                        response.chunks.write(data -> {
+                            output.write((Integer.toHexString(data.length) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                            output.write(data);
+                            output.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                            output.flush();
+                        });
+                    } catch (IOException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        return;
+                    }
+                    output.write("0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                } else {
+                    output.write(response.body);
+                }
+                output.flush();
+                if ("close".equalsIgnoreCase(headers.get("Connection")) || "close".equalsIgnoreCase(response.headers.get("Connection"))) {
+                    return;
+                }
+            }
+        } catch (IOException ignore) {
+        } finally {
+            sockets.remove(socket);
+            openConnections.decrementAndGet();
+        }
+    }
+
+    private static byte[] readBody(InputStream input, Map<String, String> headers) throws IOException {
+        if ("chunked".equalsIgnoreCase(headers.get("Transfer-Encoding"))) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            while (true) {
+                int size = Integer.parseInt(readLine(input).split(";")[0].trim(), 16);
+                if (size == 0) {
+                    while (!readLine(input).isEmpty()) {
+                        // Skip trailers
+                    }
+                    return body.toByteArray();
+                }
+                body.write(input.readNBytes(size));
+                readLine(input);
+            }
+        }
+        String contentLength = headers.get("Content-Length");
+        if (contentLength == null) {
+            return new byte[0];
+        }
+        return input.readNBytes(Integer.parseInt(contentLength));
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = input.read()) != -1) {
+            if (b == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) b);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    /**
+     * Closes all currently open connections while keeping the server running.
+     */
+    void dropConnections() {
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        dropConnections();
+    }
+}